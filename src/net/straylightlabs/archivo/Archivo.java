@@ -61,8 +61,12 @@ import java.nio.file.*;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
@@ -96,6 +100,7 @@ public class Archivo extends Application {
     public static final Path LOG_PATH = Paths.get(OSHelper.getDataDirectory().toString(), "log.txt");
     private static final int WINDOW_MIN_HEIGHT = 400;
     private static final int WINDOW_MIN_WIDTH = 555;
+    private static final int MAX_REJECTIONS_SHOWN = 10;
     private static final Path ARCHIVE_HISTORY_PATH = Paths.get(OSHelper.getDataDirectory().toString(), "history.xml");
 
     static {
@@ -178,7 +183,7 @@ public class Archivo extends Application {
         primaryStage.setOnCloseRequest(e -> {
             e.consume();
             if (confirmTaskCancellation()) {
-                archiveQueueManager.cancelAllArchiveTasks();
+                archiveQueueManager.suspendAllArchiveTasks();
                 cleanShutdown();
             }
         });
@@ -283,7 +288,7 @@ public class Archivo extends Application {
             setStatusText("Exiting...");
             try {
                 int msWaited = 0;
-                archiveQueueManager.cancelAllArchiveTasks();
+                archiveQueueManager.suspendAllArchiveTasks();
                 while (archiveQueueManager.hasTasks() && msWaited < msLimit) {
                     Thread.sleep(waitTimeMS);
                     msWaited += waitTimeMS;
@@ -319,11 +324,11 @@ public class Archivo extends Application {
         if (archiveQueueManager.hasTasks()) {
             Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
             alert.setTitle("Cancel Task Confirmation");
-            alert.setHeaderText("Really cancel all tasks and exit?");
+            alert.setHeaderText("Really pause all tasks and exit?");
             alert.setContentText("You are currently archiving recordings from your TiVo. Are you sure you want to " +
-                    "close Archivo and cancel these tasks?");
+                    "close Archivo? Your archive tasks will pick up where they left off the next time you start it.");
 
-            ButtonType cancelButtonType = new ButtonType("Cancel tasks and exit", ButtonBar.ButtonData.NO);
+            ButtonType cancelButtonType = new ButtonType("Pause tasks and exit", ButtonBar.ButtonData.NO);
             ButtonType keepButtonType = new ButtonType("Keep archiving", ButtonBar.ButtonData.CANCEL_CLOSE);
 
             alert.getButtonTypes().setAll(cancelButtonType, keepButtonType);
@@ -430,9 +435,61 @@ public class Archivo extends Application {
     }
 
     public void enqueueRecordingForArchiving(Recording recording) {
-        if (!archiveQueueManager.enqueueArchiveTask(recording, getActiveTivo(), getMak())) {
-            logger.error("Error adding recording to queue");
+        enqueueRecordingsForArchiving(Collections.singletonList(recording), Collections.emptySet());
+    }
+
+    /**
+     * Queue all of @recordings at once; much faster than queuing them one at a time when there are hundreds.
+     * @confirmedOverwrites holds the existing files the user has already agreed to replace.
+     */
+    public void enqueueRecordingsForArchiving(List<Recording> recordings, Set<Path> confirmedOverwrites) {
+        Map<Recording, String> rejected = archiveQueueManager.enqueueArchiveTasks(recordings, getActiveTivo(), getMak(),
+                confirmedOverwrites);
+        if (!rejected.isEmpty()) {
+            logger.error("Could not add {} of {} recordings to queue", rejected.size(), recordings.size());
+            showRejectedRecordings(rejected);
+        }
+    }
+
+    /**
+     * Tell the user which recordings we couldn't queue, and why.
+     */
+    private void showRejectedRecordings(Map<Recording, String> rejected) {
+        Alert alert = new Alert(Alert.AlertType.WARNING);
+        alert.initOwner(primaryStage);
+        alert.setTitle("Recordings Not Archived");
+        alert.setHeaderText(rejected.size() == 1 ? "One recording wasn't added to the queue" :
+                String.format("%d recordings weren't added to the queue", rejected.size()));
+        String details = rejected.entrySet().stream().limit(MAX_REJECTIONS_SHOWN)
+                .map(entry -> String.format("'%s': %s", entry.getKey().getFullTitle(), entry.getValue()))
+                .collect(Collectors.joining("\n"));
+        if (rejected.size() > MAX_REJECTIONS_SHOWN) {
+            details += String.format("\n\n...and %d more.", rejected.size() - MAX_REJECTIONS_SHOWN);
         }
+        alert.setContentText(details);
+        alert.show();
+    }
+
+    /**
+     * Resume archiving any of @recordings (everything on @tivo) that were still being archived when Archivo last
+     * exited.
+     */
+    public void resumeArchiving(List<Recording> recordings, Tivo tivo) {
+        archiveQueueManager.resumeArchiveTasks(recordings, tivo, getMak());
+    }
+
+    /**
+     * Returns true if Archivo was archiving recordings from @tivo when it last exited.
+     */
+    public boolean hasResumableTasks(Tivo tivo) {
+        return archiveQueueManager.hasResumableTasks(tivo);
+    }
+
+    /**
+     * Move @recording to the front of the archive queue.
+     */
+    public void prioritizeArchiving(Recording recording) {
+        archiveQueueManager.prioritizeArchiveTask(recording);
     }
 
     public void cancelArchiving(Recording recording) {
@@ -448,6 +505,7 @@ public class Archivo extends Application {
 
     public void archiveSelection() {
         List<Recording> toArchive = new ArrayList<>();
+        Set<Path> confirmedOverwrites = new HashSet<>();
         for (Recording recording : recordingListController.getRecordingSelection().getRecordingsWithChildren()) {
             if (recording.isSeriesHeading()) {
                 continue;
@@ -458,6 +516,10 @@ public class Archivo extends Application {
             } else {
                 SaveFileDialog dialog = new SaveFileDialog(getPrimaryStage(), recording, prefs);
                 archive = dialog.showAndWait();
+                if (archive) {
+                    // The file chooser already asked before letting the user pick an existing file
+                    confirmedOverwrites.add(recording.getDestination());
+                }
             }
             if (!archive) {
                 break;
@@ -476,17 +538,44 @@ public class Archivo extends Application {
                     // The the user canceled the dialog, don't archive anything
                     return;
                 }
+                // Whatever's left was either renamed (through the file chooser) or chosen to be replaced
+                destExists.stream().filter(toArchive::contains).map(Recording::getDestination)
+                        .forEach(confirmedOverwrites::add);
             }
         }
         // Enqueue selected recordings for archiving
-        for (Recording recording : toArchive) {
-            recording.setStatus(ArchiveStatus.QUEUED);
-            enqueueRecordingForArchiving(recording);
-        }
+        toArchive.forEach(recording -> recording.setExtraOutputs(buildExtraOutputs(recording)));
+        enqueueRecordingsForArchiving(toArchive, confirmedOverwrites);
     }
 
 
 
+    /**
+     * Add the extra file types the user wants to @recording, saved next to its destination. Encrypted TiVo files
+     * aren't decoded, so we can't make anything else from them.
+     */
+    private List<ArchiveOutput> buildExtraOutputs(Recording recording) {
+        List<ArchiveOutput> outputs = new ArrayList<>();
+        if (recording.getDestinationType() == FileType.TIVO) {
+            return outputs;
+        }
+        Set<FileType> types = new HashSet<>();
+        types.add(recording.getDestinationType());
+        Set<Path> paths = new HashSet<>();
+        paths.add(recording.getDestination());
+        for (FileType type : getUserPrefs().getExtraFileTypes()) {
+            if (type != FileType.TIVO && types.add(type)) {
+                ArchiveOutput output = ArchiveOutput.alongside(recording.getDestination(), type, paths);
+                paths.add(output.getDestination());
+                outputs.add(output);
+            }
+        }
+        if (!outputs.isEmpty()) {
+            logger.info("Also archiving {} as {}", recording.getFullTitle(), outputs);
+        }
+        return outputs;
+    }
+
     private boolean setOrganizedPath(Recording recording) {
         Path path = null;
         try {
@@ -655,6 +744,21 @@ public class Archivo extends Application {
         return (result.isPresent() && result.get() == actionButtonType);
     }
 
+    /**
+     * Let the user know that their TiVo will probably delete @recordings before we can download them.
+     */
+    public void showMissedDeadlineWarning(List<Recording> recordings) {
+        Alert alert = new Alert(Alert.AlertType.WARNING);
+        alert.initOwner(primaryStage);
+        alert.setTitle("Recordings May Be Removed");
+        alert.setHeaderText("Your TiVo may remove some recordings before Archivo can archive them");
+        alert.setContentText(String.format("Your TiVo expects to remove these recordings before the archive tasks " +
+                        "ahead of them finish: %s.\n\nTo archive a recording sooner, right-click it and choose " +
+                        "\"Archive Next\".",
+                recordings.stream().map(r -> String.format("'%s'", r.getFullTitle())).collect(Collectors.joining(", "))));
+        alert.show();
+    }
+
     public void tryNextMAK() {
         String nextMak = maks.tryNextMAK();
         if (nextMak == null) {
@@ -19,87 +19,407 @@
 
 package net.straylightlabs.archivo.controller;
 
+import javafx.application.Platform;
 import net.straylightlabs.archivo.Archivo;
 import net.straylightlabs.archivo.model.ArchiveHistory;
+import net.straylightlabs.archivo.model.ArchiveJournal;
+import net.straylightlabs.archivo.model.ArchiveOutput;
+import net.straylightlabs.archivo.model.ArchiveStage;
 import net.straylightlabs.archivo.model.ArchiveStatus;
+import net.straylightlabs.archivo.model.ArtifactCache;
 import net.straylightlabs.archivo.model.Recording;
 import net.straylightlabs.archivo.model.Tivo;
+import net.straylightlabs.archivo.utilities.OSHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Observable;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 /**
  * Enqueue archive requests for processing via a background thread, and allow archive tasks to be canceled.
+ * Tasks wait in a pending list until their TiVo has a free download slot, so downloads from different devices
+ * can run side-by-side. Pending tasks are ordered so recordings the TiVo will delete soonest download first.
+ * Every queued task is journaled, so tasks interrupted when Archivo exits can resume from their last completed stage.
  * Alerts its observes when the queue size changes between empty and not-empty.
  */
 public class ArchiveQueueManager extends Observable {
     private final Archivo mainApp;
     private final ExecutorService executorService;
     private final ConcurrentHashMap<Recording, ArchiveTask> queuedTasks;
-    private final Lock downloadLock;
-    private final Lock processingLock;
+    private final List<ArchiveTask> pendingTasks;
+    private final DownloadSlots downloadSlots;
+    private final DeadlineScheduler deadlineScheduler;
+    private final ProcessingScheduler processingScheduler;
+    private final StagePipeline pipeline;
+    private final ArchiveJournal journal;
+    private final ArtifactCache artifactCache;
+    private final ToolCapabilities toolCapabilities;
+    private final ProcessSupervisor processSupervisor;
+    private final ThroughputModel throughputModel;
+    private final ScratchSpace scratchSpace;
+    private final FileMover fileMover;
+    private final ScheduledExecutorService spaceRetryService;
+    private final AtomicBoolean spaceRetryScheduled;
 
-    private static final int POOL_SIZE = 2;
+    private final static Path JOURNAL_PATH = Paths.get(OSHelper.getDataDirectory().toString(), "queue.xml");
+    private final static Path CACHE_PATH = Paths.get(OSHelper.getDataDirectory().toString(), "cache");
+    private final static Path TOOLS_PATH = Paths.get(OSHelper.getDataDirectory().toString(), "tools.xml");
+    private final static Path THROUGHPUT_PATH = Paths.get(OSHelper.getDataDirectory().toString(), "throughput.xml");
+
+    private final static int SPACE_RETRY_SECONDS = 60;
+    private final static DateTimeFormatter COMPLETION_TIME_FORMATTER = DateTimeFormatter.ofLocalizedTime(FormatStyle.SHORT);
 
     private final static Logger logger = LoggerFactory.getLogger(ArchiveQueueManager.class);
 
     public ArchiveQueueManager(Archivo mainApp) {
         this.mainApp = mainApp;
-        executorService = Executors.newFixedThreadPool(POOL_SIZE);
-        downloadLock = new ReentrantLock();
-        processingLock = new ReentrantLock();
+        pipeline = new StagePipeline(mainApp.getUserPrefs());
+        // Tasks that skip their download may wait for the pipeline for a long time, so allow one per place in it
+        downloadSlots = new DownloadSlots(
+                mainApp.getUserPrefs().getMaxDownloadsPerTivo(), mainApp.getUserPrefs().getMaxConcurrentDownloads(),
+                pipeline.getCapacity()
+        );
+        downloadSlots.setSlotReleasedListener(this::dispatchPendingTasks);
+        deadlineScheduler = new DeadlineScheduler(
+                mainApp.getUserPrefs().getMaxDownloadsPerTivo(), mainApp.getUserPrefs().getMaxConcurrentDownloads()
+        );
+        processingScheduler = new ProcessingScheduler(mainApp.getUserPrefs().getProcessingThreads(),
+                OSHelper.getTotalMemoryMB(), mainApp.getUserPrefs().getProcessingIOSlots());
+        // Threads here only coordinate tasks (the real work runs in the pipeline). Each one belongs to a task that
+        // holds a download slot, a resume slot, or (once its download is done) a place in the pipeline
+        executorService = Executors.newFixedThreadPool(
+                Math.max(mainApp.getUserPrefs().getMaxConcurrentDownloads(), 1) + 2 * pipeline.getCapacity());
+        journal = ArchiveJournal.loadFrom(JOURNAL_PATH);
+        artifactCache = new ArtifactCache(CACHE_PATH, mainApp.getUserPrefs().getArtifactCacheSizeMB() * 1024L * 1024L);
+        processSupervisor = new ProcessSupervisor(
+                Duration.ofMinutes(mainApp.getUserPrefs().getProcessStallMinutes()),
+                Duration.ofHours(mainApp.getUserPrefs().getProcessTimeLimitHours())
+        );
+        toolCapabilities = ToolCapabilities.loadFrom(TOOLS_PATH, processSupervisor);
+        throughputModel = ThroughputModel.loadFrom(THROUGHPUT_PATH);
+        scratchSpace = new ScratchSpace(mainApp.getUserPrefs().getScratchDirectories(),
+                mainApp.getUserPrefs().getScratchMinFreeMB() * 1024L * 1024L);
+        scratchSpace.setSpaceReleasedListener(this::dispatchPendingTasks);
+        spaceRetryService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "scratch-space-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        spaceRetryScheduled = new AtomicBoolean();
+        fileMover = new FileMover(mainApp.getUserPrefs().getDeliveryBandwidthMBps());
         queuedTasks = new ConcurrentHashMap<>();
+        pendingTasks = new ArrayList<>();
     }
 
     public boolean enqueueArchiveTask(Recording recording, Tivo tivo, String mak) {
+        return enqueueArchiveTasks(Collections.singletonList(recording), tivo, mak, Collections.emptySet()).isEmpty();
+    }
+
+    /**
+     * Queue each of @recordings to be archived from @tivo. The whole batch is checked in one pass, then written to
+     * the journal, announced to observers, and dispatched once, so queuing an entire library doesn't stall the UI.
+     * Recordings are skipped if they're already queued, have no destination, would write to a file that a queued,
+     * running, or earlier recording in the batch is writing, or would replace a different recording we archived
+     * (unless the user already agreed to replace that file, in which case it's listed in @confirmedOverwrites).
+     *
+     * @return the recordings that were skipped, each with the reason why; empty if everything was queued
+     */
+    public Map<Recording, String> enqueueArchiveTasks(List<Recording> recordings, Tivo tivo, String mak,
+                                                      Set<Path> confirmedOverwrites) {
+        Map<Recording, String> rejected = new LinkedHashMap<>();
+        Set<Path> destinations = new HashSet<>();
+        queuedTasks.keySet().forEach(recording -> destinations.addAll(getOutputPaths(recording)));
+        Map<Path, ArchiveHistory.ArchiveHistoryItem> archived = mainApp.getArchiveHistory().getItemsByLocation();
+        List<Recording> accepted = new ArrayList<>();
+        for (Recording recording : recordings) {
+            String reason = findEnqueueProblem(recording, destinations, archived, confirmedOverwrites);
+            if (reason != null) {
+                logger.warn("Not queuing {}: {}", recording.getFullTitle(), reason);
+                rejected.put(recording, reason);
+            } else {
+                destinations.addAll(getOutputPaths(recording));
+                accepted.add(recording);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return rejected;
+        }
+        journal.addAll(accepted, tivo);
+        accepted.forEach(recording -> ArchiveStatusHub.publish(recording, ArchiveStatus.QUEUED));
+        List<ArchiveTask> tasks = accepted.stream().map(recording -> createArchiveTask(recording, tivo, mak, null))
+                .collect(Collectors.toList());
+        if (!addTasks(tasks)) {
+            accepted.forEach(recording -> rejected.put(recording, "Archivo couldn't start a new task."));
+        }
+        return rejected;
+    }
+
+    /**
+     * Returns why @recording can't join the queue, or null if it can. @destinations holds the files already being
+     * written, and @archived the files holding recordings we've archived before. Files in @confirmedOverwrites may
+     * be replaced, whatever they hold.
+     */
+    private String findEnqueueProblem(Recording recording, Set<Path> destinations,
+                                      Map<Path, ArchiveHistory.ArchiveHistoryItem> archived,
+                                      Set<Path> confirmedOverwrites) {
+        if (containsRecording(recording)) {
+            return "It's already in the queue.";
+        } else if (recording.getDestination() == null) {
+            return "It doesn't have a destination file.";
+        }
+        for (Path path : getOutputPaths(recording)) {
+            if (destinations.contains(path)) {
+                return String.format("Another queued recording is already saving to %s.", path);
+            }
+            ArchiveHistory.ArchiveHistoryItem item = confirmedOverwrites.contains(path) ? null : archived.get(path);
+            if (item != null && !item.getRecordingId().equals(recording.getRecordingId()) && Files.exists(path)) {
+                return String.format("%s holds a different recording, archived on %s.", path,
+                        item.getDateArchived().format(DateTimeFormatter.ofLocalizedDate(FormatStyle.MEDIUM)));
+            }
+        }
+        return null;
+    }
+
+    private static List<Path> getOutputPaths(Recording recording) {
+        return recording.getOutputs().stream().map(ArchiveOutput::getDestination).collect(Collectors.toList());
+    }
+
+    /**
+     * If @recording was being archived from @tivo when Archivo last exited, queue it again, skipping the stages it
+     * already completed.
+     *
+     * @return true if the recording was queued
+     */
+    public boolean resumeArchiveTask(Recording recording, Tivo tivo, String mak) {
+        ArchiveJournal.Entry entry = journal.get(recording);
+        if (entry == null || containsRecording(recording) || !entry.isFrom(tivo)) {
+            return false;
+        }
+        logger.info("Resuming archive task for {} after stage {}", recording.getFullTitle(),
+                entry.getLastCompletedStage());
+        recording.setDestination(entry.getDestination());
+        recording.setDestinationType(entry.getFileType());
+        recording.setExtraOutputs(entry.getExtraOutputs());
+        recording.setStatus(ArchiveStatus.QUEUED);
+        return addTasks(Collections.singletonList(
+                createArchiveTask(recording, tivo, mak, entry.getLastCompletedStage())));
+    }
+
+    /**
+     * Resume each of @recordings that was being archived from @tivo when Archivo last exited. @recordings should be
+     * everything on @tivo; journaled tasks for recordings that aren't there anymore are abandoned.
+     */
+    public void resumeArchiveTasks(List<Recording> recordings, Tivo tivo, String mak) {
+        recordings.stream().filter(recording -> !recording.isSeriesHeading())
+                .forEach(recording -> resumeArchiveTask(recording, tivo, mak));
+        Set<String> recordingIds = recordings.stream().map(Recording::getRecordingId).collect(Collectors.toSet());
+        queuedTasks.keySet().forEach(recording -> recordingIds.add(recording.getRecordingId()));
+        journal.removeMissing(tivo, recordingIds);
+    }
+
+    /**
+     * Returns true if Archivo was archiving recordings from @tivo when it last exited.
+     */
+    public boolean hasResumableTasks(Tivo tivo) {
+        return journal.hasEntriesFrom(tivo);
+    }
+
+    private ArchiveTask createArchiveTask(Recording recording, Tivo tivo, String mak, ArchiveStage resumeAfter) {
+        ArchiveTask task = new ArchiveTask(recording, tivo, mak, mainApp.getUserPrefs(), downloadSlots,
+                processingScheduler, pipeline, journal, artifactCache, toolCapabilities,
+                processSupervisor, throughputModel, scratchSpace, fileMover, resumeAfter);
+        task.setOnRunning(event -> mainApp.setStatusText(String.format("Archiving %s (queue done around %s)...",
+                recording.getFullTitle(), getEstimatedCompletionTime().format(COMPLETION_TIME_FORMATTER))));
+        task.setOnSucceeded(event -> {
+            logger.info("ArchiveTask succeeded for {}", recording.getFullTitle());
+            journal.remove(recording);
+            updateArchiveHistory(recording);
+            removeTask(recording);
+            recording.setDateArchived(LocalDate.now());
+            ArchiveStatusHub.publishNow(recording, ArchiveStatus.FINISHED);
+        });
+        task.setOnFailed(event -> {
+            Throwable e = event.getSource().getException();
+            logger.error("ArchiveTask failed for {}: ", recording.getFullTitle(), e);
+            mainApp.crashOccurred();
+            e.printStackTrace();
+            journal.remove(recording);
+            removeTask(recording);
+            ArchiveStatusHub.publishNow(recording, ArchiveStatus.createErrorStatus(e));
+            Archivo.telemetryController.sendArchiveFailedEvent(e);
+        });
+        task.setOnCancelled(event -> {
+            logger.info("ArchiveTask canceled for {}", recording.getFullTitle());
+            if (!task.isSuspended()) {
+                journal.remove(recording);
+            }
+            removeTask(recording);
+            ArchiveStatusHub.publishNow(recording, ArchiveStatus.EMPTY);
+        });
+        return task;
+    }
+
+    /**
+     * Add @tasks to the pending queue and start whichever ones we can. Observers hear about the queue becoming
+     * non-empty once, no matter how many tasks are added.
+     *
+     * @return false if the tasks couldn't be scheduled
+     */
+    private boolean addTasks(List<ArchiveTask> tasks) {
         try {
-            ArchiveTask task = new ArchiveTask(recording, tivo, mak, mainApp.getUserPrefs(), downloadLock, processingLock);
-            task.setOnRunning(event -> mainApp.setStatusText(String.format("Archiving %s...", recording.getFullTitle())));
-            task.setOnSucceeded(event -> {
-                logger.info("ArchiveTask succeeded for {}", recording.getFullTitle());
-                updateArchiveHistory(recording);
-                removeTask(recording);
-                recording.setDateArchived(LocalDate.now());
-                recording.setStatus(ArchiveStatus.FINISHED);
-            });
-            task.setOnFailed(event -> {
-                Throwable e = event.getSource().getException();
-                logger.error("ArchiveTask failed for {}: ", recording.getFullTitle(), e);
-                mainApp.crashOccurred();
-                e.printStackTrace();
-                removeTask(recording);
-                recording.setStatus(ArchiveStatus.createErrorStatus(e));
-                Archivo.telemetryController.sendArchiveFailedEvent(e);
-            });
-            task.setOnCancelled(event -> {
-                logger.info("ArchiveTask canceled for {}", recording.getFullTitle());
-                removeTask(recording);
-                recording.setStatus(ArchiveStatus.EMPTY);
-            });
-            logger.info("Submitting task to executor service: {}", executorService);
+            logger.info("Adding {} task(s) to pending queue", tasks.size());
             if (!hasTasks()) {
                 setChanged();
                 notifyObservers(true);
             }
-            queuedTasks.put(recording, task);
-            executorService.submit(task);
+            tasks.forEach(task -> queuedTasks.put(task.getRecording(), task));
+            synchronized (pendingTasks) {
+                pendingTasks.addAll(tasks);
+            }
+            dispatchPendingTasks();
         } catch (RejectedExecutionException e) {
-            logger.error("Could not schedule archive task: ", e);
+            logger.error("Could not schedule archive tasks: ", e);
+            for (ArchiveTask task : tasks) {
+                journal.remove(task.getRecording());
+                removeTask(task.getRecording());
+            }
             return false;
         }
         return true;
     }
 
+    /**
+     * Start every pending task whose TiVo has a free download slot. Pinned tasks are considered first, then the
+     * tasks with the least time to spare before their recording is deleted; a busy device won't hold up tasks for
+     * an idle one. Each task also needs disk space for its intermediate files; a task that's waiting for space
+     * doesn't hold up the tasks behind it, and we check again when another task releases its space or after a
+     * while. Tasks too big to ever fit fail right away rather than waiting forever.
+     */
+    private void dispatchPendingTasks() {
+        // Measure what running tasks have written first, so we never scan their folders while holding a lock
+        getRunningTasks().forEach(ArchiveTask::refreshScratchBytesUsed);
+        synchronized (pendingTasks) {
+            deadlineScheduler.sort(pendingTasks);
+            List<Recording> missedDeadlines = deadlineScheduler.findNewlyMissedDeadlines(getRunningTasks(), pendingTasks);
+            if (!missedDeadlines.isEmpty()) {
+                Platform.runLater(() -> mainApp.showMissedDeadlineWarning(missedDeadlines));
+            }
+            List<ArchiveTask> tooBig = new ArrayList<>();
+            Iterator<ArchiveTask> iterator = pendingTasks.iterator();
+            while (iterator.hasNext()) {
+                ArchiveTask task = iterator.next();
+                if (task.isCancelled()) {
+                    iterator.remove();
+                } else if (!task.canAcquireDownloadSlot()) {
+                    // Don't reserve space that other devices' tasks could use while we wait for this TiVo
+                    continue;
+                } else if (!task.tryReserveScratchSpace()) {
+                    if (task.couldEverReserveScratchSpace()) {
+                        scheduleSpaceRetry();
+                    } else {
+                        iterator.remove();
+                        tooBig.add(task);
+                    }
+                } else if (task.tryAcquireDownloadSlot()) {
+                    iterator.remove();
+                    logger.info("Submitting task for {} (working in {}) to executor service: {}",
+                            task.getRecording().getFullTitle(), task.getWorkDirectory(), executorService);
+                    executorService.submit(task);
+                } else {
+                    // Another task took the last slot since we checked
+                    task.cancelScratchReservation();
+                }
+            }
+            if (!tooBig.isEmpty()) {
+                Platform.runLater(() -> tooBig.forEach(this::failTooBigTask));
+            }
+        }
+    }
+
+    /**
+     * Give up on @task, because none of the folders we could use has room for its intermediate files.
+     */
+    private void failTooBigTask(ArchiveTask task) {
+        Recording recording = task.getRecording();
+        logger.error("No folder is big enough for the intermediate files of {}", recording.getFullTitle());
+        journal.remove(recording);
+        removeTask(recording);
+        ArchiveStatusHub.publishNow(recording, ArchiveStatus.createErrorStatus(new ArchiveTaskException(
+                "Not enough disk space",
+                "None of your scratch folders (or the destination folder, if you don't use any) is big enough " +
+                        "for this recording's temporary files. Free up some space or add a larger scratch folder " +
+                        "in Preferences, then try again."
+        )));
+    }
+
+    /**
+     * Check for free disk space again in a little while, in case something other than our own tasks frees some.
+     */
+    private void scheduleSpaceRetry() {
+        if (spaceRetryScheduled.compareAndSet(false, true)) {
+            spaceRetryService.schedule(() -> {
+                spaceRetryScheduled.set(false);
+                dispatchPendingTasks();
+            }, SPACE_RETRY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Returns the tasks that have left the pending list but haven't finished.
+     */
+    private List<ArchiveTask> getRunningTasks() {
+        synchronized (pendingTasks) {
+            return queuedTasks.values().stream().filter(task -> !pendingTasks.contains(task))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Returns when we expect every queued task to finish, based on how long each stage has taken in the past.
+     */
+    public LocalDateTime getEstimatedCompletionTime() {
+        // Every dispatch sorts the pending tasks, so they're already in the order they'll run
+        synchronized (pendingTasks) {
+            return deadlineScheduler.estimateCompletion(getRunningTasks(), pendingTasks,
+                    mainApp.getUserPrefs().getStageWorkers(ArchiveStage.TRANSCODE));
+        }
+    }
+
     private void removeTask(Recording recording) {
-        queuedTasks.remove(recording);
+        ArchiveTask task = queuedTasks.remove(recording);
+        if (task != null) {
+            synchronized (pendingTasks) {
+                pendingTasks.remove(task);
+            }
+            // Tasks canceled before they started running never get a chance to release their slot or space
+            task.releaseDownloadSlot();
+            task.releaseScratchSpace();
+        }
+        deadlineScheduler.remove(recording);
         if (!hasTasks()) {
             setChanged();
             notifyObservers(false);
@@ -110,7 +430,7 @@ public class ArchiveQueueManager extends Observable {
     private void updateArchiveHistory(Recording recording) {
         ArchiveHistory archiveHistory = mainApp.getArchiveHistory();
         archiveHistory.add(recording);
-        archiveHistory.save();
+        archiveHistory.saveSoon();
     }
 
     public void cancelArchiveTask(Recording recording) {
@@ -120,10 +440,28 @@ public class ArchiveQueueManager extends Observable {
         }
     }
 
+    /**
+     * Download @recording before any other pending task that the user hasn't also prioritized.
+     */
+    public void prioritizeArchiveTask(Recording recording) {
+        if (queuedTasks.containsKey(recording)) {
+            logger.info("Prioritizing archive task for {}", recording.getFullTitle());
+            deadlineScheduler.pin(recording);
+            dispatchPendingTasks();
+        }
+    }
+
     public void cancelAllArchiveTasks() {
         queuedTasks.forEach(((recording, task) -> task.cancel()));
     }
 
+    /**
+     * Stop all tasks, but keep their journal entries so they resume the next time Archivo starts.
+     */
+    public void suspendAllArchiveTasks() {
+        queuedTasks.forEach(((recording, task) -> task.suspend()));
+    }
+
     public boolean hasTasks() {
         return queuedTasks.size() > 0;
     }
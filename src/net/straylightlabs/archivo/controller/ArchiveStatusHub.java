@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.controller;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import net.straylightlabs.archivo.model.ArchiveStatus;
+import net.straylightlabs.archivo.model.Recording;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Deliver status updates from background work to the UI. Workers may publish as often as they like; we keep only
+ * the newest status for each recording and apply them all once per frame on the JavaFX thread, so a busy queue
+ * can't flood the FX event queue. The frame timer only runs while updates are waiting.
+ */
+public class ArchiveStatusHub {
+    private static final ConcurrentHashMap<Recording, ArchiveStatus> pending = new ConcurrentHashMap<>();
+    private static final AtomicBoolean timerRunning = new AtomicBoolean();
+    private static final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            applyPending();
+        }
+    };
+
+    private ArchiveStatusHub() {
+    }
+
+    /**
+     * Show @status for @recording on the next frame, replacing any update for it that hasn't been shown yet.
+     * Safe to call from any thread.
+     */
+    public static void publish(Recording recording, ArchiveStatus status) {
+        pending.put(recording, status);
+        if (timerRunning.compareAndSet(false, true)) {
+            Platform.runLater(timer::start);
+        }
+    }
+
+    /**
+     * Show @status for @recording right away (or as soon as the FX thread is free), and discard any earlier update
+     * that's still waiting so it can't replace @status. Use this for final states like finished or canceled.
+     */
+    public static void publishNow(Recording recording, ArchiveStatus status) {
+        pending.remove(recording);
+        if (Platform.isFxApplicationThread()) {
+            recording.setStatus(status);
+        } else {
+            Platform.runLater(() -> {
+                pending.remove(recording);
+                recording.setStatus(status);
+            });
+        }
+    }
+
+    private static void applyPending() {
+        for (Recording recording : pending.keySet()) {
+            ArchiveStatus status = pending.remove(recording);
+            if (status != null) {
+                recording.setStatus(status);
+            }
+        }
+        if (pending.isEmpty()) {
+            timer.stop();
+            timerRunning.set(false);
+            // Something may have been published after we emptied the map but before we cleared the flag
+            if (!pending.isEmpty() && timerRunning.compareAndSet(false, true)) {
+                timer.start();
+            }
+        }
+    }
+}
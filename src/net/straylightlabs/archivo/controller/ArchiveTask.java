@@ -24,8 +24,14 @@ import javafx.concurrent.Task;
 import javafx.scene.control.Alert;
 import net.straylightlabs.archivo.Archivo;
 import net.straylightlabs.archivo.model.*;
+import net.straylightlabs.archivo.mpegts.IndexingOutputStream;
+import net.straylightlabs.archivo.mpegts.KeyframeIndex;
+import net.straylightlabs.archivo.mpegts.MediaInfo;
+import net.straylightlabs.archivo.mpegts.TsIndexer;
+import net.straylightlabs.archivo.mpegts.TsProbe;
+import net.straylightlabs.archivo.mpegts.TsRemuxer;
+import net.straylightlabs.archivo.mpegts.TsSplicer;
 import net.straylightlabs.archivo.net.MindCommandIdSearch;
-import net.straylightlabs.archivo.utilities.OSHelper;
 import net.straylightlabs.tivolibre.TivoDecoder;
 import org.apache.http.Header;
 import org.apache.http.auth.AuthScope;
@@ -44,29 +50,73 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Handle the tasks of fetching the recording file from a TiVo, decrypting it, and transcoding it.
+ * Each stage runs on its own worker pool via a StagePipeline; this task coordinates them.
  */
 class ArchiveTask extends Task<Recording> {
     private final Recording recording;
     private final Tivo tivo;
     private final String mak;
     private final UserPrefs prefs;
-    private final Lock downloadLock;
-    private final Lock processingLock;
+    private final DownloadSlots downloadSlots;
+    private final AtomicBoolean holdsDownloadSlot;
+    private final AtomicBoolean holdsResumeSlot;
+    private final ProcessingScheduler processingScheduler;
+    private final StagePipeline pipeline;
+    private final ArchiveJournal journal;
+    private final ArtifactCache artifactCache;
+    private final ToolCapabilities toolCapabilities;
+    private final ProcessSupervisor processSupervisor;
+    private final ThroughputModel throughputModel;
+    private final ScratchSpace scratchSpace;
+    private final FileMover fileMover;
+    private final List<Future<Void>> deliveries; // finished files on their way to their destinations
+    private volatile ScratchSpace.Reservation scratchReservation;
+    private volatile long scratchBytesUsed; // as of the last refreshScratchBytesUsed()
+    private boolean waitingForScratchSpace;
+    private final Map<ArchiveStage, ProcessSupervisor.Usage> stageUsage;
+    private volatile ArchiveStage currentStage; // the stage our external tools are working on
+    private volatile ArchiveStage activeStage; // the stage this task is running, for estimating its remaining time
+    private volatile long activeStageStartTime;
+    private volatile ArchiveStage lastCompletedStage;
+    private ArchiveStage resumeAfter;
+    private ArchiveStage cachedStage; // the latest stage whose files we can restore from the artifact cache
+    private volatile boolean suspended;
+    private boolean cutWhileTranscoding; // let the transcoder skip commercials instead of cutting them beforehand
+    private Future<Boolean> liveCommercialDetection; // Comskip following the download as it arrives, or null
+    private final ExecutorService backgroundService; // runs our work that happens alongside the current stage
+    private volatile boolean downloadFinished;
+    private volatile boolean stopBackgroundWork; // tells live Comskip and our deliveries to give up
     private Path downloadPath; // downloaded file
+    private Path downloadIndexPath; // keyframe and stream index of the downloaded file
     private Path encryptedPath; // for debugging, the original encrypted file
     private Path fixedPath; // re-muxed file
+    private Path fixedIndexPath; // keyframe index of the re-muxed file
     private Path ffsplitPath; // FFSkip file from Comskip
+    private Path liveFfsplitPath; // FFSkip file from Comskip when it reads the download as it arrives
     private Path cutPath; // file with commercials removed
     private Path metadataPath; // PyTivo metadata file
     private long downloadDurationMS;
@@ -85,22 +135,313 @@ class ArchiveTask extends Task<Recording> {
 
     private static final int MS_PER_SECOND = 1000;
     private static final int PAUSE_AFTER_DOWNLOAD = 5 * MS_PER_SECOND;
+    private static final int MIN_CHUNK_MINUTES = 10; // shortest piece of a recording worth transcoding on its own
+    private static final long LIVE_COMSKIP_START_BYTES = 32 * 1024 * 1024; // let Comskip find the streams first
+    // A stage's input and output both exist while it runs, plus indexes, logs, and room for a low size estimate
+    private static final double PEAK_SCRATCH_FACTOR = 2.2;
+    private static final int LIVE_COMSKIP_RETRIES = 8; // times Comskip checks for more data before it gives up
 
     ArchiveTask(Recording recording, Tivo tivo, String mak, final UserPrefs prefs,
-                final Lock downloadLock, final Lock processingLock) {
+                final DownloadSlots downloadSlots, final ProcessingScheduler processingScheduler,
+                final StagePipeline pipeline, final ArchiveJournal journal, final ArtifactCache artifactCache,
+                final ToolCapabilities toolCapabilities, final ProcessSupervisor processSupervisor,
+                final ThroughputModel throughputModel, final ScratchSpace scratchSpace,
+                final FileMover fileMover, final ArchiveStage resumeAfter) {
         this.recording = recording;
         this.tivo = tivo;
         this.mak = mak;
         this.prefs = prefs;
-        this.downloadLock = downloadLock;
-        this.processingLock = processingLock;
+        this.downloadSlots = downloadSlots;
+        this.holdsDownloadSlot = new AtomicBoolean(false);
+        this.holdsResumeSlot = new AtomicBoolean(false);
+        this.processingScheduler = processingScheduler;
+        this.pipeline = pipeline;
+        this.journal = journal;
+        this.artifactCache = artifactCache;
+        this.toolCapabilities = toolCapabilities;
+        this.processSupervisor = processSupervisor;
+        this.throughputModel = throughputModel;
+        this.scratchSpace = scratchSpace;
+        this.fileMover = fileMover;
+        this.deliveries = Collections.synchronizedList(new ArrayList<>());
+        this.backgroundService = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "live-comskip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.stageUsage = Collections.synchronizedMap(new EnumMap<>(ArchiveStage.class));
+        this.resumeAfter = resumeAfter;
+        this.lastCompletedStage = resumeAfter;
         this.keepEncryptedFile = prefs.getDebugMode();
+        this.cachedStage = findCachedStage();
     }
 
     public Recording getRecording() {
         return recording;
     }
 
+    public Tivo getTivo() {
+        return tivo;
+    }
+
+    /**
+     * Returns how long the download took, or 0 if this task didn't download anything.
+     */
+    long getDownloadDurationMS() {
+        return downloadDurationMS;
+    }
+
+    /**
+     * Returns the resources our external tools used in each stage.
+     */
+    Map<ArchiveStage, ProcessSupervisor.Usage> getStageUsage() {
+        synchronized (stageUsage) {
+            return new EnumMap<>(stageUsage);
+        }
+    }
+
+    /**
+     * Returns how much longer we expect this task to spend downloading, based on how long past downloads from its
+     * TiVo took.
+     */
+    Duration estimateRemainingDownloadTime() {
+        return estimateRemainingTime(stage -> stage == ArchiveStage.DOWNLOAD);
+    }
+
+    /**
+     * Returns how much longer we expect this task to spend on the stages after its download.
+     */
+    Duration estimateRemainingProcessingTime() {
+        return estimateRemainingTime(stage -> stage != ArchiveStage.DOWNLOAD);
+    }
+
+    private Duration estimateRemainingTime(Predicate<ArchiveStage> include) {
+        ArchiveStage completed = lastCompletedStage;
+        ArchiveStage cached = cachedStage;
+        if (cached != null && (completed == null || cached.compareTo(completed) > 0)) {
+            completed = cached;
+        }
+        ArchiveStage active = activeStage;
+        long activeMS = System.currentTimeMillis() - activeStageStartTime;
+        Duration remaining = Duration.ZERO;
+        for (ArchiveStage stage : getPlannedStages()) {
+            if ((completed != null && stage.compareTo(completed) <= 0) || !include.test(stage)) {
+                continue;
+            }
+            Duration estimate = estimateStageTime(stage);
+            if (stage == active) {
+                estimate = estimate.minusMillis(activeMS);
+            }
+            if (!estimate.isNegative()) {
+                remaining = remaining.plus(estimate);
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Returns the stages this task will run, assuming the user's preferences don't change.
+     */
+    private List<ArchiveStage> getPlannedStages() {
+        List<ArchiveStage> stages = new ArrayList<>();
+        stages.add(ArchiveStage.DOWNLOAD);
+        if (shouldDecrypt(recording)) {
+            stages.add(ArchiveStage.REMUX);
+            if (prefs.getSkipCommercials()) {
+                stages.add(ArchiveStage.FIND_COMMERCIALS);
+                if (!prefersCutWhileTranscoding()) {
+                    stages.add(ArchiveStage.REMOVE_COMMERCIALS);
+                }
+            }
+            stages.add(ArchiveStage.TRANSCODE);
+        }
+        return stages;
+    }
+
+    /**
+     * Returns how long we expect @stage to take for our recording. Our outputs are transcoded side-by-side, so the
+     * transcoding stage takes as long as its slowest file type.
+     */
+    private Duration estimateStageTime(ArchiveStage stage) {
+        Duration length = recording.getDuration();
+        switch (stage) {
+            case DOWNLOAD:
+                return throughputModel.estimateDownload(tivo, length);
+            case TRANSCODE:
+                return recording.getOutputs().stream().map(ArchiveOutput::getFileType)
+                        .filter(FileType::needsTranscoding)
+                        .map(fileType -> throughputModel.estimate(stage, fileType.name(), length))
+                        .max(Comparator.naturalOrder()).orElse(Duration.ZERO);
+            default:
+                return throughputModel.estimate(stage, null, length);
+        }
+    }
+
+    /**
+     * Claim a download slot on this task's TiVo. The slot is held until the download finishes or the task ends.
+     * Tasks that don't need to download claim a resume slot instead, and hold it until they end.
+     *
+     * @return true if a slot was available
+     */
+    boolean tryAcquireDownloadSlot() {
+        if (skipsDownload()) {
+            if (downloadSlots.tryAcquireResume()) {
+                holdsResumeSlot.set(true);
+                return true;
+            }
+            return false;
+        } else if (downloadSlots.tryAcquire(tivo)) {
+            holdsDownloadSlot.set(true);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if tryAcquireDownloadSlot() would succeed right now, without claiming anything.
+     */
+    boolean canAcquireDownloadSlot() {
+        return skipsDownload() ? downloadSlots.hasFreeResumeSlot() : downloadSlots.hasFreeSlot(tivo);
+    }
+
+    /**
+     * Returns true if we finished downloading before Archivo last exited, or can restore the download from our cache.
+     */
+    private boolean skipsDownload() {
+        return resumeAfter != null || cachedStage != null;
+    }
+
+    /**
+     * Reserve the disk space for this task's intermediate files, unless we already hold a reservation. Tasks
+     * resuming from an earlier run reserve space in the folder their files are already in.
+     *
+     * @return true if the space is reserved
+     */
+    boolean tryReserveScratchSpace() {
+        if (scratchReservation != null) {
+            return true;
+        }
+        long bytes = estimatePeakScratchBytes();
+        Path resumeDirectory = findResumeDirectory();
+        if (resumeDirectory != null) {
+            scratchReservation = scratchSpace.reserveIn(resumeDirectory, bytes, () -> scratchBytesUsed);
+        } else {
+            String name = "archivo-" + recording.getRecordingId().replaceAll("[^\\w.-]", "_");
+            scratchReservation = scratchSpace.tryReserve(bytes, name, recording.getDestination().getParent(),
+                    () -> scratchBytesUsed);
+        }
+        if (scratchReservation == null && !waitingForScratchSpace) {
+            logger.warn("Waiting for {} MB of free space to archive {}", bytes / 1024 / 1024, recording.getFullTitle());
+            ArchiveStatusHub.publish(recording, ArchiveStatus.WAITING_FOR_SPACE);
+        } else if (scratchReservation != null && waitingForScratchSpace) {
+            ArchiveStatusHub.publish(recording, ArchiveStatus.QUEUED);
+        }
+        waitingForScratchSpace = scratchReservation == null;
+        return !waitingForScratchSpace;
+    }
+
+    /**
+     * Returns false if no folder we could use is big enough for our intermediate files, so waiting won't help.
+     */
+    boolean couldEverReserveScratchSpace() {
+        return findResumeDirectory() != null ||
+                scratchSpace.couldEverFit(estimatePeakScratchBytes(), recording.getDestination().getParent());
+    }
+
+    /**
+     * Give up our disk space reservation, if we still hold one. Safe to call more than once.
+     */
+    void releaseScratchSpace() {
+        ScratchSpace.Reservation reservation = scratchReservation;
+        scratchReservation = null;
+        if (reservation != null) {
+            reservation.close();
+        }
+    }
+
+    /**
+     * Give up our disk space reservation without waking the queue, because we're still waiting to start.
+     */
+    void cancelScratchReservation() {
+        ScratchSpace.Reservation reservation = scratchReservation;
+        scratchReservation = null;
+        if (reservation != null) {
+            reservation.cancel();
+        }
+    }
+
+    /**
+     * Returns the most space our intermediate files should take up at once, based on how large recordings from our
+     * TiVo usually are.
+     */
+    private long estimatePeakScratchBytes() {
+        long size = throughputModel.estimateDownloadSize(tivo, recording.getDuration());
+        return shouldDecrypt(recording) ? (long) (size * PEAK_SCRATCH_FACTOR) : size;
+    }
+
+    /**
+     * Measure how much of our reservation we've written so far. Every file we make in our work folder (intermediate
+     * files, transcoding chunks, and outputs waiting to be moved) is named after our destination. Our reservation
+     * reports the last measurement, so this should be called without holding the queue's or ScratchSpace's locks.
+     */
+    void refreshScratchBytesUsed() {
+        Path workFile = downloadPath;
+        if (workFile == null || !Files.isDirectory(workFile.getParent())) {
+            scratchBytesUsed = 0;
+            return;
+        }
+        String prefix = buildPath(recording.getDestination(), "").getFileName().toString();
+        try (Stream<Path> files = Files.list(workFile.getParent())) {
+            scratchBytesUsed = files.filter(path -> path.getFileName().toString().startsWith(prefix))
+                    .mapToLong(path -> {
+                        try {
+                            return Files.isRegularFile(path) ? Files.size(path) : 0;
+                        } catch (IOException e) {
+                            // The file was probably removed while we were looking at it
+                            return 0;
+                        }
+                    }).sum();
+        } catch (IOException e) {
+            logger.error("Error measuring files in {}: ", workFile.getParent(), e);
+        }
+    }
+
+    /**
+     * Returns the folder holding the files we left behind before Archivo last exited, or null if we're starting
+     * from scratch.
+     */
+    private Path findResumeDirectory() {
+        if (resumeAfter == null) {
+            return null;
+        }
+        return journal.getArtifacts(recording).stream().filter(path -> path.toString().endsWith(".ts"))
+                .map(Path::getParent).findFirst().orElse(null);
+    }
+
+    /**
+     * Return our download or resume slot, if we still hold one. Safe to call more than once.
+     */
+    void releaseDownloadSlot() {
+        if (holdsDownloadSlot.getAndSet(false)) {
+            downloadSlots.release(tivo);
+        }
+        if (holdsResumeSlot.getAndSet(false)) {
+            downloadSlots.releaseResume();
+        }
+    }
+
+    /**
+     * Stop this task, but keep the files from its last completed stage so it can resume the next time Archivo runs.
+     */
+    void suspend() {
+        suspended = true;
+        cancel();
+    }
+
+    boolean isSuspended() {
+        return suspended;
+    }
+
     @Override
     protected Recording call() throws ArchiveTaskException {
         archive();
@@ -111,10 +452,71 @@ class ArchiveTask extends Task<Recording> {
     }
 
     private void archive() throws ArchiveTaskException {
+        StagePipeline.Job job = pipeline.createJob(recording.getFullTitle());
+        try {
+            setupPaths();
+            cutWhileTranscoding = shouldCutWhileTranscoding();
+            restoreCachedStage();
+            runStage(job, ArchiveStage.DOWNLOAD, this::download);
+            if (isCancelled()) {
+                logger.info("ArchiveTask canceled by user.");
+                cleanupIntermediateFiles();
+                return;
+            }
+            ArchiveStatusHub.publish(recording, ArchiveStatus.DOWNLOADED);
+            long processingStartTime = System.currentTimeMillis();
+            if (shouldDecrypt(recording)) {
+                AtomicBoolean foundCommercialsLive = new AtomicBoolean();
+                runStage(job, ArchiveStage.REMUX, () -> {
+                    // Comskip is still reading the download, so it has to finish before we replace that file
+                    foundCommercialsLive.set(awaitLiveCommercialDetection());
+                    runWithResources(ArchiveStage.REMUX, threads -> remux());
+                });
+                if (prefs.getSkipCommercials()) {
+                    runStage(job, ArchiveStage.FIND_COMMERCIALS, () -> {
+                        if (foundCommercialsLive.get()) {
+                            logger.info("Found commercials in {} while downloading it", recording.getFullTitle());
+                        } else {
+                            runWithResources(ArchiveStage.FIND_COMMERCIALS, this::detectCommercials);
+                        }
+                    });
+                    if (!cutWhileTranscoding) {
+                        runStage(job, ArchiveStage.REMOVE_COMMERCIALS,
+                                () -> runWithResources(ArchiveStage.REMOVE_COMMERCIALS, threads -> cutCommercials()));
+                    }
+                }
+                job.run(ArchiveStage.TRANSCODE, trackStage(ArchiveStage.TRANSCODE, this::createFinalOutput));
+                // Give our place in the pipeline to the next recording while our files finish moving
+                job.finish();
+                awaitDeliveries();
+                cleanupFiles(fixedPath, fixedIndexPath, downloadPath, ffsplitPath, downloadIndexPath);
+            } else {
+                cleanupFiles(recording.getDestination());
+                job.finish();
+                deliver(downloadPath, recording.getDestination(), false);
+                awaitDeliveries();
+                cleanupFiles(downloadIndexPath);
+            }
+            processingDurationMS = System.currentTimeMillis() - processingStartTime;
+        } catch (InterruptedException e) {
+            logger.info("ArchiveTask interrupted while waiting to process recording");
+            cleanupIntermediateFiles();
+        } catch (IOException e) {
+            logger.error("Error fetching recording information: ", e);
+            throw new ArchiveTaskException("Problem fetching recording information");
+        } finally {
+            stopBackgroundWork = true;
+            backgroundService.shutdownNow();
+            job.finish();
+            releaseDownloadSlot();
+            removeWorkDirectory();
+            releaseScratchSpace();
+            getStageUsage().forEach((stage, usage) -> logger.info("{} for {}: {}", stage, recording.getFullTitle(), usage));
+        }
+    }
+
+    private void download() throws IOException {
         try {
-            logger.debug("LOCKING DOWNLOAD");
-            downloadLock.lock();
-            logger.debug("DOWNLOAD LOCKED");
             if (isCancelled()) {
                 logger.info("ArchiveTask canceled by user.");
                 return;
@@ -127,15 +529,13 @@ class ArchiveTask extends Task<Recording> {
                 }
             }
             logger.info("Starting archive task for {}", recording.getTitle());
-            Platform.runLater(() -> recording.setStatus(
-                    ArchiveStatus.createConnectingStatus(0, 0, NUM_RETRIES)
-            ));
+            ArchiveStatusHub.publish(recording,
+                    ArchiveStatus.createConnectingStatus(0, 0, NUM_RETRIES));
             MindCommandIdSearch command = new MindCommandIdSearch(recording, tivo);
 //            command.setCompatibilityMode(true); // Download a PS file instead of a TS file
             command.executeOn(tivo.getClient());
             URL url = command.getDownloadUrl();
             logger.info("URL: {}", url);
-            setupPaths();
             getRecording(url);
             try {
                 // Give TiVo's HTTP server a chance to get ready for the next request, otherwise it will usually fail
@@ -143,62 +543,369 @@ class ArchiveTask extends Task<Recording> {
             } catch (InterruptedException e) {
                 // Ignore this
             }
-        } catch (IOException e) {
-            logger.error("Error fetching recording information: ", e);
-            throw new ArchiveTaskException("Problem fetching recording information");
         } finally {
-            downloadLock.unlock();
+            releaseDownloadSlot();
         }
-        try {
-            Platform.runLater(() -> recording.setStatus(
-                    ArchiveStatus.DOWNLOADED
-            ));
-            logger.debug("LOCKING PROCESS");
-            processingLock.lock();
-            logger.debug("PROCESS LOCKED");
-            if (isCancelled()) {
-                logger.info("ArchiveTask canceled by user.");
-                cleanupIntermediateFiles();
-                return;
+    }
+
+    /**
+     * Run @stage in the pipeline, then journal and cache the files it left for the next stage, unless we already
+     * completed it before Archivo last exited or restored its files from the cache.
+     */
+    private void runStage(StagePipeline.Job job, ArchiveStage stage, StagePipeline.StageWork work)
+            throws IOException, InterruptedException {
+        if (resumeAfter != null && stage.compareTo(resumeAfter) <= 0) {
+            logger.info("Skipping {} stage for {}, its files are already available", stage, recording.getTitle());
+            return;
+        }
+        job.run(stage, trackStage(stage, work));
+        if (!isCancelled()) {
+            List<Path> artifacts = getStageArtifacts(stage);
+            journal.stageCompleted(recording, stage, artifacts);
+            if (getCachedStages().contains(stage)) {
+                artifactCache.store(recording.getRecordingId(), stage, getCacheParameters(stage), artifacts);
             }
-            long processingStartTime = System.currentTimeMillis();
-            if (shouldDecrypt(recording)) {
-                remux();
-                if (prefs.getSkipCommercials()) {
-                    detectCommercials();
-                    cutCommercials();
-                }
-                if (recording.getDestinationType().needsTranscoding()) {
-                    transcode();
-                } else {
-                    cleanupFiles(recording.getDestination());
-                    if (prefs.getSkipCommercials()) {
-                        Files.move(cutPath, downloadPath);
-                        remux();
+        }
+    }
+
+    /**
+     * Wrap @work so our time estimates know when @stage starts and finishes.
+     */
+    private StagePipeline.StageWork trackStage(ArchiveStage stage, StagePipeline.StageWork work) {
+        return () -> {
+            activeStageStartTime = System.currentTimeMillis();
+            activeStage = stage;
+            work.run();
+            if (!isCancelled()) {
+                lastCompletedStage = stage;
+            }
+        };
+    }
+
+    /**
+     * Returns the files @stage leaves behind for the stages after it.
+     */
+    private List<Path> getStageArtifacts(ArchiveStage stage) {
+        switch (stage) {
+            case DOWNLOAD:
+                return Arrays.asList(downloadPath, downloadIndexPath, metadataPath);
+            case REMUX:
+                return Arrays.asList(fixedPath, fixedIndexPath, downloadIndexPath, metadataPath);
+            case FIND_COMMERCIALS:
+                return Arrays.asList(fixedPath, fixedIndexPath, ffsplitPath, downloadIndexPath, metadataPath);
+            case REMOVE_COMMERCIALS:
+                return Arrays.asList(cutPath, fixedPath, metadataPath);
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Returns the stages whose files are worth caching for this task, in the order they run. We only cache decrypted
+     * recordings; the stages before transcoding don't depend on the output file type, so their files can be reused.
+     */
+    private List<ArchiveStage> getCachedStages() {
+        if (!artifactCache.isEnabled() || !shouldDecrypt(recording)) {
+            return Collections.emptyList();
+        } else if (prefersCutWhileTranscoding()) {
+            return Arrays.asList(ArchiveStage.DOWNLOAD, ArchiveStage.REMUX, ArchiveStage.FIND_COMMERCIALS);
+        } else if (prefs.getSkipCommercials()) {
+            return Arrays.asList(ArchiveStage.DOWNLOAD, ArchiveStage.REMUX, ArchiveStage.FIND_COMMERCIALS,
+                    ArchiveStage.REMOVE_COMMERCIALS);
+        } else {
+            return Arrays.asList(ArchiveStage.DOWNLOAD, ArchiveStage.REMUX);
+        }
+    }
+
+    /**
+     * Describe the settings that shape the files @stage produces, so we only reuse files that were made the same way.
+     */
+    private String getCacheParameters(ArchiveStage stage) {
+        StringBuilder parameters = new StringBuilder("metadata=").append(needsMetadata());
+        if (stage.compareTo(ArchiveStage.REMUX) >= 0) {
+            parameters.append(";remux=").append(prefs.getRemuxEngine().name());
+        }
+        if (stage.compareTo(ArchiveStage.REMOVE_COMMERCIALS) >= 0) {
+            parameters.append(";cut=").append(prefs.getCommercialCutMode().name());
+        }
+        return parameters.toString();
+    }
+
+    /**
+     * Returns the latest stage we could restore from the artifact cache that we haven't already completed.
+     */
+    private ArchiveStage findCachedStage() {
+        List<ArchiveStage> stages = new ArrayList<>(getCachedStages());
+        Collections.reverse(stages);
+        for (ArchiveStage stage : stages) {
+            if (resumeAfter != null && stage.compareTo(resumeAfter) <= 0) {
+                return null;
+            } else if (artifactCache.contains(recording.getRecordingId(), stage, getCacheParameters(stage))) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Put the files from our cached stage in place and skip ahead past it. If they can't be restored, wait for a
+     * download slot and start from the beginning instead.
+     */
+    private void restoreCachedStage() throws InterruptedException {
+        if (cachedStage == null) {
+            return;
+        }
+        List<Path> artifacts = getStageArtifacts(cachedStage);
+        if (artifactCache.restore(recording.getRecordingId(), cachedStage, getCacheParameters(cachedStage), artifacts)) {
+            logger.info("Restored {} files for {} from the cache", cachedStage, recording.getFullTitle());
+            resumeAfter = cachedStage;
+            lastCompletedStage = cachedStage;
+            journal.stageCompleted(recording, cachedStage, artifacts);
+        } else if (resumeAfter == null) {
+            logger.warn("Could not restore cached files for {}, downloading it again", recording.getFullTitle());
+            cachedStage = null;
+            downloadSlots.acquire(tivo);
+            holdsDownloadSlot.set(true);
+        }
+    }
+
+    /**
+     * Returns true if the transcoder should skip the commercials itself, rather than transcoding a copy of the
+     * recording we've already cut. That saves writing and re-reading a whole intermediate file, but only works when
+     * every output needs to be transcoded by an engine that can read our list of segments.
+     */
+    private boolean shouldCutWhileTranscoding() {
+        return prefersCutWhileTranscoding() && recording.getOutputs().stream()
+                .allMatch(output -> createTranscoderEngine(output.getFileType()).canReadConcatList());
+    }
+
+    /**
+     * Like shouldCutWhileTranscoding(), but only checks the user's preferences, so it doesn't need to probe FFmpeg.
+     */
+    private boolean prefersCutWhileTranscoding() {
+        return prefs.getSkipCommercials() && prefs.getTranscoder() == TranscoderType.FFMPEG &&
+                recording.getOutputs().stream().allMatch(output -> output.getFileType().needsTranscoding());
+    }
+
+    /**
+     * Returns true if the user's copy of FFmpeg has the encoder @fileType's profile needs.
+     */
+    private boolean ffmpegSupports(FileType fileType) {
+        FFmpegProfile profile = fileType.getFFmpegProfile();
+        return profile != null &&
+                toolCapabilities.getFFmpeg(prefs.getFFmpegPath()).hasEncoder(profile.getVideoEncoder());
+    }
+
+    private boolean needsMetadata() {
+        return recording.getOutputs().stream().anyMatch(output -> output.getFileType().includeMetadata());
+    }
+
+    /**
+     * Produce each of the files the user asked for, either by transcoding or by repairing our intermediate file,
+     * and hand them to the file mover. Transcoded files are written to our work folder first, so a slow destination
+     * doesn't slow down the transcoder.
+     */
+    private void createFinalOutput() throws IOException, InterruptedException {
+        List<ArchiveOutput> transcoded = recording.getOutputs().stream()
+                .filter(output -> output.getFileType().needsTranscoding()).collect(Collectors.toList());
+        List<ArchiveOutput> copied = recording.getOutputs().stream()
+                .filter(output -> !output.getFileType().needsTranscoding()).collect(Collectors.toList());
+        if (!transcoded.isEmpty()) {
+            List<ArchiveOutput> staged = transcoded.stream().map(this::stageOutput).collect(Collectors.toList());
+            transcodeAll(staged);
+            for (int i = 0; i < staged.size() && !isCancelled(); i++) {
+                deliver(staged.get(i).getDestination(), transcoded.get(i).getDestination(), false);
+            }
+        }
+        if (!copied.isEmpty() && !isCancelled()) {
+            copied.forEach(output -> cleanupFiles(output.getDestination()));
+            if (Files.exists(cutPath)) {
+                Files.move(cutPath, downloadPath);
+                runWithResources(ArchiveStage.REMUX, threads -> remux());
+            }
+            // Deliveries run in order, so only the last one can take the original
+            for (int i = 0; i < copied.size(); i++) {
+                deliver(fixedPath, copied.get(i).getDestination(), i < copied.size() - 1);
+            }
+            cleanupFiles(fixedIndexPath);
+        }
+        cleanupFiles(cutPath);
+    }
+
+    /**
+     * Returns where to write @output while we're working on it: in our work folder, under its final name.
+     */
+    private ArchiveOutput stageOutput(ArchiveOutput output) {
+        Path workDirectory = getWorkDirectory();
+        if (workDirectory.equals(output.getDestination().getParent())) {
+            return output;
+        }
+        return new ArchiveOutput(workDirectory.resolve(output.getDestination().getFileName()), output.getFileType());
+    }
+
+    /**
+     * Queue @source to be moved (or copied, if @keepSource is true) to @destination in the background.
+     */
+    private void deliver(Path source, Path destination, boolean keepSource) {
+        LocalDateTime startTime = LocalDateTime.now();
+        deliveries.add(fileMover.move(source, destination, keepSource, progress -> {
+            Duration elapsed = Duration.between(startTime, LocalDateTime.now());
+            ArchiveStatusHub.publish(recording, ArchiveStatus.createMovingStatus(progress,
+                    ThroughputModel.estimateSecondsRemaining(Duration.ZERO, elapsed, progress)));
+        }, () -> isCancelled() || stopBackgroundWork));
+    }
+
+    /**
+     * Wait for the file mover to put each of our finished files in place.
+     */
+    private void awaitDeliveries() throws InterruptedException {
+        List<Future<Void>> pending;
+        synchronized (deliveries) {
+            pending = new ArrayList<>(deliveries);
+            deliveries.clear();
+        }
+        if (!pending.isEmpty()) {
+            ArchiveStatusHub.publish(recording,
+                    ArchiveStatus.createMovingStatus(ArchiveStatus.INDETERMINATE, ArchiveStatus.TIME_UNKNOWN));
+        }
+        for (Future<Void> delivery : pending) {
+            try {
+                delivery.get();
+            } catch (ExecutionException e) {
+                logger.error("Error moving finished file to its destination: ", e.getCause());
+                throw new ArchiveTaskException("Could not move the finished file to its destination");
+            }
+        }
+    }
+
+    /**
+     * Transcode our recording into each of @outputs. They all read the same source, so they run side-by-side
+     * whenever the processing scheduler has room for them; each one's progress counts equally toward the status
+     * we show.
+     */
+    private void transcodeAll(List<ArchiveOutput> outputs) throws InterruptedException {
+        ArchiveStatusHub.publish(recording,
+                ArchiveStatus.createTranscodingStatus(ArchiveStatus.INDETERMINATE, ArchiveStatus.TIME_UNKNOWN));
+        HandbrakeOutputReader status = new HandbrakeOutputReader(recording);
+        status.setExpectedDuration(estimateStageTime(ArchiveStage.TRANSCODE));
+        if (outputs.size() == 1) {
+            runWithResources(ArchiveStage.TRANSCODE, outputs.get(0).getFileType().name(),
+                    threads -> transcode(outputs.get(0), threads, status::reportProgress, this::isCancelled));
+            return;
+        }
+
+        logger.info("Transcoding {} into {} files", recording.getFullTitle(), outputs.size());
+        double[] weights = new double[outputs.size()];
+        Arrays.fill(weights, 1);
+        CombinedProgress progress = new CombinedProgress(weights, status::reportProgress);
+        AtomicBoolean outputFailed = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(outputs.size());
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < outputs.size(); i++) {
+                ArchiveOutput output = outputs.get(i);
+                DoubleConsumer progressListener = progress.listenerFor(i);
+                results.add(executor.submit(() -> {
+                    try {
+                        runWithResources(ArchiveStage.TRANSCODE, output.getFileType().name(),
+                                threads -> transcode(output, threads, progressListener,
+                                        () -> isCancelled() || outputFailed.get()));
+                    } catch (RuntimeException e) {
+                        outputFailed.set(true);
+                        throw e;
                     }
-                    Files.move(fixedPath, recording.getDestination());
-                }
-                cleanupFiles(fixedPath, downloadPath);
-            } else {
-                cleanupFiles(recording.getDestination());
-                Files.move(downloadPath, recording.getDestination());
+                    return null;
+                }));
             }
-            processingDurationMS = System.currentTimeMillis() - processingStartTime;
-        } catch (IOException e) {
-            logger.error("Error fetching recording information: ", e);
-            throw new ArchiveTaskException("Problem fetching recording information");
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            outputs.forEach(output -> cleanupFiles(output.getDestination()));
+            if (e.getCause() instanceof ArchiveTaskException) {
+                throw (ArchiveTaskException) e.getCause();
+            }
+            logger.error("Error transcoding video: ", e.getCause());
+            cleanupIntermediateFiles();
+            throw new ArchiveTaskException("Error compressing video");
         } finally {
-            processingLock.unlock();
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Wait until the processing scheduler has room for @stage, then run @work with the number of threads it granted.
+     */
+    private void runWithResources(ArchiveStage stage, IntConsumer work) throws InterruptedException {
+        runWithResources(stage, null, work);
+    }
+
+    /**
+     * Like runWithResources(stage, work), but records how long @work took as the throughput of @stage for
+     * @fileType.
+     */
+    private void runWithResources(ArchiveStage stage, String fileType, IntConsumer work) throws InterruptedException {
+        try (ProcessingScheduler.Grant grant = processingScheduler.acquire(stage)) {
+            currentStage = stage;
+            long startTime = System.currentTimeMillis();
+            work.accept(grant.getThreads());
+            if (!isCancelled()) {
+                throughputModel.record(stage, fileType, recording.getDuration(), System.currentTimeMillis() - startTime);
+            }
+        }
+    }
+
+    /**
+     * Returns the folder for our intermediate files: the scratch folder we reserved space in, or else the
+     * destination's folder.
+     */
+    Path getWorkDirectory() {
+        ScratchSpace.Reservation reservation = scratchReservation;
+        return reservation != null ? reservation.getDirectory() : recording.getDestination().getParent();
+    }
+
+    /**
+     * Remove the scratch sub-folder we created, if we're finished with it. Suspended tasks leave their files there,
+     * so the folder stays until they resume.
+     */
+    private void removeWorkDirectory() {
+        Path workDirectory = getWorkDirectory();
+        if (workDirectory.equals(recording.getDestination().getParent())) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(workDirectory);
+        } catch (DirectoryNotEmptyException e) {
+            logger.debug("Keeping {}, it still has files in it", workDirectory);
+        } catch (IOException e) {
+            logger.error("Error removing {}: ", workDirectory, e);
         }
     }
 
     private void setupPaths() {
-        downloadPath = buildPath(recording.getDestination(), "download.ts");
+        Path workDirectory = getWorkDirectory();
+        try {
+            Files.createDirectories(workDirectory);
+        } catch (IOException e) {
+            logger.error("Could not create folder for intermediate files ({}): ", workDirectory, e);
+            throw new ArchiveTaskException("Could not create folder for intermediate files");
+        }
+        Path workName = workDirectory.resolve(recording.getDestination().getFileName());
+        downloadPath = buildPath(workName, "download.ts");
+        downloadIndexPath = KeyframeIndex.sidecarFor(downloadPath);
         encryptedPath = buildPath(recording.getDestination(), "TiVo");
-        fixedPath = buildPath(recording.getDestination(), "fixed.ts");
-        cutPath = buildPath(recording.getDestination(), "cut.ts");
+        fixedPath = buildPath(workName, "fixed.ts");
+        fixedIndexPath = KeyframeIndex.sidecarFor(fixedPath);
+        cutPath = buildPath(workName, "cut.ts");
         metadataPath = buildPath(recording.getDestination(), "ts.txt");
+        ffsplitPath = buildPath(fixedPath, "ffsplit");
+        liveFfsplitPath = buildPath(downloadPath, "ffsplit");
         logger.info("Saving file to {}", downloadPath);
+        journal.addWorkFiles(recording, Arrays.asList(downloadPath, downloadIndexPath, encryptedPath, fixedPath, fixedIndexPath, cutPath, metadataPath,
+                ffsplitPath, buildPath(fixedPath, "logo.txt"), buildPath(fixedPath, "log"), buildPath(fixedPath, "parts"),
+                buildPath(fixedPath, "ffconcat"), liveFfsplitPath, buildPath(downloadPath, "logo.txt"),
+                buildPath(downloadPath, "log"), buildPath(downloadPath, "ini")));
     }
 
     private void getRecording(URL url) throws ArchiveTaskException {
@@ -225,7 +932,7 @@ class ArchiveTask extends Task<Recording> {
                         logger.info("Sleeping for {} ms", retryDelay * MS_PER_SECOND);
                         int failures = NUM_RETRIES - retries + 1;
                         ArchiveStatus status = ArchiveStatus.createConnectingStatus(retryDelay, failures, retries);
-                        Platform.runLater(() -> recording.setStatus(status));
+                        ArchiveStatusHub.publish(recording, status);
                         Thread.sleep(retryDelay * MS_PER_SECOND);
                         retryDelay *= RETRY_MULTIPLIER;
                         retries--;
@@ -267,9 +974,13 @@ class ArchiveTask extends Task<Recording> {
     private void handleResponse(CloseableHttpResponse response, Recording recording) throws ArchiveTaskException {
         long estimatedLength = getEstimatedLengthFromHeaders(response);
         boolean decrypt = shouldDecrypt(recording);
+        logger.info("decrypt = {}", decrypt);
 
-        cleanupFiles(downloadPath);
-        try (BufferedOutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(downloadPath));
+        cleanupFiles(downloadPath, downloadIndexPath);
+        // Index the decoded stream as it goes by, so later stages don't need to scan it again
+        TsIndexer indexer = decrypt ? new TsIndexer() : null;
+        try (BufferedOutputStream outputStream = new BufferedOutputStream(openDownloadOutput(
+                decrypt && !keepEncryptedFile ? indexer : null));
              BufferedInputStream inputStream = new BufferedInputStream(response.getEntity().getContent(), BUFFER_SIZE);
              PipedInputStream pipedInputStream = new PipedInputStream(PIPE_BUFFER_SIZE);
              PipedOutputStream pipedOutputStream = new PipedOutputStream(pipedInputStream)
@@ -317,13 +1028,18 @@ class ArchiveTask extends Task<Recording> {
                     updateProgress(recording, percent, startTime, totalBytesRead, estimatedLength);
                     priorBytesRead = totalBytesRead;
                     logger.trace("Total bytes read from network: {}", totalBytesRead);
+                    if (liveCommercialDetection == null && totalBytesRead >= LIVE_COMSKIP_START_BYTES &&
+                            decrypt && !keepEncryptedFile) {
+                        startLiveCommercialDetection();
+                    }
                 }
             }
             logger.info("Download finished.");
+            long transferMS = Duration.between(startTime, LocalDateTime.now()).toMillis();
 
             if (decrypt) {
                 if (keepEncryptedFile) {
-                    decryptRecording();
+                    decryptRecording(indexer);
                 } else {
                     // Close the pipe to ensure the decoding thread finishes
                     pipedOutputStream.flush();
@@ -334,7 +1050,12 @@ class ArchiveTask extends Task<Recording> {
                 }
             }
 
+            downloadFinished = true;
             verifyDownloadSize(totalBytesRead, estimatedLength);
+            throughputModel.recordDownload(tivo, recording.getDuration(), totalBytesRead, transferMS);
+            if (indexer != null) {
+                saveDownloadIndex(indexer.finish());
+            }
         } catch (IOException e) {
             logger.error("IOException while downloading recording: ", e);
             throw new ArchiveTaskException("Problem downloading recording");
@@ -347,9 +1068,7 @@ class ArchiveTask extends Task<Recording> {
      * If the user chose to save the file as a .TiVo, don't decrypt it.
      */
     private boolean shouldDecrypt(Recording recording) {
-        boolean decrypt = !recording.getDestination().toString().endsWith(".TiVo");
-        logger.info("decrypt = {}", decrypt);
-        return decrypt;
+        return !recording.getDestination().toString().endsWith(".TiVo");
     }
 
     private long getEstimatedLengthFromHeaders(CloseableHttpResponse response) {
@@ -370,13 +1089,13 @@ class ArchiveTask extends Task<Recording> {
         Duration elapsedTime = Duration.between(startTime, LocalDateTime.now());
         try {
             double kbs = (totalBytesRead / 1024) / elapsedTime.getSeconds();
-            long kbRemaining = (estimatedLength - totalBytesRead) / 1024;
-            int secondsRemaining = (int) (kbRemaining / kbs);
+            Duration expected = estimatedLength > 0 ? throughputModel.estimateDownload(tivo, estimatedLength) :
+                    estimateStageTime(ArchiveStage.DOWNLOAD);
+            int secondsRemaining = ThroughputModel.estimateSecondsRemaining(expected, elapsedTime, percent);
             logger.trace(String.format("Read %d bytes of %d expected bytes (%d%%) in %s (%.1f KB/s)",
                     totalBytesRead, estimatedLength, (int) (percent * 100), elapsedTime, kbs));
-            Platform.runLater(() -> recording.setStatus(
-                    ArchiveStatus.createDownloadingStatus(percent, secondsRemaining, kbs)
-            ));
+            ArchiveStatusHub.publish(recording,
+                    ArchiveStatus.createDownloadingStatus(percent, secondsRemaining, kbs));
         } catch (ArithmeticException e) {
             logger.warn("ArithmeticException: ", e.getLocalizedMessage());
         }
@@ -389,10 +1108,29 @@ class ArchiveTask extends Task<Recording> {
         }
     }
 
-    private void decryptRecording() {
+    /**
+     * Open the download file for writing, indexing everything written to it if @indexer isn't null.
+     */
+    private OutputStream openDownloadOutput(TsIndexer indexer) throws IOException {
+        OutputStream outputStream = Files.newOutputStream(downloadPath);
+        return indexer != null ? new IndexingOutputStream(outputStream, indexer) : outputStream;
+    }
+
+    private void saveDownloadIndex(KeyframeIndex index) {
+        try {
+            index.saveTo(downloadIndexPath);
+            logger.info("Saved index of {} keyframes to {}", index.size(), downloadIndexPath);
+        } catch (IOException e) {
+            // Later stages can still scan or probe the file
+            logger.error("Error saving download index: ", e);
+            cleanupFiles(downloadIndexPath);
+        }
+    }
+
+    private void decryptRecording(TsIndexer indexer) {
         try {
             Files.move(downloadPath, encryptedPath);
-            try (BufferedOutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(downloadPath));
+            try (BufferedOutputStream outputStream = new BufferedOutputStream(openDownloadOutput(indexer));
                  BufferedInputStream inputStream = new BufferedInputStream(Files.newInputStream(encryptedPath))) {
                 logger.info("Decrypting file...");
                 runDecoder(inputStream, outputStream);
@@ -413,7 +1151,7 @@ class ArchiveTask extends Task<Recording> {
             cleanupIntermediateFiles();
             throw new ArchiveTaskException("Problem decoding recording");
         }
-        if (recording.getDestinationType().includeMetadata()) {
+        if (needsMetadata()) {
             logger.info("Saving metadata to '{}'", metadataPath);
             decoder.saveMetadata(metadataPath);
         }
@@ -423,12 +1161,16 @@ class ArchiveTask extends Task<Recording> {
      * TiVo files often have timestamp problems. Remux to fix them.
      */
     private void remux() {
-        Platform.runLater(() -> recording.setStatus(
-                ArchiveStatus.createRemuxingStatus(ArchiveStatus.INDETERMINATE, ArchiveStatus.TIME_UNKNOWN))
-        );
+        ArchiveStatusHub.publish(recording,
+                ArchiveStatus.createRemuxingStatus(ArchiveStatus.INDETERMINATE, ArchiveStatus.TIME_UNKNOWN));
+
+        cleanupFiles(fixedPath, fixedIndexPath);
+        if (prefs.getRemuxEngine() == RemuxEngine.NATIVE && remuxNatively()) {
+            cleanupFiles(downloadPath);
+            return;
+        }
 
         String ffmpegPath = prefs.getFFmpegPath();
-        cleanupFiles(fixedPath);
         logger.info("ffmpeg path = {} outputPath = {}", ffmpegPath, fixedPath);
         List<String> cmd = new ArrayList<>();
         cmd.add(ffmpegPath);
@@ -447,12 +1189,14 @@ class ArchiveTask extends Task<Recording> {
         cmd.add(fixedPath.toString());
         try {
             FFmpegOutputReader outputReader = new FFmpegOutputReader(recording, ArchiveStatus.TaskStatus.REMUXING);
+            outputReader.setExpectedDuration(estimateStageTime(ArchiveStage.REMUX));
             if (!runProcess(cmd, outputReader)) {
                 logger.error("FFmpeg error: {}", outputReader.getOutput());
                 cleanupIntermediateFiles();
                 throw new ArchiveTaskException("Error repairing video");
             } else {
                 logger.debug("FFmpeg output: {}", outputReader.getOutput());
+                cleanupFiles(downloadPath);
             }
         } catch (InterruptedException | IOException e) {
             Platform.runLater(() -> {
@@ -464,34 +1208,67 @@ class ArchiveTask extends Task<Recording> {
             });
             logger.error("Error running ffmpeg to remux download: ", e);
             cleanupIntermediateFiles();
-            throw new ArchiveTaskException("Error repairing video");
-        } finally {
-            cleanupFiles(downloadPath);
+            throw new ArchiveTaskException("Error repairing video");
         }
     }
 
-    private void detectCommercials() {
-        Platform.runLater(() -> recording.setStatus(
-                ArchiveStatus.createFindingCommercialsStatus(ArchiveStatus.INDETERMINATE, ArchiveStatus.TIME_UNKNOWN))
-        );
+    /**
+     * Repair timestamps in-process, indexing the repaired file as we write it.
+     *
+     * @return false if the remux failed and FFmpeg should try instead
+     */
+    private boolean remuxNatively() {
+        TsIndexer indexer = new TsIndexer();
+        try {
+            new TsRemuxer().remux(downloadPath, fixedPath, indexer, progress -> ArchiveStatusHub.publish(recording,
+                    ArchiveStatus.createRemuxingStatus(progress, ArchiveStatus.TIME_UNKNOWN)));
+        } catch (IOException | RuntimeException e) {
+            if (isCancelled()) {
+                logger.info("Remux canceled by user.");
+                cleanupIntermediateFiles();
+                throw new ArchiveTaskException("Error repairing video");
+            }
+            logger.error("Error remuxing '{}', falling back to FFmpeg: ", downloadPath, e);
+            cleanupFiles(fixedPath);
+            return false;
+        }
+
+        KeyframeIndex index = indexer.finish();
+        if (!index.isUsable()) {
+            logger.error("Remuxed '{}' has no video keyframes, falling back to FFmpeg", fixedPath);
+            cleanupFiles(fixedPath);
+            return false;
+        }
+        try {
+            index.saveTo(fixedIndexPath);
+        } catch (IOException e) {
+            logger.error("Error saving index of '{}': ", fixedPath, e);
+            cleanupFiles(fixedIndexPath);
+        }
+        return true;
+    }
+
+    private void detectCommercials(int threads) {
+        ArchiveStatusHub.publish(recording,
+                ArchiveStatus.createFindingCommercialsStatus(ArchiveStatus.INDETERMINATE, ArchiveStatus.TIME_UNKNOWN));
 
         String comskipPath = prefs.getComskipPath();
         String comskipIniPath = Paths.get(Paths.get(comskipPath).getParent().toString(), "comskip.ini").toString();
         Path logoPath = buildPath(fixedPath, "logo.txt");
         Path logPath = buildPath(fixedPath, "log");
-        ffsplitPath = buildPath(fixedPath, "ffsplit");
         cleanupFiles(logoPath, ffsplitPath);
         List<String> cmd = new ArrayList<>();
         cmd.add(comskipPath);
         cmd.add("--ini");
         cmd.add(comskipIniPath);
         cmd.add("--threads");
-        cmd.add(String.valueOf(OSHelper.getProcessorThreads()));
+        cmd.add(String.valueOf(threads));
         cmd.add("--ts");
         cmd.add(fixedPath.toString());
         cmd.add(fixedPath.getParent().toString());
         try {
             ComskipOutputReader outputReader = new ComskipOutputReader(recording);
+            outputReader.setExpectedDuration(estimateStageTime(ArchiveStage.FIND_COMMERCIALS));
             outputReader.addExitCode(1); // Means that commercials were found
             if (!runProcess(cmd, outputReader)) {
                 logger.error("Comskip error: {}", outputReader.getOutput());
@@ -509,13 +1286,130 @@ class ArchiveTask extends Task<Recording> {
         }
     }
 
+    /**
+     * Start Comskip in live-TV mode on the file we're downloading, so it looks for commercials while the rest of
+     * the recording arrives. This only happens when the user wants it and the processing scheduler has room for it
+     * right now; otherwise we'll look for commercials after remuxing, as usual.
+     */
+    private void startLiveCommercialDetection() {
+        if (!prefs.getSkipCommercials() || !prefs.getDetectCommercialsDuringDownload()) {
+            return;
+        }
+        ProcessingScheduler.Grant grant = processingScheduler.tryAcquire(ArchiveStage.FIND_COMMERCIALS);
+        if (grant == null) {
+            logger.debug("No room to look for commercials in {} while downloading it", recording.getFullTitle());
+            return;
+        }
+        logger.info("Looking for commercials in {} while downloading it", recording.getFullTitle());
+        try {
+            liveCommercialDetection = backgroundService.submit(() -> {
+                try {
+                    return detectCommercialsLive(grant.getThreads());
+                } finally {
+                    grant.close();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The task is already shutting down
+            grant.close();
+        }
+    }
+
+    /**
+     * Run Comskip on the download as it grows. Comskip stops once the file hasn't grown for a while; its results
+     * only count if that happened after the download finished, rather than during a pause in the transfer.
+     *
+     * @return true if Comskip read the whole recording and left an FFSkip file for us
+     */
+    private boolean detectCommercialsLive(int threads) throws IOException, InterruptedException {
+        Path iniPath = buildPath(downloadPath, "ini");
+        Path logoPath = buildPath(downloadPath, "logo.txt");
+        Path logPath = buildPath(downloadPath, "log");
+        cleanupFiles(liveFfsplitPath, logoPath);
+        try {
+            writeLiveComskipIni(iniPath);
+            List<String> cmd = new ArrayList<>();
+            cmd.add(prefs.getComskipPath());
+            cmd.add("--ini");
+            cmd.add(iniPath.toString());
+            cmd.add("--threads");
+            cmd.add(String.valueOf(threads));
+            cmd.add("--ts");
+            cmd.add(downloadPath.toString());
+            cmd.add(downloadPath.getParent().toString());
+            // Comskip's progress only covers what we've downloaded so far, so don't show it until we're done
+            ComskipOutputReader outputReader = new ComskipOutputReader(recording, progress -> {
+                if (downloadFinished) {
+                    ArchiveStatusHub.publish(recording,
+                            ArchiveStatus.createFindingCommercialsStatus(progress, ArchiveStatus.TIME_UNKNOWN));
+                }
+            });
+            outputReader.addExitCode(1); // Means that commercials were found
+            boolean succeeded = runProcess(cmd, outputReader,
+                    () -> isCancelled() || stopBackgroundWork, ArchiveStage.FIND_COMMERCIALS);
+            if (!succeeded) {
+                logger.warn("Comskip error while downloading: {}", outputReader.getOutput());
+                return false;
+            } else if (!downloadFinished || !Files.exists(liveFfsplitPath)) {
+                logger.warn("Comskip finished before the download did");
+                return false;
+            }
+            Files.move(liveFfsplitPath, ffsplitPath, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } finally {
+            cleanupFiles(iniPath, logoPath, logPath, liveFfsplitPath);
+        }
+    }
+
+    /**
+     * Copy the user's Comskip settings to @iniPath, switched to live-TV mode.
+     */
+    private void writeLiveComskipIni(Path iniPath) throws IOException {
+        Path userIni = Paths.get(Paths.get(prefs.getComskipPath()).getParent().toString(), "comskip.ini");
+        List<String> lines = Files.readAllLines(userIni).stream()
+                .filter(line -> !line.startsWith("live_tv=") && !line.startsWith("live_tv_retries="))
+                .collect(Collectors.toList());
+        lines.add("live_tv=1");
+        lines.add("live_tv_retries=" + LIVE_COMSKIP_RETRIES);
+        Files.write(iniPath, lines);
+    }
+
+    /**
+     * Wait for the Comskip run we started during the download, if there is one.
+     *
+     * @return true if it found the recording's commercials
+     */
+    private boolean awaitLiveCommercialDetection() throws InterruptedException {
+        if (liveCommercialDetection == null) {
+            return false;
+        }
+        ArchiveStatusHub.publish(recording,
+                ArchiveStatus.createFindingCommercialsStatus(ArchiveStatus.INDETERMINATE, ArchiveStatus.TIME_UNKNOWN));
+        try {
+            return liveCommercialDetection.get();
+        } catch (ExecutionException e) {
+            logger.error("Error finding commercials while downloading: ", e.getCause());
+            return false;
+        }
+    }
+
     private void cutCommercials() {
-        Platform.runLater(() -> recording.setStatus(
-                ArchiveStatus.createRemovingCommercialsStatus(ArchiveStatus.INDETERMINATE, ArchiveStatus.TIME_UNKNOWN))
-        );
+        ArchiveStatusHub.publish(recording,
+                ArchiveStatus.createRemovingCommercialsStatus(ArchiveStatus.INDETERMINATE, ArchiveStatus.TIME_UNKNOWN));
+
+        CommercialCutMode cutMode = prefs.getCommercialCutMode();
+        if (cutMode == CommercialCutMode.NATIVE && cutCommercialsNatively()) {
+            return;
+        }
 
         double videoOffsetFromAudio = findVideoOffsetStartTime();
         logger.info("Video offset from audio: {}", videoOffsetFromAudio);
+        if (cutMode != CommercialCutMode.PER_SEGMENT) {
+            cutCommercialsInOnePass(videoOffsetFromAudio);
+            return;
+        }
+
+        // Legacy mode: extract each segment to its own file, then join them
         Path partList = buildPath(fixedPath, "parts");
         cleanupFiles(cutPath, partList);
         String ffmpegPath = prefs.getFFmpegPath();
@@ -525,6 +1419,11 @@ class ArchiveTask extends Task<Recording> {
             FFSplitList splitList = FFSplitList.createFromFileWithOffset(ffsplitPath, videoOffsetFromAudio);
             logger.info("splitList: {}", splitList);
             List<FFSplitList.Segment> toKeep = splitList.getSegmentsToKeep();
+            List<Path> plannedParts = new ArrayList<>();
+            for (int i = 1; i <= toKeep.size(); i++) {
+                plannedParts.add(buildPath(fixedPath, String.format("part%02d.ts", i)));
+            }
+            journal.addWorkFiles(recording, plannedParts);
             int curSegment = 1;
             for (FFSplitList.Segment segment : toKeep) {
                 List<String> cmd = new ArrayList<>();
@@ -554,9 +1453,8 @@ class ArchiveTask extends Task<Recording> {
                         logger.debug("FFmpeg output: {}", outputReader.getOutput());
                     }
                     double progress = (curSegment++ / (double) toKeep.size()) * 0.9; // The final 10% is for concatenation
-                    Platform.runLater(() -> recording.setStatus(
-                            ArchiveStatus.createRemovingCommercialsStatus(progress, ArchiveStatus.TIME_UNKNOWN))
-                    );
+                    ArchiveStatusHub.publish(recording,
+                            ArchiveStatus.createRemovingCommercialsStatus(progress, ArchiveStatus.TIME_UNKNOWN));
                 } catch (InterruptedException | IOException e) {
                     logger.error("Error running ffmpeg to cut commercials: ", e);
                     cleanupIntermediateFiles();
@@ -570,13 +1468,10 @@ class ArchiveTask extends Task<Recording> {
             cleanupFiles(partList);
             cleanupFiles(partPaths);
             return;
-        } finally {
-            cleanupFiles(fixedPath, ffsplitPath);
         }
 
-        Platform.runLater(() -> recording.setStatus(
-                ArchiveStatus.createRemovingCommercialsStatus(.95, 30))
-        );
+        ArchiveStatusHub.publish(recording,
+                ArchiveStatus.createRemovingCommercialsStatus(.95, 30));
 
         List<String> cmd = new ArrayList<>();
         cmd.add(ffmpegPath);
@@ -596,12 +1491,14 @@ class ArchiveTask extends Task<Recording> {
         cleanupFiles(cutPath);
         try {
             FFmpegOutputReader outputReader = new FFmpegOutputReader(recording, ArchiveStatus.TaskStatus.REMOVING_COMMERCIALS);
+            outputReader.setExpectedDuration(estimateStageTime(ArchiveStage.REMOVE_COMMERCIALS));
             if (!runProcess(cmd, outputReader)) {
                 logger.error("FFmpeg error: {}", outputReader.getOutput());
                 cleanupIntermediateFiles();
                 throw new ArchiveTaskException("Error removing commercials");
             } else {
                 logger.debug("FFmpeg output: {}", outputReader.getOutput());
+                cleanupFiles(fixedPath, fixedIndexPath, ffsplitPath);
             }
         } catch (InterruptedException | IOException e) {
             logger.error("Error running ffmpeg to join files: ", e);
@@ -613,7 +1510,114 @@ class ArchiveTask extends Task<Recording> {
         }
     }
 
+    /**
+     * Remove commercials by copying the keyframe-aligned byte ranges we want to keep straight from the remuxed file.
+     *
+     * @return false if we couldn't splice this file, in which case FFmpeg should do the job
+     */
+    private boolean cutCommercialsNatively() {
+        cleanupFiles(cutPath);
+        try {
+            FFSplitList splitList = FFSplitList.createFromFile(ffsplitPath);
+            logger.info("splitList: {}", splitList);
+            KeyframeIndex index = KeyframeIndex.loadFor(fixedPath);
+            if (index == null) {
+                index = KeyframeIndex.scan(fixedPath);
+            }
+            if (!index.isUsable()) {
+                logger.warn("Could not find keyframes in '{}', falling back to FFmpeg", fixedPath);
+                return false;
+            }
+            List<TsSplicer.Range> ranges = splitList.getSegmentsToKeep().stream()
+                    .map(s -> new TsSplicer.Range(s.getStartTime(), s.getStartTime() + s.getDuration()))
+                    .collect(Collectors.toList());
+            new TsSplicer(fixedPath, index).splice(ranges, cutPath, progress -> ArchiveStatusHub.publish(recording,
+                    ArchiveStatus.createRemovingCommercialsStatus(progress, ArchiveStatus.TIME_UNKNOWN)));
+            cleanupFiles(fixedPath, fixedIndexPath, ffsplitPath);
+            return true;
+        } catch (IOException e) {
+            if (isCancelled()) {
+                logger.info("Splicing canceled by user.");
+                cleanupIntermediateFiles();
+                throw new ArchiveTaskException("Error removing commercials");
+            }
+            logger.error("Error splicing '{}', falling back to FFmpeg: ", fixedPath, e);
+            cleanupFiles(cutPath);
+            return false;
+        }
+    }
+
+    /**
+     * Remove commercials with a single FFmpeg process, reading only the segments we want to keep via a concat script.
+     */
+    private void cutCommercialsInOnePass(double videoOffsetFromAudio) {
+        Path cutList = buildPath(fixedPath, "ffconcat");
+        cleanupFiles(cutPath, cutList);
+        try {
+            FFSplitList splitList = FFSplitList.createFromFileWithOffset(ffsplitPath, videoOffsetFromAudio);
+            logger.info("splitList: {}", splitList);
+            splitList.writeConcatList(cutList, fixedPath);
+        } catch (IOException e) {
+            logger.error("Error reading ffsplit file '{}': ", ffsplitPath, e);
+            cleanupFiles(cutList);
+            return;
+        }
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add(prefs.getFFmpegPath());
+        cmd.add("-f");
+        cmd.add("concat");
+        cmd.add("-fflags");
+        cmd.add("+genpts+discardcorrupt+sortdts");
+        cmd.add("-safe");
+        cmd.add("0");
+        cmd.add("-i");
+        cmd.add(cutList.toString());
+        cmd.add("-codec");
+        cmd.add("copy");
+        cmd.add("-f");
+        cmd.add("mpegts");
+        cmd.add(cutPath.toString());
+        try {
+            FFmpegOutputReader outputReader = new FFmpegOutputReader(recording, ArchiveStatus.TaskStatus.REMOVING_COMMERCIALS);
+            outputReader.setExpectedDuration(estimateStageTime(ArchiveStage.REMOVE_COMMERCIALS));
+            if (!runProcess(cmd, outputReader)) {
+                logger.error("FFmpeg error: {}", outputReader.getOutput());
+                cleanupIntermediateFiles();
+                throw new ArchiveTaskException("Error removing commercials");
+            } else {
+                logger.debug("FFmpeg output: {}", outputReader.getOutput());
+                cleanupFiles(fixedPath, fixedIndexPath, ffsplitPath);
+            }
+        } catch (InterruptedException | IOException e) {
+            logger.error("Error running ffmpeg to cut commercials: ", e);
+            cleanupIntermediateFiles();
+            throw new ArchiveTaskException("Error removing commercials");
+        } finally {
+            cleanupFiles(cutList);
+        }
+    }
+
     private double findVideoOffsetStartTime() {
+        // Remuxing shifts every stream by the same amount, so the download's start times give us the same offset
+        KeyframeIndex downloadIndex = KeyframeIndex.loadFrom(downloadIndexPath);
+        if (downloadIndex != null) {
+            OptionalDouble offset = downloadIndex.getVideoOffsetFromAudio();
+            if (offset.isPresent()) {
+                logger.info("Using stream start times from {}", downloadIndexPath);
+                return offset.getAsDouble();
+            }
+        }
+        try {
+            OptionalDouble offset = TsProbe.findVideoOffsetFromAudio(fixedPath);
+            if (offset.isPresent()) {
+                logger.info("Using stream start times probed from {}", fixedPath);
+                return offset.getAsDouble();
+            }
+        } catch (IOException e) {
+            logger.error("Error probing '{}': ", fixedPath, e);
+        }
+
         String ffprobePath = prefs.getFFprobePath();
         List<String> cmd = new ArrayList<>();
         cmd.add(ffprobePath);
@@ -634,52 +1638,47 @@ class ArchiveTask extends Task<Recording> {
         return outputReader.getVideoOffsetFromAudio();
     }
 
-    private void transcode() {
-        Platform.runLater(() -> recording.setStatus(
-                ArchiveStatus.createTranscodingStatus(ArchiveStatus.INDETERMINATE, ArchiveStatus.TIME_UNKNOWN))
-        );
-
-        VideoResolution videoLimit = prefs.getVideoResolution();
-        AudioChannel audioLimit = prefs.getAudioChannels();
-        String handbrakePath = prefs.getHandbrakePath();
+    /**
+     * Transcode our recording into @output with the user's chosen transcoder, reporting the fraction completed to
+     * @progress and giving up once @shouldStop returns true.
+     */
+    private void transcode(ArchiveOutput output, int threads, DoubleConsumer progress, BooleanSupplier shouldStop) {
         Path sourcePath = cutPath;
         if (!Files.exists(sourcePath)) {
             sourcePath = fixedPath;
         }
-        boolean useQuickSync = isQuickSyncSupported(handbrakePath, sourcePath) && prefs.getHardwareAcceleration() &&
-                recording.getDestinationType().supportsQSV();
-        logger.info("Using Intel Quick Sync Video: {}", useQuickSync);
-        cleanupFiles(recording.getDestination());
-        List<String> cmd = new ArrayList<>();
-        cmd.add(handbrakePath);
-        cmd.add("-i");
-        cmd.add(sourcePath.toString());
-        cmd.add("-o");
-        cmd.add(recording.getDestination().toString());
-        FileType fileType = recording.getDestinationType();
-        Map<String, String> handbrakeArgs = new HashMap<>(fileType.getHandbrakeArgs());
-        if (audioLimit == AudioChannel.STEREO) {
-            logger.info("Audio limit == STEREO");
-            // Overwrite the existing list of audio encoders with just one
-            handbrakeArgs.put("-E", FileType.getPlatformAudioEncoder());
-            handbrakeArgs.put("-a", "1");
-            handbrakeArgs.put("-6", "dpl2");
-        }
-        handbrakeArgs.put("-Y", String.valueOf(videoLimit.getHeight()));
-        handbrakeArgs.put("-X", String.valueOf(videoLimit.getWidth()));
-        if (useQuickSync) {
-            enableQSVEncoder(handbrakeArgs);
-        }
-        cmd.addAll(mapToList(handbrakeArgs));
+        FileType fileType = output.getFileType();
+        cleanupFiles(output.getDestination());
+        TranscoderEngine engine = createTranscoderEngine(fileType);
+        Path segmentList = null;
+        if (cutWhileTranscoding && engine.canReadConcatList() && !Files.exists(cutPath)) {
+            // Other outputs may be reading the same segments at the same time, so name our list after our file type
+            segmentList = writeSegmentList(buildPath(fixedPath, fileType.name().toLowerCase() + ".segments"));
+        }
+        if (segmentList == null && prefs.getCopyCompatibleVideo() &&
+                copyCompatibleVideo(sourcePath, output, HandbrakeEngine.buildArgs(prefs, fileType), progress, shouldStop)) {
+            return;
+        }
+
+        logger.info("Transcoding {} with {}", fileType, engine);
+        if (segmentList == null) {
+            int chunks = getTranscodeChunkCount(threads, engine.usesHardwareEncoder());
+            if (chunks > 1 && transcodeInChunks(sourcePath, output, engine, chunks, threads, progress, shouldStop)) {
+                return;
+            }
+        }
+        List<String> cmd = segmentList != null ?
+                engine.buildCommand(segmentList, true, output.getDestination(), threads) :
+                engine.buildCommand(sourcePath, false, output.getDestination(), threads);
         try {
-            HandbrakeOutputReader outputReader = new HandbrakeOutputReader(recording);
-            if (!runProcess(cmd, outputReader)) {
-                logger.error("HandBrake error: {}", outputReader.getOutput());
+            ProcessOutputReader outputReader = engine.createOutputReader(recording, progress);
+            if (!runProcess(cmd, outputReader, shouldStop)) {
+                logger.error("{} error: {}", engine, outputReader.getOutput());
                 cleanupIntermediateFiles();
-                cleanupFiles(recording.getDestination());
+                cleanupFiles(output.getDestination());
                 throw new ArchiveTaskException("Error compressing video");
             } else {
-                logger.debug("HandBrake output: {}", outputReader.getOutput());
+                logger.debug("{} output: {}", engine, outputReader.getOutput());
             }
         } catch (InterruptedException | IOException e) {
             Platform.runLater(() -> {
@@ -689,83 +1688,309 @@ class ArchiveTask extends Task<Recording> {
                         System.getProperty("user.dir")));
                 alert.showAndWait();
             });
-            logger.error("Error running HandBrake: ", e);
+            logger.error("Error running {}: ", engine, e);
             cleanupIntermediateFiles();
-            cleanupFiles(recording.getDestination());
+            cleanupFiles(output.getDestination());
             throw new ArchiveTaskException("Error compressing video");
         } finally {
-            cleanupFiles(cutPath);
+            cleanupFiles(segmentList);
+        }
+    }
+
+    private TranscoderEngine createTranscoderEngine(FileType fileType) {
+        if (prefs.getTranscoder() == TranscoderType.FFMPEG) {
+            if (ffmpegSupports(fileType)) {
+                return new FFmpegEngine(prefs, fileType);
+            }
+            logger.warn("FFmpeg can't encode {}, transcoding with HandBrake instead", fileType);
+        }
+        boolean useQuickSync = prefs.getHardwareAcceleration() && fileType.supportsQSV() &&
+                toolCapabilities.getHandbrake(prefs.getHandbrakePath()).hasEncoder("qsv_h264");
+        logger.info("Using Intel Quick Sync Video: {}", useQuickSync);
+        return new HandbrakeEngine(prefs, fileType, useQuickSync);
+    }
+
+    /**
+     * Write an ffconcat list of the segments Comskip told us to keep to @segmentList.
+     *
+     * @return the list, or null if there were no segments to list
+     */
+    private Path writeSegmentList(Path segmentList) {
+        journal.addWorkFiles(recording, Collections.singletonList(segmentList));
+        try {
+            FFSplitList splitList = FFSplitList.createFromFileWithOffset(ffsplitPath, findVideoOffsetStartTime());
+            logger.info("splitList: {}", splitList);
+            if (splitList.getSegmentsToKeep().isEmpty()) {
+                return null;
+            }
+            splitList.writeConcatList(segmentList, fixedPath);
+            return segmentList;
+        } catch (IOException e) {
+            logger.error("Error reading ffsplit file '{}', transcoding without removing commercials: ", ffsplitPath, e);
+            cleanupFiles(segmentList);
+            return null;
         }
     }
 
-    private boolean isQuickSyncSupported(String handbrakePath, Path inputPath) {
+    /**
+     * If the video in @sourcePath already fits the limits @handbrakeArgs would encode to, copy it into @output's
+     * container as-is. Only the audio is re-encoded (to match the tracks HandBrake would have created), which takes
+     * seconds instead of the minutes a full transcode needs.
+     *
+     * @return true if @output was created; false if the video needs transcoding or couldn't be copied
+     */
+    private boolean copyCompatibleVideo(Path sourcePath, ArchiveOutput output, Map<String, String> handbrakeArgs,
+                                        DoubleConsumer progress, BooleanSupplier shouldStop) {
+        VideoLimits limits = VideoLimits.fromHandbrakeArgs(handbrakeArgs);
+        if (limits == null) {
+            return false;
+        }
+        MediaInfo mediaInfo;
+        try {
+            mediaInfo = TsProbe.probeMedia(sourcePath);
+        } catch (IOException e) {
+            logger.error("Error probing '{}': ", sourcePath, e);
+            return false;
+        }
+        if (mediaInfo == null || mediaInfo.getVideoCodec() != MediaInfo.VideoCodec.H264 ||
+                !mediaInfo.hasVideoFormat() || mediaInfo.getAudioCodec() == MediaInfo.AudioCodec.NONE ||
+                !limits.allowsH264(mediaInfo.getProfile(), mediaInfo.getLevel(), mediaInfo.getWidth(),
+                        mediaInfo.getHeight(), mediaInfo.isInterlaced(), mediaInfo.getFrameRate())) {
+            logger.info("Video needs transcoding for {}: {} (limits: {})", output.getFileType(), mediaInfo, limits);
+            return false;
+        }
+        logger.info("Video already fits {}, copying it instead of transcoding: {}", output.getFileType(), mediaInfo);
+
+        String audioEncoders = handbrakeArgs.getOrDefault("-E", "");
+        String audioBitrate = handbrakeArgs.getOrDefault("-B", "160").split(",")[0];
         List<String> cmd = new ArrayList<>();
-        cmd.add(handbrakePath);
-        cmd.add("--scan");
+        cmd.add(prefs.getFFmpegPath());
         cmd.add("-i");
-        cmd.add(inputPath.toString());
+        cmd.add(sourcePath.toString());
+        cmd.add("-map");
+        cmd.add("0:v:0");
+        cmd.add("-map");
+        cmd.add("0:a:0");
+        cmd.add("-c:v");
+        cmd.add("copy");
+        cmd.add("-c:a:0");
+        cmd.add("aac");
+        cmd.add("-b:a:0");
+        cmd.add(audioBitrate + "k");
+        cmd.add("-ac:a:0");
+        cmd.add("2");
+        if (audioEncoders.contains("copy:ac3") && mediaInfo.getAudioCodec() == MediaInfo.AudioCodec.AC3) {
+            // Keep the surround track too, like HandBrake's AC-3 passthrough
+            cmd.add("-map");
+            cmd.add("0:a:0");
+            cmd.add("-c:a:1");
+            cmd.add("copy");
+        }
+        cmd.add("-f");
+        cmd.add("mp4");
+        cmd.add(output.getDestination().toString());
         try {
-            HandbrakeScanOutputReader outputReader = new HandbrakeScanOutputReader();
-            if (runProcess(cmd, outputReader)) {
-                logger.debug("HandBrake output: {}", outputReader.getOutput());
-                return outputReader.isQuickSyncSupported();
-            } else {
-                logger.error("HandBrake error: {}", outputReader.getOutput());
+            FFmpegOutputReader outputReader = new FFmpegOutputReader(recording, progress);
+            if (runProcess(cmd, outputReader, shouldStop)) {
+                logger.debug("FFmpeg output: {}", outputReader.getOutput());
+                return true;
             }
+            logger.error("FFmpeg error: {}", outputReader.getOutput());
         } catch (InterruptedException | IOException e) {
-            logger.error("Error checking for QuickSync support: ", e);
+            logger.error("Error running ffmpeg to copy video: ", e);
         }
-
+        cleanupFiles(output.getDestination());
         return false;
     }
 
     /**
-     * Replace the default Handbrake encoder arguments with Intel Quick Sync Video encoder arguments.
+     * Split recordings into as many chunks as the user asked for, but never more than we have threads to encode
+     * them or so many that a chunk is shorter than MIN_CHUNK_MINUTES. Hardware encoders don't gain anything from
+     * running side-by-side.
      */
-    private void enableQSVEncoder(Map<String, String> args) {
-        args.put("-e", "qsv_h264");
-        args.put("--encoder-preset", "balanced");
-        args.put("--encoder-level", args.getOrDefault("--h264-level", "4.0"));
-        args.put("--encoder-profile", args.getOrDefault("--h264-profile", "main"));
-        args.remove("--x264-preset");
-        args.remove("--h264-level");
-        args.remove("--h264-profile");
+    private int getTranscodeChunkCount(int threads, boolean usesHardwareEncoder) {
+        if (usesHardwareEncoder || recording.getDuration() == null) {
+            return 1;
+        }
+        long maxChunks = recording.getDuration().toMinutes() / MIN_CHUNK_MINUTES;
+        return (int) Math.max(1, Math.min(Math.min(prefs.getTranscodeChunks(), threads), maxChunks));
     }
 
-    private boolean runProcess(List<String> command, ProcessOutputReader outputReader) throws IOException, InterruptedException {
-        if (isCancelled()) {
+    /**
+     * Split @sourcePath at keyframes into @chunks pieces, transcode them at the same time with our @threads shared
+     * between the @engine processes, and join the results into @output without re-encoding them.
+     *
+     * @return false if the chunks couldn't be transcoded, in which case the caller should transcode the whole file
+     */
+    private boolean transcodeInChunks(Path sourcePath, ArchiveOutput output, TranscoderEngine engine,
+                                      int chunks, int threads, DoubleConsumer progress, BooleanSupplier shouldStop) {
+        long[] splitPoints;
+        TsSplicer splicer;
+        try {
+            KeyframeIndex index = KeyframeIndex.loadFor(sourcePath);
+            if (index == null) {
+                index = KeyframeIndex.scan(sourcePath);
+            }
+            if (!index.isUsable()) {
+                logger.warn("No keyframes found in {}, transcoding it in one piece", sourcePath);
+                return false;
+            }
+            splitPoints = index.findSplitPoints(chunks, Files.size(sourcePath));
+            splicer = new TsSplicer(sourcePath, index);
+        } catch (IOException e) {
+            logger.error("Error indexing '{}': ", sourcePath, e);
+            return false;
+        }
+        int parts = splitPoints.length - 1;
+        if (parts < 2) {
             return false;
         }
+        logger.info("Transcoding {} in {} chunks", recording.getFullTitle(), parts);
 
-        logger.info("Running command: {}", command.stream().collect(Collectors.joining(" ")));
-        ProcessBuilder builder = new ProcessBuilder().command(command).redirectErrorStream(true);
-        Process process = builder.start();
-        outputReader.setInputStream(process.getInputStream());
-        Thread readerThread = new Thread(outputReader);
-        readerThread.start();
-        while (process.isAlive()) {
-            if (isCancelled()) {
-                logger.info("Process cancelled, waiting for it to exit");
-                readerThread.interrupt();
-                process.destroyForcibly();
-                process.waitFor();
-                readerThread.join();
-                logger.info("Process has exited");
-                return false;
-            } else {
-                try {
-                    Thread.sleep(200); // check 5 times each second
-                } catch (InterruptedException e) {
-                    // continue our loop; an interruption likely means isCancelled() will now return true
+        // Other outputs may be splitting the same source at the same time, so name our chunks after our file type
+        String prefix = output.getFileType().name().toLowerCase();
+        String extension = output.getFileType().getExtension().substring(1);
+        List<Path> chunkSources = new ArrayList<>();
+        List<Path> chunkOutputs = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            chunkSources.add(buildPath(fixedPath, String.format("%s.chunk%02d.ts", prefix, i)));
+            chunkOutputs.add(buildPath(fixedPath, String.format("%s.chunk%02d%s", prefix, i, extension)));
+        }
+        Path chunkList = buildPath(fixedPath, prefix + ".chunks");
+        List<Path> chunkFiles = new ArrayList<>(chunkSources);
+        chunkFiles.addAll(chunkOutputs);
+        chunkFiles.add(chunkList);
+        journal.addWorkFiles(recording, chunkFiles);
+
+        int chunkThreads = Math.max(1, threads / parts);
+        long totalBytes = splitPoints[parts] - splitPoints[0];
+        double[] weights = new double[parts];
+        for (int i = 0; i < parts; i++) {
+            weights[i] = (splitPoints[i + 1] - splitPoints[i]) / (double) totalBytes;
+        }
+        CombinedProgress combinedProgress = new CombinedProgress(weights, progress);
+        AtomicBoolean chunkFailed = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(parts);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                int chunk = i;
+                DoubleConsumer progressListener = combinedProgress.listenerFor(i);
+                results.add(executor.submit(() -> {
+                    boolean succeeded = transcodeChunk(splicer, splitPoints[chunk], splitPoints[chunk + 1],
+                            chunkSources.get(chunk), chunkOutputs.get(chunk), engine, chunkThreads, progressListener,
+                            () -> shouldStop.getAsBoolean() || chunkFailed.get());
+                    if (!succeeded) {
+                        chunkFailed.set(true);
+                    }
+                    return succeeded;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                if (!result.get()) {
+                    return false;
                 }
             }
+            return joinChunks(chunkOutputs, chunkList, output, shouldStop);
+        } catch (ExecutionException e) {
+            logger.error("Error transcoding chunk: ", e.getCause());
+            return false;
+        } catch (InterruptedException | IOException e) {
+            logger.error("Error transcoding chunks: ", e);
+            return false;
+        } finally {
+            chunkFailed.set(true);
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted while waiting for chunk transcodes to stop");
+            }
+            cleanupFiles(chunkFiles);
+        }
+    }
+
+    private boolean transcodeChunk(TsSplicer splicer, long startOffset, long endOffset, Path chunkSource,
+                                   Path chunkOutput, TranscoderEngine engine, int threads, DoubleConsumer progress,
+                                   BooleanSupplier shouldStop) throws IOException, InterruptedException {
+        splicer.extract(startOffset, endOffset, chunkSource);
+        List<String> cmd = engine.buildCommand(chunkSource, false, chunkOutput, threads);
+        ProcessOutputReader outputReader = engine.createOutputReader(recording, progress);
+        if (!runProcess(cmd, outputReader, shouldStop)) {
+            logger.error("{} error: {}", engine, outputReader.getOutput());
+            return false;
+        }
+        logger.debug("{} output: {}", engine, outputReader.getOutput());
+        cleanupFiles(chunkSource);
+        return true;
+    }
+
+    /**
+     * Concatenate the transcoded @chunks into @output, copying their streams as-is.
+     */
+    private boolean joinChunks(List<Path> chunks, Path chunkList, ArchiveOutput output, BooleanSupplier shouldStop)
+            throws IOException, InterruptedException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(chunkList))) {
+            writer.println("ffconcat version 1.0");
+            for (Path chunk : chunks) {
+                writer.printf("file '%s'\n", chunk.toString().replace("\'", "\'\\\'\'"));
+            }
+        }
+        List<String> cmd = new ArrayList<>();
+        cmd.add(prefs.getFFmpegPath());
+        cmd.add("-f");
+        cmd.add("concat");
+        cmd.add("-safe");
+        cmd.add("0");
+        cmd.add("-i");
+        cmd.add(chunkList.toString());
+        cmd.add("-map");
+        cmd.add("0");
+        cmd.add("-codec");
+        cmd.add("copy");
+        cmd.add(output.getDestination().toString());
+        FFmpegOutputReader outputReader = new FFmpegOutputReader(recording, ArchiveStatus.TaskStatus.NONE);
+        if (!runProcess(cmd, outputReader, shouldStop)) {
+            logger.error("FFmpeg error: {}", outputReader.getOutput());
+            cleanupFiles(output.getDestination());
+            return false;
+        }
+        logger.debug("FFmpeg output: {}", outputReader.getOutput());
+        return true;
+    }
+
+    private boolean runProcess(List<String> command, ProcessOutputReader outputReader) throws IOException, InterruptedException {
+        return runProcess(command, outputReader, this::isCancelled);
+    }
+
+    /**
+     * Run @command until it exits, or kill it once @shouldStop returns true.
+     */
+    private boolean runProcess(List<String> command, ProcessOutputReader outputReader, BooleanSupplier shouldStop)
+            throws IOException, InterruptedException {
+        return runProcess(command, outputReader, shouldStop, currentStage);
+    }
+
+    /**
+     * Run @command as part of @stage, which may not be the stage the rest of this task is working on.
+     */
+    private boolean runProcess(List<String> command, ProcessOutputReader outputReader, BooleanSupplier shouldStop,
+                               ArchiveStage stage) throws IOException, InterruptedException {
+        if (shouldStop.getAsBoolean()) {
+            return false;
         }
 
-        int exitCode = process.exitValue();
-        if (outputReader.isValidExitCode(exitCode)) {
+        ResourcePolicy policy = stage != null ? prefs.getResourcePolicy(stage) : ResourcePolicy.NONE;
+        ProcessSupervisor.Result result = processSupervisor.run(command, outputReader, shouldStop, policy);
+        if (stage != null) {
+            stageUsage.merge(stage, result.getUsage(), ProcessSupervisor.Usage::plus);
+        }
+        if (result.wasStopped()) {
+            return false;
+        } else if (outputReader.isValidExitCode(result.getExitCode())) {
             return true;
         } else {
-            logger.error("Error running command {}: exit code = {}", command, exitCode);
+            logger.error("Error running command {}: exit code = {}", command, result.getExitCode());
             return false;
         }
     }
@@ -774,11 +1999,15 @@ class ArchiveTask extends Task<Recording> {
         // the List returned from Arrays.asList() doesn't allow elements to be added, so we need copy the elements
         // to a new ArrayList
         List<Path> intermediateFiles = new ArrayList<>(
-                Arrays.asList(downloadPath, fixedPath, cutPath, metadataPath, ffsplitPath)
+                Arrays.asList(downloadPath, downloadIndexPath, fixedPath, fixedIndexPath, cutPath, metadataPath, ffsplitPath)
         );
         if (!keepEncryptedFile) {
             intermediateFiles.add(encryptedPath);
         }
+        if (suspended) {
+            // Keep whatever the next stage needs so we can resume from here
+            intermediateFiles.removeAll(journal.getArtifacts(recording));
+        }
         cleanupFiles(intermediateFiles);
     }
 
@@ -804,16 +2033,4 @@ class ArchiveTask extends Task<Recording> {
         }
         return Paths.get(input.getParent().toString(), filename + newSuffix);
     }
-
-    private <E> List<E> mapToList(Map<E, E> map) {
-        List<E> list = new ArrayList<>();
-        for (Map.Entry<E, E> entry : map.entrySet()) {
-            list.add(entry.getKey());
-            E value = entry.getValue();
-            if (value != null) {
-                list.add(value);
-            }
-        }
-        return list;
-    }
 }
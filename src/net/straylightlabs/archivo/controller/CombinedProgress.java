@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.controller;
+
+import java.util.function.DoubleConsumer;
+
+/**
+ * Combine the progress of several processes working on parts of the same job (e.g., the chunks of a recording, or
+ * each of its output files) into one overall fraction, weighting each part by its share of the work.
+ */
+class CombinedProgress {
+    private final double[] weights;
+    private final double[] progress;
+    private final DoubleConsumer listener;
+
+    CombinedProgress(double[] weights, DoubleConsumer listener) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        this.weights = new double[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            this.weights[i] = total > 0 ? weights[i] / total : 1.0 / weights.length;
+        }
+        progress = new double[weights.length];
+        this.listener = listener;
+    }
+
+    /**
+     * Create a progress listener for one of the parts; it passes the combined progress of every part to our listener.
+     */
+    DoubleConsumer listenerFor(int part) {
+        return fraction -> update(part, fraction);
+    }
+
+    private synchronized void update(int part, double fraction) {
+        progress[part] = fraction;
+        double overall = 0;
+        for (int i = 0; i < progress.length; i++) {
+            overall += progress[i] * weights[i];
+        }
+        listener.accept(overall);
+    }
+}
@@ -19,28 +19,40 @@
 
 package net.straylightlabs.archivo.controller;
 
-import javafx.application.Platform;
 import net.straylightlabs.archivo.model.ArchiveStatus;
 import net.straylightlabs.archivo.model.Recording;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.DoubleConsumer;
 
 public class ComskipOutputReader extends ProcessOutputReader {
-    private static final Pattern PERCENT = Pattern.compile("([\\d\\.]+)%");
+    private final DoubleConsumer progressListener;
+
+    private static final byte[] PERCENT = "%".getBytes();
 
     public ComskipOutputReader(Recording recording) {
+        this(recording, null);
+    }
+
+    /**
+     * Pass Comskip's progress (0 to 1) to @progressListener instead of showing it as @recording's status.
+     */
+    public ComskipOutputReader(Recording recording, DoubleConsumer progressListener) {
         super(recording);
+        this.progressListener = progressListener;
     }
 
     @Override
-    public void processLine(String line) {
-        Matcher matcher = PERCENT.matcher(line);
-        if (matcher.find()) {
-            double percentComplete = Double.parseDouble(matcher.group(1)) * .01;
-            Platform.runLater(() -> recording.setStatus(
-                    ArchiveStatus.createFindingCommercialsStatus(percentComplete, getSecondsRemaining(percentComplete)))
-            );
+    public void processLine(byte[] line, int length) {
+        int percent = indexOf(line, length, PERCENT, 0);
+        double value = percent > 0 ? parseNumberBefore(line, percent) : -1;
+        if (value >= 0) {
+            double percentComplete = value * .01;
+            if (progressListener != null) {
+                progressListener.accept(percentComplete);
+                return;
+            }
+            ArchiveStatusHub.publish(recording,
+                    ArchiveStatus.createFindingCommercialsStatus(percentComplete, getSecondsRemaining(percentComplete)));
         }
     }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.controller;
+
+import net.straylightlabs.archivo.model.Recording;
+import net.straylightlabs.archivo.model.Tivo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Decide which pending download should run next. Recordings the user pinned go first (in the order they were
+ * pinned), followed by the recordings with the least slack between the end of their estimated download time and
+ * the time the TiVo expects to delete them. Each task estimates its own remaining time from our throughput history.
+ */
+class DeadlineScheduler {
+    private final List<Recording> pinned;
+    private final Set<Recording> warned;
+    private final int perDeviceLimit;
+    private final int globalLimit;
+
+    private static final Duration NO_DEADLINE = Duration.ofSeconds(Long.MAX_VALUE);
+
+    private final static Logger logger = LoggerFactory.getLogger(DeadlineScheduler.class);
+
+    /**
+     * @param perDeviceLimit The most downloads each TiVo runs at once
+     * @param globalLimit    The most downloads that run at once across all TiVos
+     */
+    DeadlineScheduler(int perDeviceLimit, int globalLimit) {
+        pinned = new ArrayList<>();
+        warned = new HashSet<>();
+        this.perDeviceLimit = Math.max(perDeviceLimit, 1);
+        this.globalLimit = Math.max(globalLimit, 1);
+    }
+
+    /**
+     * Move @recording ahead of every un-pinned recording in the queue.
+     */
+    synchronized void pin(Recording recording) {
+        if (!pinned.contains(recording)) {
+            pinned.add(recording);
+        }
+    }
+
+    synchronized boolean isPinned(Recording recording) {
+        return pinned.contains(recording);
+    }
+
+    /**
+     * Forget about @recording once it leaves the queue.
+     */
+    synchronized void remove(Recording recording) {
+        pinned.remove(recording);
+        warned.remove(recording);
+    }
+
+    /**
+     * Returns how much time we can wait before starting to download @task's recording and still finish before the
+     * TiVo deletes it.
+     */
+    Duration getSlack(ArchiveTask task, LocalDateTime now) {
+        LocalDateTime deadline = task.getRecording().getExpectedDeletion();
+        if (deadline == null) {
+            return NO_DEADLINE;
+        }
+        return Duration.between(now, deadline).minus(task.estimateRemainingDownloadTime());
+    }
+
+    /**
+     * Sort @tasks into the order their downloads should start. Tasks with equal priority keep their queue order.
+     */
+    synchronized void sort(List<ArchiveTask> tasks) {
+        LocalDateTime now = LocalDateTime.now();
+        // Estimating a task's slack isn't free, so do it once per task rather than once per comparison
+        Map<ArchiveTask, Duration> slack = new HashMap<>();
+        tasks.forEach(task -> slack.put(task, getSlack(task, now)));
+        tasks.sort(Comparator.comparingInt((ArchiveTask task) -> getPinnedRank(task.getRecording()))
+                .thenComparing(slack::get));
+    }
+
+    private int getPinnedRank(Recording recording) {
+        int rank = pinned.indexOf(recording);
+        return rank >= 0 ? rank : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Walk through @tasks (already sorted) as our download slots would start them after the downloads of
+     * @running, and return the recordings that won't finish before their expected deletion. Each recording is only
+     * reported once.
+     */
+    synchronized List<Recording> findNewlyMissedDeadlines(List<ArchiveTask> running, List<ArchiveTask> tasks) {
+        LocalDateTime now = LocalDateTime.now();
+        DownloadSimulation downloads = new DownloadSimulation(now);
+        running.forEach(downloads::schedule);
+        List<Recording> missed = new ArrayList<>();
+        for (ArchiveTask task : tasks) {
+            Recording recording = task.getRecording();
+            LocalDateTime finish = downloads.schedule(task);
+            LocalDateTime deadline = recording.getExpectedDeletion();
+            if (deadline != null && finish.isAfter(deadline) && warned.add(recording)) {
+                logger.warn("'{}' will probably be deleted before we can download it (finish at {}, deleted at {})",
+                        recording.getFullTitle(), finish, deadline);
+                missed.add(recording);
+            }
+        }
+        return missed;
+    }
+
+    /**
+     * Returns when we expect every task to finish. Downloads start as our download slots allow, with the @running
+     * tasks first and then @pending in order, and up to @processingLanes downloaded recordings are processed at once.
+     */
+    LocalDateTime estimateCompletion(List<ArchiveTask> running, List<ArchiveTask> pending, int processingLanes) {
+        LocalDateTime now = LocalDateTime.now();
+        DownloadSimulation downloads = new DownloadSimulation(now);
+        PriorityQueue<LocalDateTime> lanes = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(processingLanes, 1); i++) {
+            lanes.add(now);
+        }
+        LocalDateTime completion = now;
+        List<ArchiveTask> tasks = new ArrayList<>(running);
+        tasks.addAll(pending);
+        for (ArchiveTask task : tasks) {
+            LocalDateTime downloaded = downloads.schedule(task);
+            LocalDateTime laneFree = lanes.poll();
+            LocalDateTime start = downloaded.isAfter(laneFree) ? downloaded : laneFree;
+            LocalDateTime finish = start.plus(task.estimateRemainingProcessingTime());
+            lanes.add(finish);
+            if (finish.isAfter(completion)) {
+                completion = finish;
+            }
+        }
+        return completion;
+    }
+
+    /**
+     * Play out when downloads would start and finish under the same per-device and global limits that
+     * DownloadSlots enforces. Each slot is a time it becomes free; a download takes the earliest free slot on its
+     * TiVo, waiting for a global slot too if they're all busy.
+     */
+    private class DownloadSimulation {
+        private final LocalDateTime now;
+        private final Map<Tivo, PriorityQueue<LocalDateTime>> deviceSlots;
+        private final PriorityQueue<LocalDateTime> globalSlots;
+
+        DownloadSimulation(LocalDateTime now) {
+            this.now = now;
+            deviceSlots = new HashMap<>();
+            globalSlots = new PriorityQueue<>();
+            for (int i = 0; i < globalLimit; i++) {
+                globalSlots.add(now);
+            }
+        }
+
+        /**
+         * Start @task's download as soon as the slots allow, and return when it should finish.
+         */
+        LocalDateTime schedule(ArchiveTask task) {
+            PriorityQueue<LocalDateTime> slots = deviceSlots.computeIfAbsent(task.getTivo(), tivo -> {
+                PriorityQueue<LocalDateTime> free = new PriorityQueue<>();
+                for (int i = 0; i < perDeviceLimit; i++) {
+                    free.add(now);
+                }
+                return free;
+            });
+            LocalDateTime deviceFree = slots.poll();
+            LocalDateTime globalFree = globalSlots.poll();
+            LocalDateTime start = deviceFree.isAfter(globalFree) ? deviceFree : globalFree;
+            LocalDateTime finish = start.plus(task.estimateRemainingDownloadTime());
+            slots.add(finish);
+            globalSlots.add(finish);
+            return finish;
+        }
+    }
+}
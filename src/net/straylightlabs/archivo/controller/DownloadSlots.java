@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.controller;
+
+import net.straylightlabs.archivo.model.Tivo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Track the number of downloads running on each TiVo. Each device gets its own limit, and the total number of
+ * concurrent downloads is capped across all devices. Tasks that skip their download (because they're resuming or
+ * restoring it from our cache) take a resume slot instead, so they can't tie up every task thread while they wait
+ * for room in the pipeline.
+ */
+class DownloadSlots {
+    private final Map<Tivo, Integer> activeDownloads;
+    private final int perDeviceLimit;
+    private final int globalLimit;
+    private final int resumeLimit;
+    private int totalActive;
+    private int resumesActive;
+    private Runnable slotReleasedListener;
+
+    private final static Logger logger = LoggerFactory.getLogger(DownloadSlots.class);
+
+    DownloadSlots(int perDeviceLimit, int globalLimit, int resumeLimit) {
+        this.perDeviceLimit = Math.max(perDeviceLimit, 1);
+        this.globalLimit = Math.max(globalLimit, 1);
+        this.resumeLimit = Math.max(resumeLimit, 1);
+        activeDownloads = new HashMap<>();
+    }
+
+    /**
+     * Register a callback to run (on the releasing thread) each time a download slot becomes available.
+     */
+    void setSlotReleasedListener(Runnable listener) {
+        slotReleasedListener = listener;
+    }
+
+    /**
+     * Claim a download slot for @tivo if both the device and global limits allow it.
+     *
+     * @return true if the slot was claimed
+     */
+    synchronized boolean tryAcquire(Tivo tivo) {
+        int active = activeDownloads.getOrDefault(tivo, 0);
+        if (active >= perDeviceLimit || totalActive >= globalLimit) {
+            return false;
+        }
+        activeDownloads.put(tivo, active + 1);
+        totalActive++;
+        logger.debug("Acquired download slot for {} ({} active on device, {} total)", tivo, active + 1, totalActive);
+        return true;
+    }
+
+    /**
+     * Returns true if both the device and global limits would allow another download from @tivo, without claiming
+     * a slot.
+     */
+    synchronized boolean hasFreeSlot(Tivo tivo) {
+        return activeDownloads.getOrDefault(tivo, 0) < perDeviceLimit && totalActive < globalLimit;
+    }
+
+    /**
+     * Block until both the device and global limits allow another download from @tivo, then claim a slot.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    synchronized void acquire(Tivo tivo) throws InterruptedException {
+        while (!tryAcquire(tivo)) {
+            wait();
+        }
+    }
+
+    synchronized boolean hasFreeResumeSlot() {
+        return resumesActive < resumeLimit;
+    }
+
+    /**
+     * Claim a resume slot for a task that doesn't need to download anything.
+     *
+     * @return true if the slot was claimed
+     */
+    synchronized boolean tryAcquireResume() {
+        if (resumesActive >= resumeLimit) {
+            return false;
+        }
+        resumesActive++;
+        return true;
+    }
+
+    void releaseResume() {
+        synchronized (this) {
+            if (resumesActive <= 0) {
+                logger.error("Released a resume slot that was never acquired");
+                return;
+            }
+            resumesActive--;
+        }
+        if (slotReleasedListener != null) {
+            slotReleasedListener.run();
+        }
+    }
+
+    void release(Tivo tivo) {
+        synchronized (this) {
+            int active = activeDownloads.getOrDefault(tivo, 0);
+            if (active <= 0) {
+                logger.error("Released a download slot for {} that was never acquired", tivo);
+                return;
+            } else if (active == 1) {
+                activeDownloads.remove(tivo);
+            } else {
+                activeDownloads.put(tivo, active - 1);
+            }
+            totalActive--;
+            logger.debug("Released download slot for {} ({} total active)", tivo, totalActive);
+            notifyAll();
+        }
+        if (slotReleasedListener != null) {
+            slotReleasedListener.run();
+        }
+    }
+}
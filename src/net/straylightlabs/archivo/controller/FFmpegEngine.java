@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.controller;
+
+import net.straylightlabs.archivo.model.AudioChannel;
+import net.straylightlabs.archivo.model.FFmpegProfile;
+import net.straylightlabs.archivo.model.FileType;
+import net.straylightlabs.archivo.model.Recording;
+import net.straylightlabs.archivo.model.UserPrefs;
+import net.straylightlabs.archivo.model.VideoResolution;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Transcode recordings with FFmpeg, using the profiles defined by each FileType. Unlike HandBrake, FFmpeg can read
+ * the segments to keep straight from a concat list, so it can remove commercials and encode in a single pass.
+ */
+class FFmpegEngine implements TranscoderEngine {
+    private final String ffmpegPath;
+    private final FFmpegProfile profile;
+    private final VideoResolution videoLimit;
+    private final boolean stereoOnly;
+
+    FFmpegEngine(UserPrefs prefs, FileType fileType) {
+        this.ffmpegPath = prefs.getFFmpegPath();
+        this.profile = fileType.getFFmpegProfile();
+        this.videoLimit = prefs.getVideoResolution();
+        this.stereoOnly = prefs.getAudioChannels() == AudioChannel.STEREO;
+        if (profile == null) {
+            throw new IllegalArgumentException(String.format("No FFmpeg profile for %s", fileType));
+        }
+    }
+
+    @Override
+    public boolean canReadConcatList() {
+        return true;
+    }
+
+    @Override
+    public boolean usesHardwareEncoder() {
+        return false;
+    }
+
+    @Override
+    public List<String> buildCommand(Path source, boolean isConcatList, Path destination, int threads) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ffmpegPath);
+        if (isConcatList) {
+            cmd.add("-f");
+            cmd.add("concat");
+            cmd.add("-fflags");
+            cmd.add("+genpts+discardcorrupt");
+            cmd.add("-safe");
+            cmd.add("0");
+        }
+        cmd.add("-i");
+        cmd.add(source.toString());
+        cmd.add("-map");
+        cmd.add("0:v:0");
+        cmd.add("-map");
+        cmd.add("0:a:0");
+
+        cmd.addAll(profile.getVideoArgs());
+        if (profile.isHevc()) {
+            cmd.add("-x265-params");
+            cmd.add(String.format("pools=%d", threads));
+        } else {
+            cmd.add("-threads");
+            cmd.add(String.valueOf(threads));
+        }
+        // Like HandBrake's decomb and size limits: only deinterlace frames that need it, and never upscale
+        cmd.add("-vf");
+        cmd.add(String.format("yadif=deint=interlaced,scale=w='min(%d,iw)':h='min(%d,ih)':" +
+                        "force_original_aspect_ratio=decrease:force_divisible_by=2",
+                videoLimit.getWidth(), videoLimit.getHeight()));
+        if (profile.getMaxFrameRate() > 0) {
+            cmd.add("-fpsmax");
+            cmd.add(String.valueOf(profile.getMaxFrameRate()));
+        }
+
+        cmd.add("-c:a:0");
+        cmd.add("aac");
+        cmd.add("-b:a:0");
+        cmd.add(profile.getAudioBitrate() + "k");
+        cmd.add("-ac:a:0");
+        cmd.add("2");
+        if (profile.hasSurroundPassthrough() && !stereoOnly) {
+            cmd.add("-map");
+            cmd.add("0:a:0");
+            cmd.add("-c:a:1");
+            cmd.add("copy");
+        }
+        cmd.add("-f");
+        cmd.add("mp4");
+        cmd.add(destination.toString());
+        return cmd;
+    }
+
+    @Override
+    public ProcessOutputReader createOutputReader(Recording recording, DoubleConsumer progress) {
+        return new FFmpegOutputReader(recording, progress);
+    }
+
+    @Override
+    public String toString() {
+        return "FFmpeg";
+    }
+}
@@ -19,56 +19,62 @@
 
 package net.straylightlabs.archivo.controller;
 
-import javafx.application.Platform;
 import net.straylightlabs.archivo.model.ArchiveStatus;
 import net.straylightlabs.archivo.model.Recording;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.DoubleConsumer;
 
 public class FFmpegOutputReader extends ProcessOutputReader {
-    private int duration;
+    private double duration;
     private final ArchiveStatus.TaskStatus task;
+    private final DoubleConsumer progressListener;
 
-    private static final Pattern DURATION = Pattern.compile("Duration: ([\\d]+):([\\d]+):([\\d+])");
-    private static final Pattern CURRENT_TIME = Pattern.compile("time=([\\d]+):([\\d]+):([\\d+])");
+    private static final byte[] DURATION = "Duration: ".getBytes();
+    private static final byte[] CURRENT_TIME = "time=".getBytes();
 
     public FFmpegOutputReader(Recording recording, ArchiveStatus.TaskStatus task) {
+        this(recording, task, null);
+    }
+
+    /**
+     * Report progress to @progressListener instead of updating @recording's status.
+     */
+    public FFmpegOutputReader(Recording recording, DoubleConsumer progressListener) {
+        this(recording, ArchiveStatus.TaskStatus.TRANSCODING, progressListener);
+    }
+
+    private FFmpegOutputReader(Recording recording, ArchiveStatus.TaskStatus task, DoubleConsumer progressListener) {
         super(recording);
         this.task = task;
+        this.progressListener = progressListener;
     }
 
     @Override
-    public void processLine(String line) {
-        addLineToOutput(line);
-        if (task == ArchiveStatus.TaskStatus.REMUXING) {
-            if (duration == 0) {
-                Matcher matcher = DURATION.matcher(line);
-                if (matcher.find()) {
-                    int hours = Integer.parseInt(matcher.group(1)) * 60 * 60;
-                    int minutes = Integer.parseInt(matcher.group(2)) * 60;
-                    duration = Integer.parseInt(matcher.group(3)) + hours + minutes;
+    public void processLine(byte[] line, int length) {
+        if (progressListener != null || task == ArchiveStatus.TaskStatus.REMUXING ||
+                task == ArchiveStatus.TaskStatus.REMOVING_COMMERCIALS) {
+            if (duration <= 0) {
+                int start = indexOf(line, length, DURATION, 0);
+                if (start >= 0) {
+                    duration = parseTimestamp(line, length, start + DURATION.length);
                 }
             } else {
-                Matcher matcher = CURRENT_TIME.matcher(line);
-                if (matcher.find()) {
-                    int hours = Integer.parseInt(matcher.group(1)) * 60 * 60;
-                    int minutes = Integer.parseInt(matcher.group(2)) * 60;
-                    int currentSeconds = Integer.parseInt(matcher.group(3)) + hours + minutes;
-                    double percentComplete = currentSeconds / (double) duration;
-
-//                    switch (task) {
-//                        case REMUXING:
-                    Platform.runLater(() -> recording.setStatus(
-                            ArchiveStatus.createRemuxingStatus(percentComplete, getSecondsRemaining(percentComplete)))
-                    );
-//                            break;
-//                    case REMOVING_COMMERCIALS:
-//                        Archivo.logger.info("Removing commercials progress: {} time remaining: {}", percentComplete, getSecondsRemaining(percentComplete));
-//                        Platform.runLater(() -> recording.statusProperty().setValue(
-//                                        ArchiveStatus.createRemovingCommercialsStatus(percentComplete, getSecondsRemaining(percentComplete)))
-//                        );
-//                        break;
+                int start = indexOf(line, length, CURRENT_TIME, 0);
+                double currentSeconds = start >= 0 ? parseTimestamp(line, length, start + CURRENT_TIME.length) : -1;
+                if (currentSeconds >= 0) {
+                    double percentComplete = currentSeconds / duration;
+                    if (progressListener != null) {
+                        progressListener.accept(percentComplete);
+                        return;
+                    }
+                    int secondsRemaining = getSecondsRemaining(percentComplete);
+                    if (task == ArchiveStatus.TaskStatus.REMUXING) {
+                        ArchiveStatusHub.publish(recording,
+                                ArchiveStatus.createRemuxingStatus(percentComplete, secondsRemaining));
+                    } else {
+                        ArchiveStatusHub.publish(recording,
+                                ArchiveStatus.createRemovingCommercialsStatus(percentComplete, secondsRemaining));
+                    }
                 }
             }
         }
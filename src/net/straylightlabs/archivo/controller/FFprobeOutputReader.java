@@ -46,9 +46,9 @@ public class FFprobeOutputReader extends ProcessOutputReader {
     }
 
     @Override
-    public void processLine(String line) {
-        addLineToOutput(line);
-        lines.add(line);
+    public void processLine(byte[] line, int length) {
+        // FFprobe's output is short and we need all of it
+        lines.add(new String(line, 0, length));
     }
 
     @SuppressWarnings("unused")
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Deliver finished files to their destinations on a background thread, so a slow or distant destination doesn't
+ * hold up the next recording's processing. Files are moved one at a time, in the order they were handed over.
+ * A file on the same disk as its destination is simply renamed; otherwise it's copied in large blocks (optionally
+ * limited to a maximum bandwidth) to a temporary file beside the destination, flushed to disk, checked against the
+ * original, and then renamed into place.
+ */
+class FileMover {
+    private final ExecutorService executor;
+    private final long bytesPerSecond;
+
+    private final static int BLOCK_SIZE = 8 * 1024 * 1024;
+    private final static int VERIFY_SAMPLE_SIZE = 64 * 1024;
+    private final static String PARTIAL_SUFFIX = ".partial";
+
+    private final static Logger logger = LoggerFactory.getLogger(FileMover.class);
+
+    /**
+     * @param bandwidthMBps the most data to copy each second, in MB; 0 doesn't limit it
+     */
+    FileMover(int bandwidthMBps) {
+        bytesPerSecond = Math.max(bandwidthMBps, 0) * 1024L * 1024L;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "file-mover");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queue @source to be moved to @destination, or copied there if @keepSource is true. @progress hears the
+     * fraction copied so far, and the move is abandoned (leaving @destination untouched) once @shouldStop returns
+     * true.
+     *
+     * @return a Future that completes once the file is in place, or fails with the IOException that stopped it
+     */
+    Future<Void> move(Path source, Path destination, boolean keepSource, DoubleConsumer progress,
+                      BooleanSupplier shouldStop) {
+        return executor.submit(() -> {
+            deliver(source, destination, keepSource, progress, shouldStop);
+            return null;
+        });
+    }
+
+    private void deliver(Path source, Path destination, boolean keepSource, DoubleConsumer progress,
+                         BooleanSupplier shouldStop) throws IOException, InterruptedException {
+        if (source.equals(destination) || shouldStop.getAsBoolean()) {
+            return;
+        }
+        Files.createDirectories(destination.getParent());
+        if (!keepSource && Files.getFileStore(source).equals(Files.getFileStore(destination.getParent()))) {
+            logger.info("Renaming {} to {}", source, destination);
+            moveIntoPlace(source, destination);
+            return;
+        }
+
+        Path partial = destination.resolveSibling(destination.getFileName().toString() + PARTIAL_SUFFIX);
+        try {
+            logger.info("Copying {} to {}", source, destination);
+            if (!copy(source, partial, progress, shouldStop)) {
+                logger.info("Stopped copying {}", source);
+                return;
+            }
+            verify(source, partial);
+            moveIntoPlace(partial, destination);
+            syncDirectory(destination.getParent());
+            if (!keepSource) {
+                Files.delete(source);
+            }
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    /**
+     * Copy @source to @target in large blocks, keeping under our bandwidth limit, then flush @target to disk.
+     *
+     * @return true if the whole file was copied, false if @shouldStop asked us to give up
+     */
+    private boolean copy(Path source, Path target, DoubleConsumer progress, BooleanSupplier shouldStop)
+            throws IOException, InterruptedException {
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = input.size();
+            long startTime = System.nanoTime();
+            for (long position = 0; position < size; ) {
+                if (shouldStop.getAsBoolean()) {
+                    return false;
+                }
+                long copied = input.transferTo(position, Math.min(BLOCK_SIZE, size - position), output);
+                if (copied <= 0) {
+                    throw new IOException(String.format("%s ended after %d of %d bytes", source, position, size));
+                }
+                position += copied;
+                progress.accept(position / (double) size);
+                throttle(position, startTime);
+            }
+            output.force(true);
+        }
+        return true;
+    }
+
+    /**
+     * Sleep long enough that copying @bytes since @startTime stays within our bandwidth limit.
+     */
+    private void throttle(long bytes, long startTime) throws InterruptedException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long earliestNanos = bytes * 1_000_000_000L / bytesPerSecond;
+        long aheadMillis = (earliestNanos - (System.nanoTime() - startTime)) / 1_000_000;
+        if (aheadMillis > 0) {
+            Thread.sleep(aheadMillis);
+        }
+    }
+
+    /**
+     * Make sure @copy matches @original. Comparing every byte would read both files again, so we compare their
+     * sizes and a sample from the start, middle, and end.
+     */
+    private static void verify(Path original, Path copy) throws IOException {
+        try (FileChannel expected = FileChannel.open(original, StandardOpenOption.READ);
+             FileChannel actual = FileChannel.open(copy, StandardOpenOption.READ)) {
+            long size = expected.size();
+            if (actual.size() != size) {
+                throw new IOException(String.format("Copy of %s has %d bytes, expected %d", original, actual.size(), size));
+            }
+            long last = Math.max(size - VERIFY_SAMPLE_SIZE, 0);
+            for (long position : new long[]{0, last / 2, last}) {
+                if (!readSample(expected, position).equals(readSample(actual, position))) {
+                    throw new IOException(String.format("Copy of %s differs near byte %d", original, position));
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer readSample(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(VERIFY_SAMPLE_SIZE);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+            // Keep reading until the sample is full or the file ends
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void moveIntoPlace(Path source, Path destination) throws IOException {
+        try {
+            Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Flush @directory's entries to disk, so the rename survives a crash. Not every platform can open a folder
+     * this way, so failures are only logged.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("Could not sync {}: {}", directory, e.getLocalizedMessage());
+        }
+    }
+}
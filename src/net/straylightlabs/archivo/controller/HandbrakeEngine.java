@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.controller;
+
+import net.straylightlabs.archivo.model.AudioChannel;
+import net.straylightlabs.archivo.model.FileType;
+import net.straylightlabs.archivo.model.Recording;
+import net.straylightlabs.archivo.model.UserPrefs;
+import net.straylightlabs.archivo.model.VideoResolution;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Transcode recordings with HandBrake, using the presets defined by each FileType.
+ */
+class HandbrakeEngine implements TranscoderEngine {
+    private final String handbrakePath;
+    private final Map<String, String> args;
+    private final boolean useQuickSync;
+
+    HandbrakeEngine(UserPrefs prefs, FileType fileType, boolean useQuickSync) {
+        this.handbrakePath = prefs.getHandbrakePath();
+        this.args = buildArgs(prefs, fileType);
+        this.useQuickSync = useQuickSync;
+        if (useQuickSync) {
+            enableQSVEncoder(args);
+        }
+    }
+
+    /**
+     * Returns the HandBrake arguments for @fileType, adjusted for the user's audio and resolution preferences.
+     */
+    static Map<String, String> buildArgs(UserPrefs prefs, FileType fileType) {
+        Map<String, String> args = new HashMap<>(fileType.getHandbrakeArgs());
+        if (prefs.getAudioChannels() == AudioChannel.STEREO) {
+            // Overwrite the existing list of audio encoders with just one
+            args.put("-E", FileType.getPlatformAudioEncoder());
+            args.put("-a", "1");
+            args.put("-6", "dpl2");
+        }
+        VideoResolution videoLimit = prefs.getVideoResolution();
+        args.put("-Y", String.valueOf(videoLimit.getHeight()));
+        args.put("-X", String.valueOf(videoLimit.getWidth()));
+        return args;
+    }
+
+    @Override
+    public boolean canReadConcatList() {
+        return false;
+    }
+
+    @Override
+    public boolean usesHardwareEncoder() {
+        return useQuickSync;
+    }
+
+    @Override
+    public List<String> buildCommand(Path source, boolean isConcatList, Path destination, int threads) {
+        if (isConcatList) {
+            throw new IllegalArgumentException("HandBrake can't read concat lists");
+        }
+        Map<String, String> commandArgs = new HashMap<>(args);
+        if (!useQuickSync) {
+            limitEncoderThreads(commandArgs, threads);
+        }
+        List<String> cmd = new ArrayList<>();
+        cmd.add(handbrakePath);
+        cmd.add("-i");
+        cmd.add(source.toString());
+        cmd.add("-o");
+        cmd.add(destination.toString());
+        for (Map.Entry<String, String> entry : commandArgs.entrySet()) {
+            cmd.add(entry.getKey());
+            if (entry.getValue() != null) {
+                cmd.add(entry.getValue());
+            }
+        }
+        return cmd;
+    }
+
+    @Override
+    public ProcessOutputReader createOutputReader(Recording recording, DoubleConsumer progress) {
+        return new HandbrakeOutputReader(recording, progress);
+    }
+
+    @Override
+    public String toString() {
+        return "HandBrake";
+    }
+
+    /**
+     * Replace the default Handbrake encoder arguments with Intel Quick Sync Video encoder arguments.
+     */
+    private static void enableQSVEncoder(Map<String, String> args) {
+        args.put("-e", "qsv_h264");
+        args.put("--encoder-preset", "balanced");
+        args.put("--encoder-level", args.getOrDefault("--h264-level", "4.0"));
+        args.put("--encoder-profile", args.getOrDefault("--h264-profile", "main"));
+        args.remove("--x264-preset");
+        args.remove("--h264-level");
+        args.remove("--h264-profile");
+    }
+
+    /**
+     * Keep the software encoder within the number of threads the processing scheduler granted us.
+     */
+    private static void limitEncoderThreads(Map<String, String> args, int threads) {
+        String encoder = args.get("-e");
+        if ("x264".equals(encoder)) {
+            args.put("-x", String.format("threads=%d", threads));
+        } else if ("x265".equals(encoder)) {
+            args.put("-x", String.format("pools=%d", threads));
+        }
+    }
+}
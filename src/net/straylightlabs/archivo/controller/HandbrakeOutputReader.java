@@ -19,29 +19,49 @@
 
 package net.straylightlabs.archivo.controller;
 
-import javafx.application.Platform;
 import net.straylightlabs.archivo.model.ArchiveStatus;
 import net.straylightlabs.archivo.model.Recording;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.DoubleConsumer;
 
 public class HandbrakeOutputReader extends ProcessOutputReader {
-    private static final Pattern PERCENT = Pattern.compile("([\\d\\.]+) %");
+    private final DoubleConsumer progressListener;
+
+    private static final byte[] PERCENT = " %".getBytes();
 
     public HandbrakeOutputReader(Recording recording) {
+        this(recording, null);
+    }
+
+    /**
+     * Report progress to @progressListener instead of updating @recording's status, e.g. when this process is
+     * encoding just one part of the recording.
+     */
+    public HandbrakeOutputReader(Recording recording, DoubleConsumer progressListener) {
         super(recording);
+        this.progressListener = progressListener;
     }
 
     @Override
-    public void processLine(String line) {
-        addLineToOutput(line);
-        Matcher matcher = PERCENT.matcher(line);
-        if (matcher.find()) {
-            double percentComplete = Double.parseDouble(matcher.group(1)) * .01;
-            Platform.runLater(() -> recording.setStatus(
-                    ArchiveStatus.createTranscodingStatus(percentComplete, getSecondsRemaining(percentComplete)))
-            );
+    public void processLine(byte[] line, int length) {
+        int percent = indexOf(line, length, PERCENT, 0);
+        double value = percent > 0 ? parseNumberBefore(line, percent) : -1;
+        if (value >= 0) {
+            double percentComplete = value * .01;
+            if (progressListener != null) {
+                progressListener.accept(percentComplete);
+            } else {
+                reportProgress(percentComplete);
+            }
         }
     }
+
+    /**
+     * Show @percentComplete, along with an estimate of the time remaining, as @recording's status.
+     */
+    synchronized void reportProgress(double percentComplete) {
+        int secondsRemaining = getSecondsRemaining(percentComplete);
+        ArchiveStatusHub.publish(recording,
+                ArchiveStatus.createTranscodingStatus(percentComplete, secondsRemaining));
+    }
 }
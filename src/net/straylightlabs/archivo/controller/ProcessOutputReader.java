@@ -24,10 +24,8 @@ import net.straylightlabs.archivo.model.Recording;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayDeque;
@@ -35,6 +33,12 @@ import java.util.Deque;
 import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * Read the output of an external tool and pass each line to processLine(). Tools like HandBrake and FFmpeg print
+ * thousands of progress lines, separated by carriage returns, over hours of work, so we scan the raw bytes into one
+ * reusable line buffer and only keep the first and last few KB of output for diagnostics. The static helpers parse
+ * numbers straight from a line's bytes, so following progress doesn't allocate anything per line.
+ */
 abstract class ProcessOutputReader implements Runnable {
     final Recording recording;
     private final Set<Integer> exitCodes;
@@ -42,10 +46,20 @@ abstract class ProcessOutputReader implements Runnable {
     private final Deque<Integer> recentEndTimeEstimates;
     private double priorProgress;
     private InputStream inputStream;
-    private final StringBuilder output;
+    private volatile long lastOutputTime;
+    private volatile Duration expectedDuration; // how long our history says this job should take, or null
+    private final byte[] head;
+    private int headLength;
+    private final byte[] tail; // ring buffer of the most recent output
+    private long tailWritten; // total bytes ever written to the tail
+    private long totalBytes;
 
     private final static int MIN_END_TIME_ESTIMATES = 5;
     private final static int MAX_END_TIME_ESTIMATES = 10;
+    private final static int READ_BUFFER_SIZE = 8 * 1024;
+    private final static int MAX_LINE_LENGTH = 4 * 1024; // longer lines are truncated
+    private final static int HEAD_SIZE = 16 * 1024;
+    private final static int TAIL_SIZE = 16 * 1024;
 
     private final static Logger logger = LoggerFactory.getLogger(ProcessOutputReader.class);
 
@@ -56,11 +70,28 @@ abstract class ProcessOutputReader implements Runnable {
         startTime = LocalDateTime.now();
         recentEndTimeEstimates = new ArrayDeque<>();
         priorProgress = -1;
-        output = new StringBuilder();
+        head = new byte[HEAD_SIZE];
+        tail = new byte[TAIL_SIZE];
     }
 
     public void setInputStream(InputStream inputStream) {
         this.inputStream = inputStream;
+        lastOutputTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns when the process last printed a line, in milliseconds since the epoch.
+     */
+    long getLastOutputTime() {
+        return lastOutputTime;
+    }
+
+    /**
+     * Base our time estimates on @expected, how long similar jobs have taken before, until this job's own progress
+     * is a better guide.
+     */
+    void setExpectedDuration(Duration expected) {
+        expectedDuration = expected;
     }
 
     public void addExitCode(int code) {
@@ -71,34 +102,187 @@ abstract class ProcessOutputReader implements Runnable {
         return exitCodes.contains(code);
     }
 
-    public String getOutput() {
+    /**
+     * Returns the start and end of the process's output, with a note of how much we left out in between.
+     */
+    public synchronized String getOutput() {
+        StringBuilder output = new StringBuilder(new String(head, 0, headLength));
+        long tailLength = Math.min(totalBytes - headLength, Math.min(tailWritten, TAIL_SIZE));
+        long omitted = totalBytes - headLength - tailLength;
+        if (omitted > 0) {
+            output.append(String.format("[... %d bytes omitted ...]", omitted)).append(System.lineSeparator());
+        }
+        if (tailLength > 0) {
+            int start = (int) ((tailWritten - tailLength) % TAIL_SIZE);
+            int firstPart = (int) Math.min(tailLength, TAIL_SIZE - start);
+            String tailText = new String(tail, start, firstPart) + new String(tail, 0, (int) tailLength - firstPart);
+            if (omitted > 0) {
+                // The oldest line in the tail has probably lost its beginning
+                tailText = tailText.substring(tailText.indexOf('\n') + 1);
+            }
+            output.append(tailText);
+        }
         return output.toString();
     }
 
-    void addLineToOutput(String line) {
-        output.append(line);
-        output.append(System.lineSeparator());
+    /**
+     * Keep @line for getOutput(), in the head if there's still room and otherwise in the tail.
+     */
+    private synchronized void recordLine(byte[] line, int length) {
+        byte[] separator = System.lineSeparator().getBytes();
+        if (tailWritten == 0 && headLength + length + separator.length <= HEAD_SIZE) {
+            System.arraycopy(line, 0, head, headLength, length);
+            System.arraycopy(separator, 0, head, headLength + length, separator.length);
+            headLength += length + separator.length;
+        } else {
+            appendToTail(line, length);
+            appendToTail(separator, separator.length);
+        }
+        totalBytes += length + separator.length;
+    }
+
+    private void appendToTail(byte[] bytes, int length) {
+        for (int offset = Math.max(0, length - TAIL_SIZE); offset < length; ) {
+            int position = (int) (tailWritten % TAIL_SIZE);
+            int count = Math.min(length - offset, TAIL_SIZE - position);
+            System.arraycopy(bytes, offset, tail, position, count);
+            offset += count;
+            tailWritten += count;
+        }
     }
 
     @Override
     public void run() {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        byte[] line = new byte[MAX_LINE_LENGTH];
+        int lineLength = 0;
+        try (InputStream input = inputStream) {
+            for (int bytesRead = input.read(buffer); bytesRead >= 0; bytesRead = input.read(buffer)) {
                 if (Thread.interrupted()) {
                     logger.info("ProcessOutputReader interrupted");
                     return;
                 }
-                processLine(line);
+                lastOutputTime = System.currentTimeMillis();
+                for (int i = 0; i < bytesRead; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n' || b == '\r') {
+                        if (lineLength > 0) {
+                            recordLine(line, lineLength);
+                            processLine(line, lineLength);
+                            lineLength = 0;
+                        }
+                    } else if (lineLength < MAX_LINE_LENGTH) {
+                        line[lineLength++] = b;
+                    }
+                }
+            }
+            if (lineLength > 0) {
+                recordLine(line, lineLength);
+                processLine(line, lineLength);
             }
         } catch (IOException e) {
             logger.error("IOException in ProcessOutputReader: ", e);
         }
     }
 
-    protected abstract void processLine(String line);
+    /**
+     * Handle one line of output. @line is reused for the next line, so copy anything that needs to outlive this call.
+     */
+    protected abstract void processLine(byte[] line, int length);
+
+    /**
+     * Returns the position of the first @needle in the first @length bytes of @line at or after @from, or -1.
+     */
+    static int indexOf(byte[] line, int length, byte[] needle, int from) {
+        for (int i = Math.max(from, 0); i <= length - needle.length; i++) {
+            int j = 0;
+            while (j < needle.length && line[i + j] == needle[j]) {
+                j++;
+            }
+            if (j == needle.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse the decimal number (e.g. "42.5") that ends just before @end in @line.
+     *
+     * @return the number, or -1 if no number ends there
+     */
+    static double parseNumberBefore(byte[] line, int end) {
+        int start = end;
+        while (start > 0 && (isDigit(line[start - 1]) || line[start - 1] == '.')) {
+            start--;
+        }
+        return parseNumber(line, start, end);
+    }
+
+    /**
+     * Parse the decimal number (e.g. "42.5") in @line from @start up to @end.
+     *
+     * @return the number, or -1 if the range doesn't hold one
+     */
+    static double parseNumber(byte[] line, int start, int end) {
+        long whole = 0;
+        long fraction = 0;
+        long divisor = 1;
+        boolean sawDigit = false;
+        boolean sawPoint = false;
+        for (int i = start; i < end; i++) {
+            byte b = line[i];
+            if (isDigit(b)) {
+                sawDigit = true;
+                if (sawPoint) {
+                    if (divisor < 1_000_000_000L) {
+                        fraction = fraction * 10 + (b - '0');
+                        divisor *= 10;
+                    }
+                } else {
+                    whole = whole * 10 + (b - '0');
+                }
+            } else if (b == '.' && !sawPoint) {
+                sawPoint = true;
+            } else {
+                return -1;
+            }
+        }
+        return sawDigit ? whole + fraction / (double) divisor : -1;
+    }
+
+    /**
+     * Parse an "HH:MM:SS.ss" timestamp starting at @start in @line.
+     *
+     * @return the timestamp in seconds, or -1 if there isn't one there
+     */
+    static double parseTimestamp(byte[] line, int length, int start) {
+        double seconds = 0;
+        int fieldStart = start;
+        for (int field = 0; field < 3; field++) {
+            int fieldEnd = fieldStart;
+            while (fieldEnd < length && (isDigit(line[fieldEnd]) || (field == 2 && line[fieldEnd] == '.'))) {
+                fieldEnd++;
+            }
+            double value = parseNumber(line, fieldStart, fieldEnd);
+            if (value < 0 || (field < 2 && (fieldEnd >= length || line[fieldEnd] != ':'))) {
+                return -1;
+            }
+            seconds = seconds * 60 + value;
+            fieldStart = fieldEnd + 1;
+        }
+        return seconds;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
 
     int getSecondsRemaining(double progress) {
-        if (progressRegressed(progress)) {
+        if (expectedDuration != null) {
+            return ThroughputModel.estimateSecondsRemaining(expectedDuration,
+                    Duration.between(startTime, LocalDateTime.now()), progress);
+        } else if (progressRegressed(progress)) {
             clearEstimates();
         }
         int secondsRemaining = calcSecondsRemainingFromProgress(progress);
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.controller;
+
+import net.straylightlabs.archivo.model.ResourcePolicy;
+import net.straylightlabs.archivo.utilities.OSHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Run the external tools Archivo depends on, with the priorities and limits their ResourcePolicy calls for.
+ * Callers block until their process exits, while one shared watchdog
+ * thread stops processes that were canceled, ran too long, or stopped printing output; stopping a process also
+ * kills any children it started. Process output is drained on a shared pool of threads. On Linux we also sample
+ * each process's CPU time and peak memory use.
+ */
+class ProcessSupervisor {
+    private final Duration stallTimeout;
+    private final Duration timeLimit;
+    private final ExecutorService outputDrainers;
+    private final ScheduledExecutorService watchdog;
+    private final Set<Supervised> running;
+    private final ResourceGovernor governor;
+
+    private final static int WATCHDOG_INTERVAL = 1; // seconds
+    private final static int DRAIN_TIMEOUT = 10; // seconds to wait for output after a process exits
+    private final static int CLOCK_TICKS_PER_SECOND = 100; // USER_HZ, which is 100 on every Linux we support
+    private final static Path PROC = Paths.get("/proc");
+
+    private final static Logger logger = LoggerFactory.getLogger(ProcessSupervisor.class);
+
+    /**
+     * @param stallTimeout How long a process may go without printing anything; zero disables this check
+     * @param timeLimit    How long a process may run; zero disables this check
+     */
+    ProcessSupervisor(Duration stallTimeout, Duration timeLimit) {
+        this.stallTimeout = stallTimeout;
+        this.timeLimit = timeLimit;
+        running = ConcurrentHashMap.newKeySet();
+        governor = new ResourceGovernor();
+        AtomicInteger drainerCount = new AtomicInteger();
+        outputDrainers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, String.format("process-output-%d", drainerCount.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "process-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog.scheduleWithFixedDelay(this::checkProcesses, WATCHDOG_INTERVAL, WATCHDOG_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Run @command under @policy with our default time limits, feeding its output to @outputReader, until it exits
+     * or @shouldStop returns true.
+     */
+    Result run(List<String> command, ProcessOutputReader outputReader, BooleanSupplier shouldStop,
+               ResourcePolicy policy) throws IOException, InterruptedException {
+        return run(command, outputReader, shouldStop, policy, stallTimeout, timeLimit);
+    }
+
+    /**
+     * Run @command until it exits or we stop it. If the calling thread is interrupted, the process is stopped as
+     * soon as @shouldStop agrees; until then it keeps running.
+     */
+    Result run(List<String> command, ProcessOutputReader outputReader, BooleanSupplier shouldStop,
+               ResourcePolicy policy, Duration stallTimeout, Duration timeLimit) throws IOException, InterruptedException {
+        List<String> governed = governor.apply(command, policy);
+        logger.info("Running command: {}", governed.stream().collect(Collectors.joining(" ")));
+        Process process = new ProcessBuilder().command(governed).redirectErrorStream(true).start();
+        outputReader.setInputStream(process.getInputStream());
+        Future<?> drainer = outputDrainers.submit(outputReader);
+        Supervised supervised = new Supervised(process, outputReader, shouldStop, stallTimeout, timeLimit);
+        running.add(supervised);
+        try {
+            while (true) {
+                try {
+                    process.waitFor();
+                    break;
+                } catch (InterruptedException e) {
+                    // An interruption likely means @shouldStop will now return true, so check it right away
+                    supervised.check();
+                }
+            }
+        } finally {
+            running.remove(supervised);
+        }
+        try {
+            drainer.get(DRAIN_TIMEOUT, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("Output from {} was not fully read: {}", command.get(0), e.toString());
+            drainer.cancel(true);
+        }
+        Result result = supervised.finish(process.exitValue());
+        logger.info("{} exited with code {} ({})", Paths.get(command.get(0)).getFileName(), result.exitCode,
+                result.stopReason != StopReason.NONE ? result.stopReason : result.usage);
+        return result;
+    }
+
+    private void checkProcesses() {
+        for (Supervised supervised : running) {
+            try {
+                supervised.check();
+            } catch (RuntimeException e) {
+                // Keep the watchdog alive, whatever went wrong with this process
+                logger.error("Error checking process: ", e);
+            }
+        }
+    }
+
+    /**
+     * Why we stopped a process.
+     */
+    enum StopReason {
+        NONE,
+        CANCELED,
+        STALLED,
+        TIMED_OUT
+    }
+
+    /**
+     * How a process ended.
+     */
+    static class Result {
+        private final int exitCode;
+        private final StopReason stopReason;
+        private final Usage usage;
+
+        private Result(int exitCode, StopReason stopReason, Usage usage) {
+            this.exitCode = exitCode;
+            this.stopReason = stopReason;
+            this.usage = usage;
+        }
+
+        int getExitCode() {
+            return exitCode;
+        }
+
+        StopReason getStopReason() {
+            return stopReason;
+        }
+
+        /**
+         * Returns true if we stopped the process before it finished on its own.
+         */
+        boolean wasStopped() {
+            return stopReason != StopReason.NONE;
+        }
+
+        Usage getUsage() {
+            return usage;
+        }
+    }
+
+    /**
+     * The resources one or more processes used. CPU time and memory are only measured on Linux.
+     */
+    static class Usage {
+        static final Usage NONE = new Usage(0, 0, 0, 0);
+
+        private final int processes;
+        private final long wallMillis;
+        private final long cpuMillis;
+        private final long peakRssKB;
+
+        private Usage(int processes, long wallMillis, long cpuMillis, long peakRssKB) {
+            this.processes = processes;
+            this.wallMillis = wallMillis;
+            this.cpuMillis = cpuMillis;
+            this.peakRssKB = peakRssKB;
+        }
+
+        /**
+         * Combine this with @other: times add up, while peak memory is the larger of the two.
+         */
+        Usage plus(Usage other) {
+            return new Usage(processes + other.processes, wallMillis + other.wallMillis, cpuMillis + other.cpuMillis,
+                    Math.max(peakRssKB, other.peakRssKB));
+        }
+
+        long getWallMillis() {
+            return wallMillis;
+        }
+
+        long getCpuMillis() {
+            return cpuMillis;
+        }
+
+        long getPeakRssKB() {
+            return peakRssKB;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d process%s, %.1fs elapsed, %.1fs CPU, peak RSS %d MB", processes,
+                    processes == 1 ? "" : "es", wallMillis / 1000.0, cpuMillis / 1000.0, peakRssKB / 1024);
+        }
+    }
+
+    /**
+     * A running process and the limits we're enforcing on it.
+     */
+    private static class Supervised {
+        private final Process process;
+        private final long pid;
+        private final ProcessOutputReader outputReader;
+        private final BooleanSupplier shouldStop;
+        private final long stallMillis;
+        private final long limitMillis;
+        private final long startTime;
+        private volatile StopReason stopReason;
+        private volatile long cpuMillis;
+        private volatile long peakRssKB;
+
+        Supervised(Process process, ProcessOutputReader outputReader, BooleanSupplier shouldStop,
+                   Duration stallTimeout, Duration timeLimit) {
+            this.process = process;
+            this.pid = getPid(process);
+            this.outputReader = outputReader;
+            this.shouldStop = shouldStop;
+            this.stallMillis = stallTimeout.toMillis();
+            this.limitMillis = timeLimit.toMillis();
+            this.startTime = System.currentTimeMillis();
+            stopReason = StopReason.NONE;
+        }
+
+        synchronized void check() {
+            if (!process.isAlive() || stopReason != StopReason.NONE) {
+                return;
+            }
+            sampleUsage();
+            long now = System.currentTimeMillis();
+            if (shouldStop.getAsBoolean()) {
+                logger.info("Process canceled, stopping it");
+                stop(StopReason.CANCELED);
+            } else if (limitMillis > 0 && now - startTime > limitMillis) {
+                logger.error("Process has run for more than {} minutes, stopping it", limitMillis / 60000);
+                stop(StopReason.TIMED_OUT);
+            } else if (stallMillis > 0 && now - outputReader.getLastOutputTime() > stallMillis) {
+                logger.error("Process hasn't printed anything in {} minutes, stopping it", stallMillis / 60000);
+                stop(StopReason.STALLED);
+            }
+        }
+
+        synchronized Result finish(int exitCode) {
+            return new Result(exitCode, stopReason,
+                    new Usage(1, System.currentTimeMillis() - startTime, cpuMillis, peakRssKB));
+        }
+
+        private void stop(StopReason reason) {
+            stopReason = reason;
+            killTree();
+        }
+
+        /**
+         * Kill this process and everything it started, children first so none of them outlive it.
+         */
+        private void killTree() {
+            if (pid > 0 && !OSHelper.isWindows()) {
+                List<Long> descendants = findDescendants(pid);
+                if (!descendants.isEmpty()) {
+                    List<String> cmd = new ArrayList<>();
+                    cmd.add("kill");
+                    cmd.add("-KILL");
+                    descendants.forEach(child -> cmd.add(String.valueOf(child)));
+                    try {
+                        new ProcessBuilder(cmd).redirectErrorStream(true).start().waitFor(5, TimeUnit.SECONDS);
+                    } catch (IOException e) {
+                        logger.error("Error killing child processes {}: ", descendants, e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            process.destroyForcibly();
+        }
+
+        private void sampleUsage() {
+            if (pid <= 0 || !Files.isDirectory(PROC)) {
+                return;
+            }
+            try {
+                String[] stat = readStatFields(pid);
+                if (stat.length > 12) {
+                    long ticks = Long.parseLong(stat[11]) + Long.parseLong(stat[12]); // utime + stime
+                    cpuMillis = ticks * 1000 / CLOCK_TICKS_PER_SECOND;
+                }
+                for (String line : Files.readAllLines(PROC.resolve(String.valueOf(pid)).resolve("status"))) {
+                    if (line.startsWith("VmHWM:")) {
+                        peakRssKB = Math.max(peakRssKB, Long.parseLong(line.replaceAll("[^0-9]", "")));
+                        break;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // The process probably exited while we were reading about it
+                logger.debug("Could not sample usage of process {}: {}", pid, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Returns the fields of /proc/@pid/stat that follow the process name, which may itself contain spaces.
+     */
+    private static String[] readStatFields(long pid) throws IOException {
+        String stat = new String(Files.readAllBytes(PROC.resolve(String.valueOf(pid)).resolve("stat")));
+        return stat.substring(stat.lastIndexOf(')') + 2).trim().split("\\s+");
+    }
+
+    /**
+     * Returns every process descended from @pid, deepest first.
+     */
+    private static List<Long> findDescendants(long pid) {
+        Map<Long, List<Long>> children = new HashMap<>();
+        try {
+            for (long[] pair : listProcesses()) {
+                children.computeIfAbsent(pair[1], parent -> new ArrayList<>()).add(pair[0]);
+            }
+        } catch (IOException e) {
+            logger.error("Error listing processes: ", e);
+            return Collections.emptyList();
+        }
+        List<Long> descendants = new ArrayList<>();
+        Deque<Long> toVisit = new ArrayDeque<>(children.getOrDefault(pid, Collections.emptyList()));
+        while (!toVisit.isEmpty()) {
+            long child = toVisit.pop();
+            descendants.add(0, child);
+            toVisit.addAll(children.getOrDefault(child, Collections.emptyList()));
+        }
+        return descendants;
+    }
+
+    /**
+     * Returns the ID and parent ID of every running process.
+     */
+    private static List<long[]> listProcesses() throws IOException {
+        List<long[]> processes = new ArrayList<>();
+        if (Files.isDirectory(PROC)) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(PROC, "[0-9]*")) {
+                for (Path entry : entries) {
+                    try {
+                        long pid = Long.parseLong(entry.getFileName().toString());
+                        processes.add(new long[]{pid, Long.parseLong(readStatFields(pid)[1])});
+                    } catch (IOException | NumberFormatException | StringIndexOutOfBoundsException e) {
+                        // This process exited while we were listing them
+                    }
+                }
+            }
+            return processes;
+        }
+        Process ps = new ProcessBuilder("ps", "-A", "-o", "pid=", "-o", "ppid=").start();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(ps.getInputStream()))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length == 2) {
+                    processes.add(new long[]{Long.parseLong(fields[0]), Long.parseLong(fields[1])});
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected output from ps", e);
+        }
+        return processes;
+    }
+
+    /**
+     * Returns @process's ID, or -1 if this JVM won't tell us.
+     */
+    static long getPid(Process process) {
+        try {
+            // Java 9 and later
+            Method pid = Process.class.getMethod("pid");
+            return (Long) pid.invoke(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Fall through to the Java 8 approach
+        }
+        try {
+            Field pid = process.getClass().getDeclaredField("pid");
+            pid.setAccessible(true);
+            return pid.getInt(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.controller;
+
+import net.straylightlabs.archivo.model.ArchiveStage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Admit processing stages based on the processor threads, memory, and disk I/O they need, so that several
+ * recordings can be processed at once without oversubscribing the machine.
+ * <p>
+ * Waiting stages are admitted in the order they arrived, but a stage that doesn't fit won't block a later one that
+ * does. CPU-bound stages are granted a share of the free processor threads, which they should pass on to their
+ * external tools.
+ */
+class ProcessingScheduler {
+    private final int totalThreads;
+    private final long totalMemoryMB;
+    private final int totalIOSlots;
+    private int freeThreads;
+    private long freeMemoryMB;
+    private int freeIOSlots;
+    private final List<Request> waiting;
+
+    private final static Logger logger = LoggerFactory.getLogger(ProcessingScheduler.class);
+
+    ProcessingScheduler(int threads, long memoryMB, int ioSlots) {
+        totalThreads = Math.max(threads, 1);
+        totalMemoryMB = Math.max(memoryMB, 1);
+        totalIOSlots = Math.max(ioSlots, 1);
+        freeThreads = totalThreads;
+        freeMemoryMB = totalMemoryMB;
+        freeIOSlots = totalIOSlots;
+        waiting = new ArrayList<>();
+    }
+
+    /**
+     * Block until the resources for @stage are available.
+     *
+     * @return A Grant that must be closed when the stage finishes
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    synchronized Grant acquire(ArchiveStage stage) throws InterruptedException {
+        Request request = new Request(stage);
+        waiting.add(request);
+        try {
+            while (!isNextToRun(request)) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            waiting.remove(request);
+            notifyAll();
+            throw e;
+        }
+        waiting.remove(request);
+        return grant(request, calcThreadShare(request));
+    }
+
+    /**
+     * Claim the resources for @stage if they're free right now and no other stage is waiting for them. Stages that
+     * start this way are running alongside some other work, so they only get their minimum number of threads.
+     *
+     * @return A Grant that must be closed when the stage finishes, or null if the resources aren't available
+     */
+    synchronized Grant tryAcquire(ArchiveStage stage) {
+        Request request = new Request(stage);
+        if (!waiting.isEmpty() || !fits(request)) {
+            return null;
+        }
+        return grant(request, request.minThreads);
+    }
+
+    private Grant grant(Request request, int threads) {
+        ArchiveStage stage = request.stage;
+        freeThreads -= threads;
+        freeMemoryMB -= request.memoryMB;
+        freeIOSlots -= request.ioSlots;
+        logger.info("Starting {} with {} threads ({} threads, {} MB, {} I/O slots still free)",
+                stage, threads, freeThreads, freeMemoryMB, freeIOSlots);
+        // Other waiters may fit in what's left over
+        notifyAll();
+        return new Grant(stage, threads, request.memoryMB, request.ioSlots);
+    }
+
+    private synchronized void release(Grant grant) {
+        freeThreads += grant.threads;
+        freeMemoryMB += grant.memoryMB;
+        freeIOSlots += grant.ioSlots;
+        logger.debug("Finished {} ({} threads, {} MB, {} I/O slots free)",
+                grant.stage, freeThreads, freeMemoryMB, freeIOSlots);
+        notifyAll();
+    }
+
+    /**
+     * A request may run if it fits in the free resources and no request that arrived before it also fits.
+     */
+    private boolean isNextToRun(Request request) {
+        for (Request other : waiting) {
+            if (fits(other)) {
+                return other == request;
+            }
+        }
+        return false;
+    }
+
+    private boolean fits(Request request) {
+        return request.minThreads <= freeThreads && request.memoryMB <= freeMemoryMB &&
+                request.ioSlots <= freeIOSlots;
+    }
+
+    /**
+     * Split the free threads evenly between this request and the others still waiting, within the limits of
+     * what this stage can use.
+     */
+    private int calcThreadShare(Request request) {
+        int contenders = 1 + waiting.size();
+        int share = freeThreads / contenders;
+        int maxThreads = Math.min(request.stage.getMaxThreads(), freeThreads);
+        return Math.max(request.minThreads, Math.min(share, maxThreads));
+    }
+
+    /**
+     * A stage waiting for resources. Its needs are clamped to the size of this machine, so that a stage that asks
+     * for more than we have can still run (by itself) rather than waiting forever.
+     */
+    private class Request {
+        private final ArchiveStage stage;
+        private final int minThreads;
+        private final long memoryMB;
+        private final int ioSlots;
+
+        Request(ArchiveStage stage) {
+            this.stage = stage;
+            minThreads = Math.min(stage.getMinThreads(), totalThreads);
+            memoryMB = Math.min(stage.getMemoryMB(), totalMemoryMB);
+            ioSlots = Math.min(stage.getIOSlots(), totalIOSlots);
+        }
+    }
+
+    /**
+     * The resources granted to a single stage.
+     */
+    class Grant implements AutoCloseable {
+        private final ArchiveStage stage;
+        private final int threads;
+        private final long memoryMB;
+        private final int ioSlots;
+        private boolean released;
+
+        private Grant(ArchiveStage stage, int threads, long memoryMB, int ioSlots) {
+            this.stage = stage;
+            this.threads = threads;
+            this.memoryMB = memoryMB;
+            this.ioSlots = ioSlots;
+        }
+
+        /**
+         * The number of processor threads this stage's tools should use.
+         */
+        int getThreads() {
+            return threads;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.controller;
+
+import net.straylightlabs.archivo.model.IoPriority;
+import net.straylightlabs.archivo.model.ResourcePolicy;
+import net.straylightlabs.archivo.utilities.OSHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Apply a ResourcePolicy to the commands we launch by running them through the standard Linux helpers: nice,
+ * ionice, taskset, and (for CPU and memory limits) a transient cgroup from systemd-run. Each helper replaces itself
+ * with the next, so the tool keeps the process ID we started. Helpers that aren't installed are skipped, and other
+ * Unix systems only get nice.
+ */
+class ResourceGovernor {
+    private final ConcurrentHashMap<String, Optional<Path>> helpers;
+
+    private final static Logger logger = LoggerFactory.getLogger(ResourceGovernor.class);
+
+    ResourceGovernor() {
+        helpers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns @command wrapped so it runs under @policy.
+     */
+    List<String> apply(List<String> command, ResourcePolicy policy) {
+        if (OSHelper.isWindows()) {
+            return command;
+        }
+        boolean isLinux = OSHelper.isLinux();
+        List<String> wrapped = new ArrayList<>();
+        if (isLinux && policy.hasCgroupLimits()) {
+            findHelper("systemd-run").ifPresent(systemdRun -> {
+                wrapped.add(systemdRun.toString());
+                wrapped.add("--user");
+                wrapped.add("--scope");
+                wrapped.add("--quiet");
+                if (policy.getCpuQuotaPercent() > 0) {
+                    wrapped.add("-p");
+                    wrapped.add(String.format("CPUQuota=%d%%", policy.getCpuQuotaPercent()));
+                }
+                if (policy.getMemoryLimitMB() > 0) {
+                    wrapped.add("-p");
+                    wrapped.add(String.format("MemoryMax=%dM", policy.getMemoryLimitMB()));
+                }
+                wrapped.add("--");
+            });
+        }
+        if (isLinux && !policy.getCpuSet().isEmpty()) {
+            findHelper("taskset").ifPresent(taskset -> {
+                wrapped.add(taskset.toString());
+                wrapped.add("-c");
+                wrapped.add(policy.getCpuSet());
+            });
+        }
+        if (isLinux && policy.getIoPriority() != IoPriority.NORMAL) {
+            findHelper("ionice").ifPresent(ionice -> {
+                wrapped.add(ionice.toString());
+                wrapped.add("-c");
+                wrapped.add(String.valueOf(policy.getIoPriority().getIoClass()));
+                if (policy.getIoPriority().getIoClass() == 2) {
+                    wrapped.add("-n");
+                    wrapped.add(String.valueOf(policy.getIoPriority().getLevel()));
+                }
+            });
+        }
+        if (policy.getNiceness() > 0) {
+            findHelper("nice").ifPresent(nice -> {
+                wrapped.add(nice.toString());
+                wrapped.add("-n");
+                wrapped.add(String.valueOf(policy.getNiceness()));
+            });
+        }
+        wrapped.addAll(command);
+        return wrapped;
+    }
+
+    /**
+     * Look for @name on the PATH, remembering the answer.
+     */
+    private Optional<Path> findHelper(String name) {
+        return helpers.computeIfAbsent(name, key -> {
+            String path = System.getenv("PATH");
+            if (path != null) {
+                for (String dir : path.split(File.pathSeparator)) {
+                    try {
+                        Path candidate = Paths.get(dir, key);
+                        if (Files.isExecutable(candidate)) {
+                            return Optional.of(candidate);
+                        }
+                    } catch (RuntimeException e) {
+                        // Skip malformed PATH entries
+                    }
+                }
+            }
+            logger.warn("Could not find {}, processes will run without it", key);
+            return Optional.empty();
+        });
+    }
+}
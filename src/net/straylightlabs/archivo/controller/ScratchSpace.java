@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Hand out space for intermediate files from a pool of scratch folders, such as a fast local disk, instead of
+ * writing everything next to the final destination. Each task reserves the most space it expects to need before it
+ * starts; a reservation only counts the part its task hasn't written yet, since the rest already shows up as used
+ * space on the disk. When no scratch folders are configured, tasks reserve space in their destination folder.
+ */
+class ScratchSpace {
+    private final List<Path> directories;
+    private final long minFreeBytes;
+    private final List<Reservation> reservations;
+    private Runnable spaceReleasedListener;
+
+    private final static Logger logger = LoggerFactory.getLogger(ScratchSpace.class);
+
+    ScratchSpace(List<Path> directories, long minFreeBytes) {
+        this.directories = new ArrayList<>(directories);
+        this.minFreeBytes = Math.max(minFreeBytes, 0);
+        reservations = new ArrayList<>();
+    }
+
+    /**
+     * Register a callback to run (on the releasing thread) each time a reservation is released.
+     */
+    void setSpaceReleasedListener(Runnable listener) {
+        spaceReleasedListener = listener;
+    }
+
+    /**
+     * Reserve @bytes in the scratch folder with the most free space, or in @fallback if there aren't any scratch
+     * folders. Tasks get their own sub-folder, named @name, in a scratch folder. @used reports how much of the
+     * reservation the task has already written.
+     *
+     * @return the reservation, or null if no folder has enough free space
+     */
+    synchronized Reservation tryReserve(long bytes, String name, Path fallback, LongSupplier used) {
+        if (directories.isEmpty()) {
+            return reserveIfFree(fallback, fallback, bytes, used);
+        }
+        Path best = null;
+        long bestFree = Long.MIN_VALUE;
+        for (Path directory : directories) {
+            long free = getAvailableBytes(directory);
+            if (free > bestFree) {
+                best = directory;
+                bestFree = free;
+            }
+        }
+        return best != null ? reserveIfFree(best, best.resolve(name), bytes, used) : null;
+    }
+
+    /**
+     * Returns true if some folder we'd reserve space in (a scratch folder, or @fallback if there aren't any) is big
+     * enough to ever hold @bytes, even if nothing else were using it.
+     */
+    boolean couldEverFit(long bytes, Path fallback) {
+        List<Path> candidates = directories.isEmpty() ? Collections.singletonList(fallback) : directories;
+        for (Path directory : candidates) {
+            FileStore store = getFileStore(directory);
+            try {
+                if (store == null || store.getTotalSpace() - minFreeBytes >= bytes) {
+                    // If we can't tell, assume it might
+                    return true;
+                }
+            } catch (IOException e) {
+                logger.error("Error checking the size of {}: ", directory, e);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reserve @bytes in @directory whether or not it has room, for tasks whose files are already there.
+     */
+    synchronized Reservation reserveIn(Path directory, long bytes, LongSupplier used) {
+        Reservation reservation = new Reservation(directory, getFileStore(directory), bytes, used);
+        reservations.add(reservation);
+        return reservation;
+    }
+
+    private Reservation reserveIfFree(Path directory, Path workDirectory, long bytes, LongSupplier used) {
+        long free = getAvailableBytes(directory);
+        if (free < bytes) {
+            logger.debug("Not enough space in {} ({} bytes needed, {} available)", directory, bytes, free);
+            return null;
+        }
+        logger.debug("Reserved {} bytes in {} ({} bytes still available)", bytes, workDirectory, free - bytes);
+        return reserveIn(workDirectory, bytes, used);
+    }
+
+    /**
+     * Returns the space in @directory that isn't used, reserved, or held back.
+     */
+    private long getAvailableBytes(Path directory) {
+        FileStore store = getFileStore(directory);
+        if (store == null) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            long free = store.getUsableSpace() - minFreeBytes;
+            for (Reservation reservation : reservations) {
+                if (store.equals(reservation.store)) {
+                    free -= reservation.getUnwrittenBytes();
+                }
+            }
+            return free;
+        } catch (IOException e) {
+            logger.error("Error checking free space in {}: ", directory, e);
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Returns the file store holding @directory, or of its nearest existing parent.
+     */
+    private static FileStore getFileStore(Path directory) {
+        for (Path path = directory.toAbsolutePath(); path != null; path = path.getParent()) {
+            if (Files.exists(path)) {
+                try {
+                    return Files.getFileStore(path);
+                } catch (IOException e) {
+                    logger.error("Error finding the disk for {}: ", path, e);
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void release(Reservation reservation, boolean notify) {
+        synchronized (this) {
+            if (!reservations.remove(reservation)) {
+                return;
+            }
+            logger.debug("Released {} bytes in {}", reservation.bytes, reservation.directory);
+        }
+        if (notify && spaceReleasedListener != null) {
+            spaceReleasedListener.run();
+        }
+    }
+
+    /**
+     * Space set aside for one task's intermediate files. Safe to close more than once.
+     */
+    class Reservation implements AutoCloseable {
+        private final Path directory;
+        private final FileStore store;
+        private final long bytes;
+        private final LongSupplier used;
+
+        private Reservation(Path directory, FileStore store, long bytes, LongSupplier used) {
+            this.directory = directory;
+            this.store = store;
+            this.bytes = bytes;
+            this.used = used;
+        }
+
+        /**
+         * The folder the task should put its intermediate files in.
+         */
+        Path getDirectory() {
+            return directory;
+        }
+
+        private long getUnwrittenBytes() {
+            return Math.max(bytes - used.getAsLong(), 0);
+        }
+
+        /**
+         * Release this space without alerting the listener, for a reservation its task never got to use.
+         */
+        void cancel() {
+            release(this, false);
+        }
+
+        @Override
+        public void close() {
+            release(this, true);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.controller;
+
+import net.straylightlabs.archivo.model.ArchiveStage;
+import net.straylightlabs.archivo.model.UserPrefs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Run each stage of an archive task on its own pool of workers, with a bounded hand-off queue in front of every
+ * stage.
+ * <p>
+ * A job keeps its place in a stage until the next stage has room for it. When a later stage (e.g., transcoding)
+ * falls behind, jobs pile up in the stages before it until those are full too, which eventually stops new downloads
+ * from starting. Jobs only ever move forward through the stages, so this can't deadlock.
+ */
+class StagePipeline {
+    private final Map<ArchiveStage, StageNode> nodes;
+
+    private final static Logger logger = LoggerFactory.getLogger(StagePipeline.class);
+
+    StagePipeline(UserPrefs prefs) {
+        nodes = new EnumMap<>(ArchiveStage.class);
+        for (ArchiveStage stage : ArchiveStage.values()) {
+            nodes.put(stage, new StageNode(stage, prefs.getStageWorkers(stage), prefs.getStageQueueSize(stage)));
+        }
+    }
+
+    /**
+     * Returns the most jobs the pipeline can hold at once, counting both running and waiting jobs.
+     */
+    int getCapacity() {
+        return nodes.values().stream().mapToInt(node -> node.size).sum();
+    }
+
+    Job createJob(String name) {
+        return new Job(name);
+    }
+
+    /**
+     * The work performed by one stage of one job.
+     */
+    @FunctionalInterface
+    interface StageWork {
+        void run() throws IOException, InterruptedException;
+    }
+
+    private static class StageNode {
+        private final ArchiveStage stage;
+        private final ExecutorService executor;
+        // One permit for each worker and each queue slot
+        private final Semaphore capacity;
+        private final int size;
+
+        StageNode(ArchiveStage stage, int workers, int queueSize) {
+            this.stage = stage;
+            workers = Math.max(workers, 1);
+            queueSize = Math.max(queueSize, 0);
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, String.format("%s-worker", stage.name().toLowerCase()));
+                thread.setDaemon(true);
+                return thread;
+            };
+            executor = Executors.newFixedThreadPool(workers, threadFactory);
+            size = workers + queueSize;
+            capacity = new Semaphore(size, true);
+            logger.debug("Created {} stage with {} workers and room for {} waiting jobs", stage, workers, queueSize);
+        }
+    }
+
+    /**
+     * Track a single archive task as it moves through the pipeline.
+     */
+    class Job {
+        private final String name;
+        private StageNode currentNode;
+
+        private Job(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Wait for room in @stage, then run @work on one of its workers and wait for it to finish.
+         * The job keeps its place in @stage until it moves to a later stage or finishes.
+         *
+         * @throws InterruptedException if the calling thread is interrupted; the running work is interrupted too
+         */
+        void run(ArchiveStage stage, StageWork work) throws IOException, InterruptedException {
+            StageNode node = nodes.get(stage);
+            if (currentNode != null && currentNode.stage.compareTo(stage) >= 0) {
+                throw new IllegalStateException(String.format("Job can't move from %s back to %s",
+                        currentNode.stage, stage));
+            }
+            logger.debug("{} waiting for room in {} stage", name, stage);
+            node.capacity.acquire();
+            leaveCurrentNode();
+            currentNode = node;
+
+            Future<Void> future = node.executor.submit(() -> {
+                work.run();
+                return null;
+            });
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                throw e;
+            } catch (CancellationException e) {
+                throw new InterruptedException(String.format("%s stage was canceled", stage));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof InterruptedException) {
+                    throw (InterruptedException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw new IllegalStateException(cause);
+                }
+            }
+        }
+
+        /**
+         * Release this job's place in the pipeline. Must be called once the job is done, even if it failed.
+         */
+        void finish() {
+            leaveCurrentNode();
+        }
+
+        private void leaveCurrentNode() {
+            if (currentNode != null) {
+                currentNode.capacity.release();
+                currentNode = null;
+            }
+        }
+    }
+}
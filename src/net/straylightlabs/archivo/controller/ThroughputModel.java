@@ -0,0 +1,277 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.controller;
+
+import net.straylightlabs.archivo.model.ArchiveStage;
+import net.straylightlabs.archivo.model.ArchiveStatus;
+import net.straylightlabs.archivo.model.Tivo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Learn how fast each stage of an archive task runs on this machine, so we can predict how long a task will take
+ * before it starts. Downloads are measured per TiVo in bytes per second, along with how many bytes each second of
+ * a recording takes up; the other stages are measured in seconds of work per second of recording, and transcoding
+ * is measured separately for each file type. Rates are saved, so estimates are useful from the first second of the
+ * next run.
+ */
+class ThroughputModel {
+    private final Path location;
+    private final Map<String, Rate> rates;
+
+    private final static String ELEMENT_ROOT = "Throughput";
+    private final static String ELEMENT_RATE = "Rate";
+    private final static String ATT_KEY = "key";
+    private final static String ATT_VALUE = "value";
+    private final static String ATT_SAMPLES = "samples";
+
+    private final static String DOWNLOAD_KEY = "download";
+    private final static String SIZE_KEY = "size";
+
+    // Weight of the most recent measurement when updating a rate
+    private final static double RATE_WEIGHT = 0.3;
+    // Until we've downloaded something, assume TiVos send about 2 MB/s of HD video, which runs close to the
+    // 19.4 Mbps broadcast limit (roughly 8 GB per hour)
+    private final static double DEFAULT_BYTES_PER_SECOND = 2 * 1024 * 1024;
+    private final static double DEFAULT_BYTES_PER_RECORDING_SECOND = 18_000_000 / 8;
+    // How far a task must get before we trust its own progress more than our history
+    private final static double FULL_TRUST_PROGRESS = 0.5;
+
+    private final static Logger logger = LoggerFactory.getLogger(ThroughputModel.class);
+    private final static DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+
+    static ThroughputModel loadFrom(Path location) {
+        ThroughputModel model = new ThroughputModel(location);
+        if (Files.isRegularFile(location)) {
+            model.load();
+        }
+        return model;
+    }
+
+    private ThroughputModel(Path location) {
+        this.location = location;
+        rates = new HashMap<>();
+    }
+
+    /**
+     * Returns how long we expect downloading a recording of @length from @tivo to take.
+     */
+    synchronized Duration estimateDownload(Tivo tivo, Duration length) {
+        return estimateDownload(tivo, estimateDownloadSize(tivo, length));
+    }
+
+    /**
+     * Returns how many bytes we expect a recording of @length from @tivo to take up.
+     */
+    synchronized long estimateDownloadSize(Tivo tivo, Duration length) {
+        return (long) (length.getSeconds() * getRate(SIZE_KEY, tivo.getName(), DEFAULT_BYTES_PER_RECORDING_SECOND));
+    }
+
+    /**
+     * Returns how long we expect downloading @bytes from @tivo to take.
+     */
+    synchronized Duration estimateDownload(Tivo tivo, long bytes) {
+        double bytesPerSecond = getRate(DOWNLOAD_KEY, tivo.getName(), DEFAULT_BYTES_PER_SECOND);
+        return Duration.ofMillis((long) (bytes / bytesPerSecond * 1000));
+    }
+
+    /**
+     * Returns how long we expect @stage to take for a recording of @length. Transcoding estimates depend on the
+     * @fileType; pass null for the other stages.
+     */
+    synchronized Duration estimate(ArchiveStage stage, String fileType, Duration length) {
+        double ratio = getRate(stage.name(), fileType, getDefaultRatio(stage));
+        return Duration.ofMillis((long) (length.toMillis() * ratio));
+    }
+
+    /**
+     * Update our download rates from a recording of @length that took @elapsedMS to fetch @bytes from @tivo.
+     */
+    synchronized void recordDownload(Tivo tivo, Duration length, long bytes, long elapsedMS) {
+        if (bytes <= 0 || elapsedMS <= 0) {
+            return;
+        }
+        update(DOWNLOAD_KEY, tivo.getName(), bytes * 1000.0 / elapsedMS);
+        if (!length.isZero()) {
+            update(SIZE_KEY, tivo.getName(), bytes / (double) length.getSeconds());
+        }
+        logger.debug("Downloads from {} now run at {} bytes/s", tivo.getName(), rates.get(DOWNLOAD_KEY + ":" + tivo.getName()));
+        save();
+    }
+
+    /**
+     * Update our rate for @stage (and @fileType, for transcoding) from a recording of @length that took @elapsedMS.
+     */
+    synchronized void record(ArchiveStage stage, String fileType, Duration length, long elapsedMS) {
+        if (length.isZero() || elapsedMS <= 0) {
+            return;
+        }
+        update(stage.name(), fileType, elapsedMS / (double) length.toMillis());
+        logger.debug("{} now takes {} of each recording's running time", stage, getRate(stage.name(), fileType, 0));
+        save();
+    }
+
+    /**
+     * Returns the seconds left in a job we expected to take @expected, now that it's @progress (0 to 1) of the way
+     * through after @elapsed. Early on we mostly trust our history; as the job progresses, its own pace takes over.
+     */
+    static int estimateSecondsRemaining(Duration expected, Duration elapsed, double progress) {
+        progress = Math.min(Math.max(progress, 0), 0.99);
+        double elapsedSeconds = elapsed.toMillis() / 1000.0;
+        double predicted = expected.toMillis() / 1000.0 * (1 - progress);
+        if (progress <= 0 || elapsedSeconds <= 0) {
+            return expected.isZero() ? ArchiveStatus.TIME_UNKNOWN : (int) Math.max(predicted - elapsedSeconds, 0);
+        }
+        double observed = elapsedSeconds * (1 - progress) / progress;
+        if (expected.isZero()) {
+            return (int) observed;
+        }
+        double trust = Math.min(progress / FULL_TRUST_PROGRESS, 1);
+        return (int) (trust * observed + (1 - trust) * predicted);
+    }
+
+    private static double getDefaultRatio(ArchiveStage stage) {
+        switch (stage) {
+            case DOWNLOAD:
+                return 0.5;
+            case FIND_COMMERCIALS:
+                return 0.15;
+            case TRANSCODE:
+                return 0.5;
+            default:
+                return 0.03;
+        }
+    }
+
+    /**
+     * Returns the rate for @name and @qualifier, falling back to the rate for @name across every qualifier, and then
+     * to @defaultRate.
+     */
+    private double getRate(String name, String qualifier, double defaultRate) {
+        Rate rate = qualifier != null ? rates.get(name + ":" + qualifier) : null;
+        if (rate == null) {
+            rate = rates.get(name);
+        }
+        return rate != null ? rate.value : defaultRate;
+    }
+
+    private void update(String name, String qualifier, double value) {
+        rates.computeIfAbsent(name, key -> new Rate()).add(value);
+        if (qualifier != null) {
+            rates.computeIfAbsent(name + ":" + qualifier, key -> new Rate()).add(value);
+        }
+    }
+
+    private void load() {
+        logger.info("Loading throughput history from {}", location);
+        try (InputStream reader = Files.newInputStream(location)) {
+            DocumentBuilder builder = builderFactory.newDocumentBuilder();
+            Document doc = builder.parse(reader);
+            NodeList rateList = doc.getElementsByTagName(ELEMENT_RATE);
+            for (int i = 0; i < rateList.getLength(); i++) {
+                Element element = (Element) rateList.item(i);
+                try {
+                    Rate rate = new Rate();
+                    rate.value = Double.parseDouble(element.getAttribute(ATT_VALUE));
+                    rate.samples = Integer.parseInt(element.getAttribute(ATT_SAMPLES));
+                    if (rate.value > 0) {
+                        rates.put(element.getAttribute(ATT_KEY), rate);
+                    }
+                } catch (NumberFormatException e) {
+                    logger.error("Skipping invalid throughput entry: ", e);
+                }
+            }
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            logger.error("Error loading throughput history: ", e);
+        }
+    }
+
+    private void save() {
+        Path tempLocation = Paths.get(location.toString() + ".tmp");
+        try {
+            Files.createDirectories(location.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(tempLocation)) {
+                DocumentBuilder builder = builderFactory.newDocumentBuilder();
+                Document doc = builder.newDocument();
+                Element root = doc.createElement(ELEMENT_ROOT);
+                doc.appendChild(root);
+                new TreeMap<>(rates).forEach((key, rate) -> {
+                    Element element = doc.createElement(ELEMENT_RATE);
+                    element.setAttribute(ATT_KEY, key);
+                    element.setAttribute(ATT_VALUE, String.valueOf(rate.value));
+                    element.setAttribute(ATT_SAMPLES, String.valueOf(rate.samples));
+                    root.appendChild(element);
+                });
+                Transformer transformer = TransformerFactory.newInstance().newTransformer();
+                transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+                transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+                transformer.transform(new DOMSource(doc), new StreamResult(writer));
+            }
+            Files.move(tempLocation, location, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (ParserConfigurationException | TransformerException | IOException e) {
+            logger.error("Error saving throughput history: ", e);
+        }
+    }
+
+    /**
+     * A moving average of one measurement. The first few samples are averaged evenly, so a single unusual job
+     * doesn't dominate a new rate.
+     */
+    private static class Rate {
+        private double value;
+        private int samples;
+
+        private void add(double sample) {
+            samples++;
+            double weight = Math.max(1.0 / samples, RATE_WEIGHT);
+            value = weight * sample + (1 - weight) * value;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f (%d samples)", value, samples);
+        }
+    }
+}
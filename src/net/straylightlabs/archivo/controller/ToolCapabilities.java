@@ -0,0 +1,346 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.controller;
+
+import net.straylightlabs.archivo.model.ResourcePolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Remember which encoders and filters each of our external tools supports. What a tool can do depends on the
+ * binary and the machine, not on the recording, so we probe each tool once and save the results; a tool is only
+ * probed again when its path or modification time changes.
+ */
+class ToolCapabilities {
+    private final Path location;
+    private final Map<String, Tool> tools;
+    private final ProcessSupervisor processSupervisor;
+
+    private final static String ELEMENT_ROOT = "Tools";
+    private final static String ELEMENT_TOOL = "Tool";
+    private final static String ELEMENT_ENCODER = "Encoder";
+    private final static String ELEMENT_FILTER = "Filter";
+    private final static String ATT_PATH = "path";
+    private final static String ATT_MODIFIED = "modified";
+    private final static String ATT_VERSION = "version";
+    private final static String ATT_NAME = "name";
+
+    private final static Duration PROBE_TIMEOUT = Duration.ofSeconds(30);
+
+    // HandBrake lists one encoder per line, indented beneath the option that selects it
+    private final static Pattern HANDBRAKE_ENCODER_OPTION = Pattern.compile("^\\s*-[eE], --a?encoder\\b");
+    private final static Pattern HANDBRAKE_LIST_ITEM = Pattern.compile("^\\s{8,}([\\w:.-]+)\\s*$");
+    private final static Pattern HANDBRAKE_QSV = Pattern.compile("Intel Quick Sync Video support: yes");
+    private final static Pattern HANDBRAKE_VERSION = Pattern.compile("^HandBrake (\\S+)");
+    // e.g. " V....D libx264              libx264 H.264 / AVC / MPEG-4 AVC"
+    private final static Pattern FFMPEG_ENCODER = Pattern.compile("^\\s*[VAS][F.][S.][X.][B.][D.]\\s+([\\w-]+)\\s");
+    // e.g. " TSC yadif             V->V       Deinterlace the input image."
+    private final static Pattern FFMPEG_FILTER = Pattern.compile("^\\s*[T.][S.][C.]?\\s+([\\w-]+)\\s+\\S*->\\S*");
+    private final static Pattern FFMPEG_VERSION = Pattern.compile("^ffmpeg version (\\S+)");
+
+    private final static Logger logger = LoggerFactory.getLogger(ToolCapabilities.class);
+    private final static DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+
+    static ToolCapabilities loadFrom(Path location, ProcessSupervisor processSupervisor) {
+        ToolCapabilities capabilities = new ToolCapabilities(location, processSupervisor);
+        if (Files.isRegularFile(location)) {
+            capabilities.load();
+        }
+        return capabilities;
+    }
+
+    private ToolCapabilities(Path location, ProcessSupervisor processSupervisor) {
+        this.location = location;
+        this.processSupervisor = processSupervisor;
+        tools = new HashMap<>();
+    }
+
+    /**
+     * Returns what the HandBrake binary at @path supports, probing it first if we haven't seen this version of it.
+     */
+    synchronized Tool getHandbrake(String path) {
+        return get(path, () -> probeHandbrake(path));
+    }
+
+    /**
+     * Returns what the FFmpeg binary at @path supports, probing it first if we haven't seen this version of it.
+     */
+    synchronized Tool getFFmpeg(String path) {
+        return get(path, () -> probeFFmpeg(path));
+    }
+
+    private interface Prober {
+        Tool probe() throws IOException, InterruptedException;
+    }
+
+    private Tool get(String path, Prober prober) {
+        long modified = getModifiedTime(path);
+        Tool tool = tools.get(path);
+        if (tool != null && tool.modified == modified) {
+            return tool;
+        }
+        logger.info("Probing capabilities of {}", path);
+        try {
+            tool = prober.probe();
+        } catch (IOException e) {
+            logger.error("Error probing {}: ", path, e);
+            tool = new Tool(path, modified, "");
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while probing {}", path);
+            Thread.currentThread().interrupt();
+            return new Tool(path, modified, "");
+        }
+        logger.info("Found {}", tool);
+        tools.put(path, tool);
+        if (modified >= 0) {
+            // Tools we can't find on disk might show up later, so don't remember their (lack of) capabilities
+            save();
+        }
+        return tool;
+    }
+
+    private static long getModifiedTime(String path) {
+        try {
+            return Files.getLastModifiedTime(Paths.get(path)).toMillis();
+        } catch (IOException | InvalidPathException e) {
+            return -1;
+        }
+    }
+
+    private Tool probeHandbrake(String path) throws IOException, InterruptedException {
+        String version = "";
+        for (String line : runProbe(path, "--version")) {
+            Matcher matcher = HANDBRAKE_VERSION.matcher(line);
+            if (matcher.find()) {
+                version = matcher.group(1);
+                break;
+            }
+        }
+        Tool tool = new Tool(path, getModifiedTime(path), version);
+        boolean inEncoderList = false;
+        for (String line : runProbe(path, "--help")) {
+            if (HANDBRAKE_QSV.matcher(line).find()) {
+                // Older versions only say whether QSV works, rather than listing its encoders
+                tool.encoders.add("qsv_h264");
+            }
+            if (HANDBRAKE_ENCODER_OPTION.matcher(line).find()) {
+                inEncoderList = true;
+                continue;
+            }
+            Matcher matcher = HANDBRAKE_LIST_ITEM.matcher(line);
+            if (inEncoderList && matcher.find()) {
+                tool.encoders.add(matcher.group(1));
+            } else {
+                inEncoderList = false;
+            }
+        }
+        return tool;
+    }
+
+    private Tool probeFFmpeg(String path) throws IOException, InterruptedException {
+        String version = "";
+        for (String line : runProbe(path, "-version")) {
+            Matcher matcher = FFMPEG_VERSION.matcher(line);
+            if (matcher.find()) {
+                version = matcher.group(1);
+                break;
+            }
+        }
+        Tool tool = new Tool(path, getModifiedTime(path), version);
+        for (String line : runProbe(path, "-hide_banner", "-encoders")) {
+            Matcher matcher = FFMPEG_ENCODER.matcher(line);
+            if (matcher.find()) {
+                tool.encoders.add(matcher.group(1));
+            }
+        }
+        for (String line : runProbe(path, "-hide_banner", "-filters")) {
+            Matcher matcher = FFMPEG_FILTER.matcher(line);
+            if (matcher.find()) {
+                tool.filters.add(matcher.group(1));
+            }
+        }
+        return tool;
+    }
+
+    /**
+     * Run @path with @args and return everything it printed. Some tools exit with an error after printing their
+     * help, so we don't check the exit code.
+     */
+    private List<String> runProbe(String path, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(path);
+        command.addAll(Arrays.asList(args));
+        ToolProbeOutputReader outputReader = new ToolProbeOutputReader();
+        processSupervisor.run(command, outputReader, () -> false, ResourcePolicy.NONE, Duration.ZERO, PROBE_TIMEOUT);
+        return outputReader.getLines();
+    }
+
+    private void load() {
+        logger.info("Loading tool capabilities from {}", location);
+        try (InputStream reader = Files.newInputStream(location)) {
+            DocumentBuilder builder = builderFactory.newDocumentBuilder();
+            Document doc = builder.parse(reader);
+            NodeList toolList = doc.getElementsByTagName(ELEMENT_TOOL);
+            for (int i = 0; i < toolList.getLength(); i++) {
+                try {
+                    Tool tool = Tool.fromElement((Element) toolList.item(i));
+                    tools.put(tool.path, tool);
+                } catch (NumberFormatException e) {
+                    logger.error("Skipping invalid tool entry: ", e);
+                }
+            }
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            logger.error("Error loading tool capabilities: ", e);
+        }
+    }
+
+    private void save() {
+        Path tempLocation = Paths.get(location.toString() + ".tmp");
+        try {
+            Files.createDirectories(location.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(tempLocation)) {
+                DocumentBuilder builder = builderFactory.newDocumentBuilder();
+                Document doc = builder.newDocument();
+                Element root = doc.createElement(ELEMENT_ROOT);
+                doc.appendChild(root);
+                tools.values().stream().filter(tool -> tool.modified >= 0)
+                        .forEach(tool -> root.appendChild(tool.toElement(doc)));
+                Transformer transformer = TransformerFactory.newInstance().newTransformer();
+                transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+                transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+                transformer.transform(new DOMSource(doc), new StreamResult(writer));
+            }
+            Files.move(tempLocation, location, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (ParserConfigurationException | TransformerException | IOException e) {
+            logger.error("Error saving tool capabilities: ", e);
+        }
+    }
+
+    /**
+     * What one version of one tool supports.
+     */
+    static class Tool {
+        private final String path;
+        private final long modified;
+        private final String version;
+        private final Set<String> encoders;
+        private final Set<String> filters;
+
+        private Tool(String path, long modified, String version) {
+            this.path = path;
+            this.modified = modified;
+            this.version = version;
+            encoders = new TreeSet<>();
+            filters = new TreeSet<>();
+        }
+
+        private static Tool fromElement(Element element) {
+            Tool tool = new Tool(element.getAttribute(ATT_PATH), Long.parseLong(element.getAttribute(ATT_MODIFIED)),
+                    element.getAttribute(ATT_VERSION));
+            tool.encoders.addAll(readNames(element, ELEMENT_ENCODER));
+            tool.filters.addAll(readNames(element, ELEMENT_FILTER));
+            return tool;
+        }
+
+        private static List<String> readNames(Element element, String tagName) {
+            List<String> names = new ArrayList<>();
+            NodeList nodes = element.getElementsByTagName(tagName);
+            for (int i = 0; i < nodes.getLength(); i++) {
+                names.add(((Element) nodes.item(i)).getAttribute(ATT_NAME));
+            }
+            return names;
+        }
+
+        private Element toElement(Document doc) {
+            Element element = doc.createElement(ELEMENT_TOOL);
+            element.setAttribute(ATT_PATH, path);
+            element.setAttribute(ATT_MODIFIED, String.valueOf(modified));
+            element.setAttribute(ATT_VERSION, version);
+            appendNames(doc, element, ELEMENT_ENCODER, encoders);
+            appendNames(doc, element, ELEMENT_FILTER, filters);
+            return element;
+        }
+
+        private static void appendNames(Document doc, Element parent, String tagName, Set<String> names) {
+            for (String name : names) {
+                Element child = doc.createElement(tagName);
+                child.setAttribute(ATT_NAME, name);
+                parent.appendChild(child);
+            }
+        }
+
+        /**
+         * Returns the tool's version, or an empty string if we couldn't tell.
+         */
+        String getVersion() {
+            return version;
+        }
+
+        boolean hasEncoder(String name) {
+            return encoders.contains(name);
+        }
+
+        boolean hasFilter(String name) {
+            return filters.contains(name);
+        }
+
+        /**
+         * Returns true if we learned anything about this tool; false if it couldn't be run.
+         */
+        boolean isAvailable() {
+            return !version.isEmpty() || !encoders.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Tool{" +
+                    "path='" + path + '\'' +
+                    ", version='" + version + '\'' +
+                    ", encoders=" + encoders +
+                    ", filters=" + filters.size() +
+                    '}';
+        }
+    }
+}
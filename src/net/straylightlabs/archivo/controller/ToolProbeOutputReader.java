@@ -16,31 +16,33 @@
  * You should have received a copy of the GNU General Public License
  * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package net.straylightlabs.archivo.controller;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-public class HandbrakeScanOutputReader extends ProcessOutputReader {
-    private boolean isQuickSyncSupported;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-    private static final Pattern QSV = Pattern.compile("Intel Quick Sync Video support: yes");
+/**
+ * Collect the output of the commands we run to learn what a tool supports.
+ */
+class ToolProbeOutputReader extends ProcessOutputReader {
+    private final List<String> lines;
 
-    public HandbrakeScanOutputReader() {
+    ToolProbeOutputReader() {
         super(null);
+        lines = new ArrayList<>();
     }
 
     @Override
-    public void processLine(String line) {
-        addLineToOutput(line);
-        Matcher matcher = QSV.matcher(line);
-        if (matcher.find()) {
-            isQuickSyncSupported = true;
+    public void processLine(byte[] line, int length) {
+        synchronized (lines) {
+            lines.add(new String(line, 0, length));
         }
     }
 
-    public boolean isQuickSyncSupported() {
-        return isQuickSyncSupported;
+    List<String> getLines() {
+        synchronized (lines) {
+            return Collections.unmodifiableList(new ArrayList<>(lines));
+        }
     }
 }
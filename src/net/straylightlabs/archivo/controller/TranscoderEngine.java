@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.controller;
+
+import net.straylightlabs.archivo.model.Recording;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+
+/**
+ * A tool that can transcode a recording into one of our output file types.
+ */
+interface TranscoderEngine {
+    /**
+     * Returns true if this engine can read an ffconcat list of segments, which lets it remove commercials in the
+     * same pass that transcodes the recording.
+     */
+    boolean canReadConcatList();
+
+    /**
+     * Returns true if this engine encodes on dedicated hardware, which doesn't get any faster when several copies
+     * run side-by-side.
+     */
+    boolean usesHardwareEncoder();
+
+    /**
+     * Build the command that transcodes @source into @destination using at most @threads encoder threads.
+     *
+     * @param isConcatList true if @source is an ffconcat list rather than a video file
+     */
+    List<String> buildCommand(Path source, boolean isConcatList, Path destination, int threads);
+
+    /**
+     * Create a reader that reports this engine's progress to @progress.
+     */
+    ProcessOutputReader createOutputReader(Recording recording, DoubleConsumer progress);
+}
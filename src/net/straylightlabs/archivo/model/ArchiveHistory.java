@@ -39,9 +39,16 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Store a record of each successful archive task, so we can show the user which
@@ -50,6 +57,8 @@ import java.util.Map;
 public class ArchiveHistory {
     private final Path location;
     private final Map<String, ArchiveHistoryItem> items;
+    private final Object saveLock;
+    private ScheduledFuture<?> pendingSave;
 
     private final static String ATT_ID = "id";
     private final static String ATT_DATE = "date";
@@ -57,6 +66,14 @@ public class ArchiveHistory {
 
     private final static Logger logger = LoggerFactory.getLogger(ArchiveHistory.class);
     private final static DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+    private final static ScheduledExecutorService saveService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "archive-history-save");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Wait this long before writing changes, so a burst of finished tasks is saved in one write
+    private final static int SAVE_DELAY_SECONDS = 5;
 
     public static ArchiveHistory loadFrom(Path location) {
         ArchiveHistory ah = new ArchiveHistory(location);
@@ -69,6 +86,7 @@ public class ArchiveHistory {
     private ArchiveHistory(Path location) {
         this.location = location;
         this.items = new HashMap<>();
+        this.saveLock = new Object();
     }
 
     private boolean exists() {
@@ -95,33 +113,55 @@ public class ArchiveHistory {
         }
     }
 
+    /**
+     * Save the history a few seconds from now, along with any other changes made before then.
+     */
+    public synchronized void saveSoon() {
+        if (pendingSave == null) {
+            pendingSave = saveService.schedule(this::save, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
     public void save() {
-        logger.info("Saving archive history to {}", location);
-        try (BufferedWriter historyWriter = Files.newBufferedWriter(location)) {
-            DocumentBuilder builder = builderFactory.newDocumentBuilder();
-            Document doc = builder.newDocument();
-            Element root = doc.createElement("HistoryItems");
-            doc.appendChild(root);
-            items.entrySet().forEach(entry -> {
-                ArchiveHistoryItem item = entry.getValue();
-                Element element = doc.createElement("Item");
-                element.setAttribute(ATT_ID, item.getRecordingId());
-                element.setAttribute(ATT_DATE, item.getDateArchived().toString());
-                element.setAttribute(ATT_PATH, item.getLocation().toString());
-                root.appendChild(element);
-            });
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-            DOMSource source = new DOMSource(doc);
-            StreamResult historyFile = new StreamResult(historyWriter);
-            transformer.transform(source, historyFile);
-        } catch (ParserConfigurationException | TransformerException | IOException e) {
-            logger.error("Error saving archive history: ", e);
+        List<ArchiveHistoryItem> snapshot;
+        synchronized (this) {
+            if (pendingSave != null) {
+                pendingSave.cancel(false);
+                pendingSave = null;
+            }
+            snapshot = new ArrayList<>(items.values());
+        }
+        synchronized (saveLock) {
+            logger.info("Saving archive history to {}", location);
+            Path tempLocation = Paths.get(location.toString() + ".tmp");
+            try {
+                try (BufferedWriter historyWriter = Files.newBufferedWriter(tempLocation)) {
+                    DocumentBuilder builder = builderFactory.newDocumentBuilder();
+                    Document doc = builder.newDocument();
+                    Element root = doc.createElement("HistoryItems");
+                    doc.appendChild(root);
+                    snapshot.forEach(item -> {
+                        Element element = doc.createElement("Item");
+                        element.setAttribute(ATT_ID, item.getRecordingId());
+                        element.setAttribute(ATT_DATE, item.getDateArchived().toString());
+                        element.setAttribute(ATT_PATH, item.getLocation().toString());
+                        root.appendChild(element);
+                    });
+                    Transformer transformer = TransformerFactory.newInstance().newTransformer();
+                    transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+                    transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+                    DOMSource source = new DOMSource(doc);
+                    StreamResult historyFile = new StreamResult(historyWriter);
+                    transformer.transform(source, historyFile);
+                }
+                Files.move(tempLocation, location, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (ParserConfigurationException | TransformerException | IOException e) {
+                logger.error("Error saving archive history: ", e);
+            }
         }
     }
 
-    public boolean contains(Recording recording) {
+    public synchronized boolean contains(Recording recording) {
         verifyRecordingIsValid(recording);
 
         return items.containsKey(recording.getRecordingId());
@@ -133,7 +173,7 @@ public class ArchiveHistory {
         }
     }
 
-    public ArchiveHistoryItem get(Recording recording) {
+    public synchronized ArchiveHistoryItem get(Recording recording) {
         verifyRecordingIsValid(recording);
 
         ArchiveHistoryItem item = items.get(recording.getRecordingId());
@@ -146,7 +186,16 @@ public class ArchiveHistory {
         return item;
     }
 
-    public void add(Recording recording) {
+    /**
+     * Returns each archived recording, keyed by the file it was saved to.
+     */
+    public synchronized Map<Path, ArchiveHistoryItem> getItemsByLocation() {
+        Map<Path, ArchiveHistoryItem> byLocation = new HashMap<>();
+        items.values().forEach(item -> byLocation.put(item.getLocation(), item));
+        return byLocation;
+    }
+
+    public synchronized void add(Recording recording) {
         verifyRecordingIsValid(recording);
 
         ArchiveHistoryItem historyItem = new ArchiveHistoryItem(
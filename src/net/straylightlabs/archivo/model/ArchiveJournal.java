@@ -0,0 +1,387 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.*;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Keep an on-disk record of every queued archive task, the last stage each one completed, and the intermediate
+ * files it has produced. If Archivo exits before a task finishes, we use this to resume the task from its last
+ * completed stage instead of starting over.
+ */
+public class ArchiveJournal {
+    private final Path location;
+    private final Map<String, Entry> entries;
+
+    private final static String ELEMENT_ROOT = "ArchiveQueue";
+    private final static String ELEMENT_TASK = "Task";
+    private final static String ELEMENT_ARTIFACT = "Artifact";
+    private final static String ELEMENT_WORK_FILE = "WorkFile";
+    private final static String ELEMENT_OUTPUT = "Output";
+    private final static String ATT_ID = "id";
+    private final static String ATT_TITLE = "title";
+    private final static String ATT_TIVO = "tivo";
+    private final static String ATT_DESTINATION = "destination";
+    private final static String ATT_FILE_TYPE = "fileType";
+    private final static String ATT_STAGE = "stage";
+    private final static String ATT_UPDATED = "updated";
+    private final static String ATT_PATH = "path";
+
+    // Give up on tasks that haven't been touched in this long; the TiVo has probably deleted the recording
+    private final static Duration MAX_AGE = Duration.ofDays(7);
+
+    private final static Logger logger = LoggerFactory.getLogger(ArchiveJournal.class);
+    private final static DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+
+    /**
+     * Load the journal at @location and recover from any interrupted tasks: roll back tasks whose intermediate
+     * files have gone missing, and delete partial files left behind by stages that didn't finish.
+     */
+    public static ArchiveJournal loadFrom(Path location) {
+        ArchiveJournal journal = new ArchiveJournal(location);
+        if (Files.isRegularFile(location)) {
+            journal.load();
+            journal.recover();
+        }
+        return journal;
+    }
+
+    private ArchiveJournal(Path location) {
+        this.location = location;
+        entries = new LinkedHashMap<>();
+    }
+
+    private void load() {
+        logger.info("Loading archive queue journal from {}", location);
+        try (InputStream journalReader = Files.newInputStream(location)) {
+            DocumentBuilder builder = builderFactory.newDocumentBuilder();
+            Document doc = builder.parse(journalReader);
+            NodeList taskList = doc.getElementsByTagName(ELEMENT_TASK);
+            for (int i = 0; i < taskList.getLength(); i++) {
+                Element task = (Element) taskList.item(i);
+                try {
+                    Entry entry = Entry.fromElement(task);
+                    entries.put(entry.recordingId, entry);
+                } catch (IllegalArgumentException | DateTimeParseException e) {
+                    logger.error("Skipping invalid journal entry: ", e);
+                }
+            }
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            logger.error("Error loading archive queue journal: ", e);
+        }
+    }
+
+    private void recover() {
+        LocalDateTime oldestAllowed = LocalDateTime.now().minus(MAX_AGE);
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.updated.isBefore(oldestAllowed)) {
+                logger.info("Abandoning stale archive task for '{}'", entry.title);
+                deleteFiles(entry.workFiles);
+                iterator.remove();
+                continue;
+            }
+            if (entry.artifacts.stream().anyMatch(path -> !Files.exists(path))) {
+                logger.warn("Intermediate files for '{}' are missing, restarting it from the beginning", entry.title);
+                entry.lastCompletedStage = null;
+                entry.artifacts.clear();
+            }
+            List<Path> orphans = new ArrayList<>(entry.workFiles);
+            orphans.removeAll(entry.artifacts);
+            deleteFiles(orphans);
+            logger.info("Recovered archive task for '{}' (last completed stage: {})",
+                    entry.title, entry.lastCompletedStage);
+        }
+        save();
+    }
+
+    private void deleteFiles(Collection<Path> files) {
+        for (Path file : files) {
+            try {
+                if (Files.deleteIfExists(file)) {
+                    logger.info("Removed orphaned file {}", file);
+                }
+            } catch (IOException e) {
+                logger.error("Error removing orphaned file {}: ", file, e);
+            }
+        }
+    }
+
+    private synchronized void save() {
+        Path tempLocation = Paths.get(location.toString() + ".tmp");
+        try {
+            Files.createDirectories(location.getParent());
+            try (BufferedWriter journalWriter = Files.newBufferedWriter(tempLocation)) {
+                DocumentBuilder builder = builderFactory.newDocumentBuilder();
+                Document doc = builder.newDocument();
+                Element root = doc.createElement(ELEMENT_ROOT);
+                doc.appendChild(root);
+                entries.values().forEach(entry -> root.appendChild(entry.toElement(doc)));
+                Transformer transformer = TransformerFactory.newInstance().newTransformer();
+                transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+                transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+                transformer.transform(new DOMSource(doc), new StreamResult(journalWriter));
+            }
+            // Replace the old journal in one step, so a crash never leaves us with half a file
+            Files.move(tempLocation, location, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (ParserConfigurationException | TransformerException | IOException e) {
+            logger.error("Error saving archive queue journal: ", e);
+        }
+    }
+
+    /**
+     * Start tracking a newly queued task, replacing any earlier record for the same recording.
+     */
+    public synchronized void add(Recording recording, Tivo tivo) {
+        addAll(Collections.singletonList(recording), tivo);
+    }
+
+    /**
+     * Start tracking each of @recordings, writing the journal only once.
+     */
+    public synchronized void addAll(Collection<Recording> recordings, Tivo tivo) {
+        String tivoJSON = tivo.toJSON().toString();
+        for (Recording recording : recordings) {
+            Entry entry = new Entry(recording.getRecordingId(), recording.getFullTitle(), tivoJSON,
+                    recording.getDestination(), recording.getDestinationType());
+            entry.extraOutputs.addAll(recording.getExtraOutputs());
+            entries.put(entry.recordingId, entry);
+        }
+        save();
+    }
+
+    /**
+     * Record intermediate files a task may create, so we can clean them up if it's interrupted.
+     */
+    public synchronized void addWorkFiles(Recording recording, Collection<Path> workFiles) {
+        Entry entry = entries.get(recording.getRecordingId());
+        if (entry != null) {
+            workFiles.stream().filter(Objects::nonNull).filter(path -> !entry.workFiles.contains(path))
+                    .forEach(entry.workFiles::add);
+            entry.touch();
+            save();
+        }
+    }
+
+    /**
+     * Record that @stage finished for @recording, leaving behind @artifacts for the next stage to use.
+     */
+    public synchronized void stageCompleted(Recording recording, ArchiveStage stage, Collection<Path> artifacts) {
+        Entry entry = entries.get(recording.getRecordingId());
+        if (entry != null) {
+            entry.lastCompletedStage = stage;
+            entry.artifacts.clear();
+            artifacts.stream().filter(Objects::nonNull).filter(Files::exists).forEach(entry.artifacts::add);
+            entry.touch();
+            save();
+        }
+    }
+
+    public synchronized void remove(Recording recording) {
+        if (entries.remove(recording.getRecordingId()) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Returns the files the last completed stage of @recording left for the next stage to use.
+     */
+    public synchronized List<Path> getArtifacts(Recording recording) {
+        Entry entry = entries.get(recording.getRecordingId());
+        return entry != null ? new ArrayList<>(entry.artifacts) : Collections.emptyList();
+    }
+
+    /**
+     * Returns true if the journal has tasks that were downloading from @tivo.
+     */
+    public synchronized boolean hasEntriesFrom(Tivo tivo) {
+        return entries.values().stream().anyMatch(entry -> entry.isFrom(tivo));
+    }
+
+    /**
+     * Give up on the tasks from @tivo whose recordings aren't in @recordingIds, since the TiVo no longer has them,
+     * and delete their intermediate files.
+     */
+    public synchronized void removeMissing(Tivo tivo, Set<String> recordingIds) {
+        boolean removed = false;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!recordingIds.contains(entry.recordingId) && entry.isFrom(tivo)) {
+                logger.info("Abandoning archive task for '{}', it's no longer on {}", entry.title, tivo);
+                deleteFiles(entry.workFiles);
+                iterator.remove();
+                removed = true;
+            }
+        }
+        if (removed) {
+            save();
+        }
+    }
+
+    /**
+     * Returns the journal entry for @recording, or null if it isn't in the queue.
+     */
+    public synchronized Entry get(Recording recording) {
+        return entries.get(recording.getRecordingId());
+    }
+
+    public static class Entry {
+        private final String recordingId;
+        private final String title;
+        private final String tivoJSON;
+        private final Path destination;
+        private final FileType fileType;
+        private final List<Path> artifacts;
+        private final List<Path> workFiles;
+        private final List<ArchiveOutput> extraOutputs;
+        private ArchiveStage lastCompletedStage;
+        private LocalDateTime updated;
+
+        private Entry(String recordingId, String title, String tivoJSON, Path destination, FileType fileType) {
+            this.recordingId = recordingId;
+            this.title = title;
+            this.tivoJSON = tivoJSON;
+            this.destination = destination;
+            this.fileType = fileType;
+            artifacts = new ArrayList<>();
+            workFiles = new ArrayList<>();
+            extraOutputs = new ArrayList<>();
+            updated = LocalDateTime.now();
+        }
+
+        private static Entry fromElement(Element element) {
+            Entry entry = new Entry(element.getAttribute(ATT_ID), element.getAttribute(ATT_TITLE),
+                    element.getAttribute(ATT_TIVO), Paths.get(element.getAttribute(ATT_DESTINATION)),
+                    FileType.fromDescription(element.getAttribute(ATT_FILE_TYPE)));
+            String stage = element.getAttribute(ATT_STAGE);
+            if (!stage.isEmpty()) {
+                entry.lastCompletedStage = ArchiveStage.valueOf(stage);
+            }
+            entry.updated = LocalDateTime.parse(element.getAttribute(ATT_UPDATED));
+            entry.artifacts.addAll(readPaths(element, ELEMENT_ARTIFACT));
+            entry.workFiles.addAll(readPaths(element, ELEMENT_WORK_FILE));
+            NodeList outputs = element.getElementsByTagName(ELEMENT_OUTPUT);
+            for (int i = 0; i < outputs.getLength(); i++) {
+                Element output = (Element) outputs.item(i);
+                entry.extraOutputs.add(new ArchiveOutput(Paths.get(output.getAttribute(ATT_PATH)),
+                        FileType.fromDescription(output.getAttribute(ATT_FILE_TYPE))));
+            }
+            return entry;
+        }
+
+        private static List<Path> readPaths(Element element, String tagName) {
+            List<Path> paths = new ArrayList<>();
+            NodeList nodes = element.getElementsByTagName(tagName);
+            for (int i = 0; i < nodes.getLength(); i++) {
+                paths.add(Paths.get(((Element) nodes.item(i)).getAttribute(ATT_PATH)));
+            }
+            return paths;
+        }
+
+        private Element toElement(Document doc) {
+            Element element = doc.createElement(ELEMENT_TASK);
+            element.setAttribute(ATT_ID, recordingId);
+            element.setAttribute(ATT_TITLE, title);
+            element.setAttribute(ATT_TIVO, tivoJSON);
+            element.setAttribute(ATT_DESTINATION, destination.toString());
+            element.setAttribute(ATT_FILE_TYPE, fileType.getDescription());
+            element.setAttribute(ATT_STAGE, lastCompletedStage != null ? lastCompletedStage.name() : "");
+            element.setAttribute(ATT_UPDATED, updated.toString());
+            appendPaths(doc, element, ELEMENT_ARTIFACT, artifacts);
+            appendPaths(doc, element, ELEMENT_WORK_FILE, workFiles);
+            for (ArchiveOutput output : extraOutputs) {
+                Element child = doc.createElement(ELEMENT_OUTPUT);
+                child.setAttribute(ATT_PATH, output.getDestination().toString());
+                child.setAttribute(ATT_FILE_TYPE, output.getFileType().getDescription());
+                element.appendChild(child);
+            }
+            return element;
+        }
+
+        private static void appendPaths(Document doc, Element parent, String tagName, List<Path> paths) {
+            for (Path path : paths) {
+                Element child = doc.createElement(tagName);
+                child.setAttribute(ATT_PATH, path.toString());
+                parent.appendChild(child);
+            }
+        }
+
+        private void touch() {
+            updated = LocalDateTime.now();
+        }
+
+        /**
+         * Returns true if this task was downloading from @tivo.
+         */
+        public boolean isFrom(Tivo tivo) {
+            try {
+                return Tivo.fromJSON(tivoJSON, null).equals(tivo);
+            } catch (IllegalArgumentException e) {
+                logger.error("Error parsing TiVo for journal entry '{}': ", title, e);
+                return false;
+            }
+        }
+
+        public Path getDestination() {
+            return destination;
+        }
+
+        public FileType getFileType() {
+            return fileType;
+        }
+
+        public List<ArchiveOutput> getExtraOutputs() {
+            return Collections.unmodifiableList(extraOutputs);
+        }
+
+        /**
+         * Returns the last stage this task finished, or null if it needs to start from the beginning.
+         */
+        public ArchiveStage getLastCompletedStage() {
+            return lastCompletedStage;
+        }
+    }
+}
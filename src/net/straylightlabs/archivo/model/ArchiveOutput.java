@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.model;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * A file we'll create from a recording: where to save it and which profile to encode it with.
+ */
+public class ArchiveOutput {
+    private final Path destination;
+    private final FileType fileType;
+
+    public ArchiveOutput(Path destination, FileType fileType) {
+        this.destination = destination;
+        this.fileType = fileType;
+    }
+
+    /**
+     * Build an output of @fileType that sits next to @primary, using a name that isn't in @takenPaths.
+     */
+    public static ArchiveOutput alongside(Path primary, FileType fileType, Collection<Path> takenPaths) {
+        String filename = primary.getFileName().toString();
+        int lastDot = filename.lastIndexOf('.');
+        if (lastDot > 0) {
+            filename = filename.substring(0, lastDot);
+        }
+        String extension = fileType.getExtension().substring(1);
+        Path destination = primary.resolveSibling(filename + extension);
+        if (takenPaths.contains(destination)) {
+            destination = primary.resolveSibling(String.format("%s (%s)%s", filename,
+                    fileType.getDescription().replace(" Files", "").trim(), extension));
+        }
+        return new ArchiveOutput(destination, fileType);
+    }
+
+    public Path getDestination() {
+        return destination;
+    }
+
+    public FileType getFileType() {
+        return fileType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ArchiveOutput that = (ArchiveOutput) o;
+        return Objects.equals(destination, that.destination) && fileType == that.fileType;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(destination, fileType);
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveOutput{" +
+                "destination=" + destination +
+                ", fileType=" + fileType +
+                '}';
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.model;
+
+/**
+ * The stages of an archive task, in the order they run. Each stage declares the machine resources its external
+ * tools need, how many recordings it should work on at once, and how politely its tools should share the machine.
+ */
+public enum ArchiveStage {
+    DOWNLOAD(0, 0, 0, 0, 4, 0, 0, IoPriority.NORMAL),
+    REMUX(1, 1, 256, 1, 2, 1, 5, IoPriority.LOW),
+    FIND_COMMERCIALS(1, ArchiveStage.ALL_THREADS, 512, 1, 2, 1, 10, IoPriority.LOW),
+    REMOVE_COMMERCIALS(1, 1, 256, 1, 2, 1, 5, IoPriority.LOW),
+    TRANSCODE(2, ArchiveStage.ALL_THREADS, 1024, 0, 2, 1, 10, IoPriority.LOW);
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final int memoryMB;
+    private final int ioSlots;
+    private final int defaultWorkers;
+    private final int defaultQueueSize;
+    private final int defaultNiceness;
+    private final IoPriority defaultIoPriority;
+
+    /**
+     * Denotes a stage that can make use of every processor thread we're willing to give it.
+     */
+    public static final int ALL_THREADS = Integer.MAX_VALUE;
+
+    ArchiveStage(int minThreads, int maxThreads, int memoryMB, int ioSlots, int defaultWorkers,
+                 int defaultQueueSize, int defaultNiceness, IoPriority defaultIoPriority) {
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.memoryMB = memoryMB;
+        this.ioSlots = ioSlots;
+        this.defaultWorkers = defaultWorkers;
+        this.defaultQueueSize = defaultQueueSize;
+        this.defaultNiceness = defaultNiceness;
+        this.defaultIoPriority = defaultIoPriority;
+    }
+
+    /**
+     * The fewest processor threads this stage can usefully run with.
+     */
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    /**
+     * The most processor threads this stage can put to work.
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Approximate peak memory use of the external tool this stage runs.
+     */
+    public int getMemoryMB() {
+        return memoryMB;
+    }
+
+    /**
+     * Number of disk-bound slots this stage occupies. Stages that mostly stream data from one file to another
+     * use one; CPU-bound stages use none.
+     */
+    public int getIOSlots() {
+        return ioSlots;
+    }
+
+    /**
+     * The number of recordings this stage works on at the same time, unless the user overrides it.
+     */
+    public int getDefaultWorkers() {
+        return defaultWorkers;
+    }
+
+    /**
+     * The number of recordings that may wait for this stage before earlier stages have to stop and wait, unless the
+     * user overrides it.
+     */
+    public int getDefaultQueueSize() {
+        return defaultQueueSize;
+    }
+
+    /**
+     * The scheduling priority (0 is normal, 19 is lowest) of this stage's tools, unless the user overrides it.
+     */
+    public int getDefaultNiceness() {
+        return defaultNiceness;
+    }
+
+    /**
+     * The disk priority of this stage's tools, unless the user overrides it.
+     */
+    public IoPriority getDefaultIoPriority() {
+        return defaultIoPriority;
+    }
+}
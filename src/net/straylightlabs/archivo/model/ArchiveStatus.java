@@ -38,6 +38,7 @@ public class ArchiveStatus implements Comparable<ArchiveStatus> {
     public final static int INDETERMINATE = -1;
     public final static ArchiveStatus EMPTY = new ArchiveStatus(TaskStatus.NONE);
     public final static ArchiveStatus QUEUED = new ArchiveStatus(TaskStatus.QUEUED);
+    public final static ArchiveStatus WAITING_FOR_SPACE = new ArchiveStatus(TaskStatus.WAITING_FOR_SPACE);
     public final static ArchiveStatus FINISHED = new ArchiveStatus(TaskStatus.FINISHED);
     public final static ArchiveStatus DOWNLOADED = new ArchiveStatus(TaskStatus.DOWNLOADED);
 
@@ -179,6 +180,13 @@ public class ArchiveStatus implements Comparable<ArchiveStatus> {
         return new ArchiveStatus(TaskStatus.TRANSCODING, progress, secondsRemaining);
     }
 
+    public static ArchiveStatus createMovingStatus(double progress, int secondsRemaining) {
+        if (progress >= 1.0) {
+            progress = .99;
+        }
+        return new ArchiveStatus(TaskStatus.MOVING, progress, secondsRemaining);
+    }
+
     public static ArchiveStatus createErrorStatus(Throwable e) {
         if (e instanceof ArchiveTaskException) {
             ArchiveTaskException ate = (ArchiveTaskException) e;
@@ -236,6 +244,7 @@ public class ArchiveStatus implements Comparable<ArchiveStatus> {
 
     public enum TaskStatus {
         TRANSCODING,
+        MOVING,
         REMOVING_COMMERCIALS,
         FINDING_COMMERCIALS,
         REMUXING,
@@ -243,6 +252,7 @@ public class ArchiveStatus implements Comparable<ArchiveStatus> {
         DOWNLOADING,
         DOWNLOADED,
         QUEUED,
+        WAITING_FOR_SPACE,
         FINISHED,
         ERROR,
         NONE;
@@ -254,10 +264,12 @@ public class ArchiveStatus implements Comparable<ArchiveStatus> {
                 case ERROR:
                     return false;
                 case QUEUED:
+                case WAITING_FOR_SPACE:
                 case CONNECTING:
                 case DOWNLOADING:
                 case DOWNLOADED:
                 case TRANSCODING:
+                case MOVING:
                 case REMOVING_COMMERCIALS:
                 case FINDING_COMMERCIALS:
                 case REMUXING:
@@ -274,10 +286,12 @@ public class ArchiveStatus implements Comparable<ArchiveStatus> {
                 case ERROR:
                     return true;
                 case QUEUED:
+                case WAITING_FOR_SPACE:
                 case CONNECTING:
                 case DOWNLOADING:
                 case DOWNLOADED:
                 case TRANSCODING:
+                case MOVING:
                 case REMOVING_COMMERCIALS:
                 case FINDING_COMMERCIALS:
                 case REMUXING:
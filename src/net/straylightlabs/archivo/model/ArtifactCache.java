@@ -0,0 +1,249 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keep the intermediate files of recent archive tasks, so archiving the same recording again (e.g., as a different
+ * file type, or after a failed transcode) can pick up after the last stage we cached instead of downloading it again.
+ * Each entry holds the files one stage left for the next, keyed by the recording, the stage, and the settings that
+ * shaped its output. Files are only ever hard-linked in and out of the cache, never copied, so nothing is cached when
+ * the work folder is on a different volume. The least recently used entries are removed once the cache grows past
+ * its size limit.
+ */
+public class ArtifactCache {
+    private final Path directory;
+    private final long maxBytes;
+    private final ExecutorService cleanupService;
+
+    private final static Logger logger = LoggerFactory.getLogger(ArtifactCache.class);
+
+    /**
+     * @param maxBytes The most disk space the cache may use; 0 disables it
+     */
+    public ArtifactCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        cleanupService = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "artifact-cache-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns true if we have the files @stage produced for @recordingId with the given @parameters.
+     */
+    public synchronized boolean contains(String recordingId, ArchiveStage stage, String parameters) {
+        return isEnabled() && Files.isDirectory(getEntryPath(recordingId, stage, parameters));
+    }
+
+    /**
+     * Put the cached copy of each of @files in place. Files the stage didn't produce (e.g., optional metadata) are
+     * skipped.
+     *
+     * @return true if the cached files were restored
+     */
+    public synchronized boolean restore(String recordingId, ArchiveStage stage, String parameters, List<Path> files) {
+        Path entry = getEntryPath(recordingId, stage, parameters);
+        if (!isEnabled() || !Files.isDirectory(entry)) {
+            return false;
+        }
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                Path cached = entry.resolve(String.valueOf(i));
+                if (Files.exists(cached)) {
+                    Files.deleteIfExists(files.get(i));
+                    Files.createLink(files.get(i), cached);
+                }
+            }
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            logger.info("Restored {} files for {} from cache entry {}", stage, recordingId, entry);
+            return true;
+        } catch (UnsupportedOperationException | IOException e) {
+            logger.error("Error restoring cache entry {}: ", entry, e);
+            return false;
+        }
+    }
+
+    /**
+     * Cache @files as the output of @stage for @recordingId. Entries for this recording's earlier stages are removed,
+     * since the new entry lets us skip them too. Only the hard links are made right away; pruning old entries happens
+     * in the background.
+     */
+    public synchronized void store(String recordingId, ArchiveStage stage, String parameters, List<Path> files) {
+        if (!isEnabled()) {
+            return;
+        }
+        Path entry = getEntryPath(recordingId, stage, parameters);
+        Path tempEntry = Paths.get(entry.toString() + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            deleteEntry(tempEntry);
+            Files.createDirectories(tempEntry);
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                if (file != null && Files.exists(file)) {
+                    Files.createLink(tempEntry.resolve(String.valueOf(i)), file);
+                }
+            }
+            deleteEntry(entry);
+            Files.move(tempEntry, entry, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Cached {} files for {} in {}", stage, recordingId, entry);
+        } catch (UnsupportedOperationException | IOException e) {
+            // Usually the work folder is on another volume, or one without hard links; copying would cost too much
+            logger.info("Not caching {} files for {}: {}", stage, recordingId, e.toString());
+            deleteEntry(tempEntry);
+            return;
+        }
+        cleanupService.execute(() -> {
+            synchronized (this) {
+                removeEarlierStages(recordingId, stage);
+                evict();
+            }
+        });
+    }
+
+    private Path getEntryPath(String recordingId, ArchiveStage stage, String parameters) {
+        return directory.resolve(String.format("%s.%s.%s", sanitize(recordingId), stage.name(), digest(parameters)));
+    }
+
+    private static String digest(String parameters) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(parameters.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is unavailable", e);
+        }
+    }
+
+    private static String sanitize(String recordingId) {
+        return recordingId.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    private void removeEarlierStages(String recordingId, ArchiveStage stage) {
+        String prefix = sanitize(recordingId) + ".";
+        for (Path entry : listEntries()) {
+            String name = entry.getFileName().toString();
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            String[] parts = name.substring(prefix.length()).split("\\.");
+            try {
+                if (parts.length == 2 && ArchiveStage.valueOf(parts[0]).compareTo(stage) < 0) {
+                    deleteEntry(entry);
+                }
+            } catch (IllegalArgumentException e) {
+                logger.warn("Unexpected cache entry name: {}", entry);
+            }
+        }
+    }
+
+    /**
+     * Remove the least recently used entries until we're within our size limit.
+     */
+    private void evict() {
+        List<Path> entries = listEntries();
+        entries.sort(Comparator.comparing(this::getLastUsed));
+        long totalBytes = entries.stream().mapToLong(this::getSize).sum();
+        for (Path entry : entries) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            long size = getSize(entry);
+            logger.info("Evicting cache entry {} ({} bytes)", entry, size);
+            deleteEntry(entry);
+            totalBytes -= size;
+        }
+    }
+
+    private List<Path> listEntries() {
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.filter(Files::isDirectory).filter(path -> !path.toString().endsWith(".tmp"))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            logger.error("Error listing cache directory {}: ", directory, e);
+            return new ArrayList<>();
+        }
+    }
+
+    private FileTime getLastUsed(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private long getSize(Path entry) {
+        try (Stream<Path> stream = Files.list(entry)) {
+            return stream.mapToLong(file -> {
+                try {
+                    return Files.readAttributes(file, BasicFileAttributes.class).size();
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void deleteEntry(Path entry) {
+        if (!Files.isDirectory(entry)) {
+            return;
+        }
+        try (Stream<Path> stream = Files.list(entry)) {
+            for (Path file : stream.collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(entry);
+        } catch (IOException e) {
+            logger.error("Error removing cache entry {}: ", entry, e);
+        }
+    }
+}
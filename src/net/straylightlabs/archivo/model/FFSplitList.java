@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -43,7 +44,6 @@ public class FFSplitList {
     /**
      * Create a new FFSplitList from a standard split file.
      */
-    @SuppressWarnings("unused")
     public static FFSplitList createFromFile(Path input) throws IOException {
         List<Segment> toKeep = parseFFSkipFile(input);
         return new FFSplitList(toKeep);
@@ -97,6 +97,19 @@ public class FFSplitList {
         return Collections.unmodifiableList(segmentsToKeep);
     }
 
+    /**
+     * Write an FFmpeg concat demuxer script to @file that plays back only the segments of @source we want to keep.
+     */
+    public void writeConcatList(Path file, Path source) throws IOException {
+        String escapedSource = source.toString().replace("\'", "\'\\\'\'");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            writer.println("ffconcat version 1.0");
+            for (Segment segment : segmentsToKeep) {
+                writer.print(segment.buildConcatEntry(escapedSource));
+            }
+        }
+    }
+
     public static class Segment {
         private final double startTime;
         private final double duration;
@@ -124,6 +137,17 @@ public class FFSplitList {
             this.offset = offset;
         }
 
+        /**
+         * Returns the start of this segment, in seconds from the start of the video stream.
+         */
+        public double getStartTime() {
+            return startTime;
+        }
+
+        public double getDuration() {
+            return duration;
+        }
+
         /**
          * Create a list representing the output arguments FFmpeg will need to trim a video to this segment.
          */
@@ -136,6 +160,17 @@ public class FFSplitList {
             return params;
         }
 
+        /**
+         * Create the lines of an FFmpeg concat demuxer script that select this segment from @escapedSource.
+         */
+        String buildConcatEntry(String escapedSource) {
+            double start = Math.max(startTime + offset, 0);
+            return String.format("file '%s'\n", escapedSource) +
+                    String.format("inpoint %1.4f\n", start) +
+                    String.format("outpoint %1.4f\n", start + duration) +
+                    String.format("duration %1.4f\n", duration);
+        }
+
         @Override
         public String toString() {
             return "Segment{" +
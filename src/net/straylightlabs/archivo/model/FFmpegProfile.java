@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The FFmpeg settings for one file type: how to encode the video, and which audio tracks to create.
+ * Scaling and deinterlacing depend on the user's preferences, so the transcoder adds them.
+ */
+public class FFmpegProfile {
+    private final List<String> videoArgs;
+    private final int audioBitrate;
+    private final boolean surroundPassthrough;
+    private final double maxFrameRate;
+
+    /**
+     * @param videoArgs           Encoder arguments, e.g. "-c:v libx264 -crf 22"
+     * @param audioBitrate        The bitrate of the stereo AAC track, in kbps
+     * @param surroundPassthrough Whether to also copy the original (usually 5.1 AC-3) audio track
+     * @param maxFrameRate        The highest frame rate to keep, or 0 to keep the source's frame rate
+     */
+    FFmpegProfile(String videoArgs, int audioBitrate, boolean surroundPassthrough, double maxFrameRate) {
+        this.videoArgs = Collections.unmodifiableList(Arrays.asList(videoArgs.split("\\s+")));
+        this.audioBitrate = audioBitrate;
+        this.surroundPassthrough = surroundPassthrough;
+        this.maxFrameRate = maxFrameRate;
+    }
+
+    public List<String> getVideoArgs() {
+        return videoArgs;
+    }
+
+    public int getAudioBitrate() {
+        return audioBitrate;
+    }
+
+    public boolean hasSurroundPassthrough() {
+        return surroundPassthrough;
+    }
+
+    public double getMaxFrameRate() {
+        return maxFrameRate;
+    }
+
+    /**
+     * Returns the name of the FFmpeg video encoder this profile uses.
+     */
+    public String getVideoEncoder() {
+        int index = videoArgs.indexOf("-c:v");
+        return index >= 0 && index + 1 < videoArgs.size() ? videoArgs.get(index + 1) : "";
+    }
+
+    /**
+     * Returns true if this profile encodes with x265 rather than x264.
+     */
+    public boolean isHevc() {
+        return getVideoEncoder().equals("libx265");
+    }
+}
@@ -47,9 +47,11 @@ public enum FileType {
     private final boolean supportsQSV;
 
     private static final Map<FileType, Map<String, String>> handbrakeArgs;
+    private static final Map<FileType, FFmpegProfile> ffmpegProfiles;
 
     static {
         handbrakeArgs = buildHandbrakeArgsMap();
+        ffmpegProfiles = buildFFmpegProfileMap();
     }
 
     FileType(String description, String extension) {
@@ -101,6 +103,34 @@ public enum FileType {
         return Collections.unmodifiableMap(handbrakeArgs.getOrDefault(this, Collections.emptyMap()));
     }
 
+    /**
+     * Returns the settings the FFmpeg transcoder uses for this file type, or null if it doesn't need transcoding.
+     */
+    public FFmpegProfile getFFmpegProfile() {
+        return ffmpegProfiles.get(this);
+    }
+
+    /**
+     * These mirror the HandBrake settings below as closely as FFmpeg allows.
+     */
+    private static Map<FileType, FFmpegProfile> buildFFmpegProfileMap() {
+        Map<FileType, FFmpegProfile> map = new HashMap<>();
+        String x264 = "-c:v libx264 -preset veryfast -pix_fmt yuv420p -crf %s -profile:v %s -level:v %s";
+
+        map.put(ANDROID_PHONE, new FFmpegProfile(String.format(x264, "22", "main", "3.0"), 128, false, 30));
+        map.put(ANDROID_TABLET, new FFmpegProfile(String.format(x264, "22", "main", "3.1"), 128, false, 30));
+        map.put(APPLE_TV3, new FFmpegProfile(String.format(x264, "21", "high", "4.0"), 160, true, 30));
+        map.put(IPAD, new FFmpegProfile(String.format(x264, "22", "high", "3.1"), 160, false, 30));
+        map.put(IPHONE, new FFmpegProfile(String.format(x264, "22", "high", "3.1"), 160, false, 30));
+        map.put(WINDOWS_PHONE, new FFmpegProfile(String.format(x264, "22", "main", "3.1"), 128, false, 0));
+        map.put(H264_NORMAL, new FFmpegProfile(String.format(x264, "21", "main", "4.0"), 160, false, 0));
+        map.put(H264_HIGH, new FFmpegProfile(String.format(x264, "21", "high", "4.1"), 160, true, 0));
+        map.put(H265, new FFmpegProfile("-c:v libx265 -preset veryfast -pix_fmt yuv420p -crf 21 -tag:v hvc1",
+                160, true, 0));
+
+        return map;
+    }
+
     private static Map<FileType, Map<String, String>> buildHandbrakeArgsMap() {
         Map<FileType, Map<String, String>> map = new HashMap<>();
 
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.model;
+
+/**
+ * How much disk bandwidth an external tool may claim when other programs also need the disk. These map to the
+ * Linux I/O scheduling classes.
+ */
+public enum IoPriority {
+    NORMAL("Normal", "normal", 0, 0),
+    LOW("Low", "low", 2, 7),
+    IDLE("Only when idle", "idle", 3, 0);
+
+    private final String label;
+    private final String key;
+    private final int ioClass;
+    private final int level;
+
+    IoPriority(String label, String key, int ioClass, int level) {
+        this.label = label;
+        this.key = key;
+        this.ioClass = ioClass;
+        this.level = level;
+    }
+
+    public static IoPriority fromKey(String key) {
+        for (IoPriority priority : values()) {
+            if (priority.key.equals(key)) {
+                return priority;
+            }
+        }
+        return NORMAL;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * The ionice scheduling class, or 0 to leave the process's class alone.
+     */
+    public int getIoClass() {
+        return ioClass;
+    }
+
+    /**
+     * The priority within the best-effort class, from 0 (highest) to 7 (lowest).
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
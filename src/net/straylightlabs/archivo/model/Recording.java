@@ -76,6 +76,7 @@ public class Recording {
     // Combine season and episode number(s) into a more useful string
     private final String seasonAndEpisode;
     private FileType destinationType;
+    private List<ArchiveOutput> extraOutputs;
 
     public final static int DESIRED_IMAGE_WIDTH = 200;
     public final static int DESIRED_IMAGE_HEIGHT = 150;
@@ -111,6 +112,7 @@ public class Recording {
         dateArchived = new SimpleObjectProperty<>();
         status = new SimpleObjectProperty<>(ArchiveStatus.EMPTY);
         destination = new SimpleObjectProperty<>();
+        extraOutputs = Collections.emptyList();
         fileExistsAction = new SimpleObjectProperty<>(FileExistsAction.REPLACE);
         isArchivable = new SimpleBooleanProperty(isArchivable());
         isCancellable = new SimpleBooleanProperty(false);
@@ -303,6 +305,27 @@ public class Recording {
         destinationType = type;
     }
 
+    /**
+     * Files to create from this recording in addition to the one at getDestination().
+     */
+    public List<ArchiveOutput> getExtraOutputs() {
+        return extraOutputs;
+    }
+
+    public void setExtraOutputs(List<ArchiveOutput> outputs) {
+        extraOutputs = Collections.unmodifiableList(new ArrayList<>(outputs));
+    }
+
+    /**
+     * Every file to create from this recording, starting with the one at getDestination().
+     */
+    public List<ArchiveOutput> getOutputs() {
+        List<ArchiveOutput> outputs = new ArrayList<>();
+        outputs.add(new ArchiveOutput(getDestination(), destinationType));
+        outputs.addAll(extraOutputs);
+        return outputs;
+    }
+
     public ObjectProperty<FileExistsAction> fileExistsActionProperty() {
         return fileExistsAction;
     }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.model;
+
+/**
+ * Which tool repairs the timestamps of downloaded recordings.
+ */
+public enum RemuxEngine {
+    NATIVE("Built-in remuxer (experimental)", "native"),
+    FFMPEG("FFmpeg", "ffmpeg");
+
+    private final String label;
+    private final String key;
+
+    RemuxEngine(String label, String key) {
+        this.label = label;
+        this.key = key;
+    }
+
+    public static RemuxEngine fromKey(String key) {
+        for (RemuxEngine engine : values()) {
+            if (engine.key.equals(key)) {
+                return engine;
+            }
+        }
+        return FFMPEG;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.model;
+
+/**
+ * The limits we place on the external tools a stage runs, so they don't compete with downloads and the UI.
+ */
+public class ResourcePolicy {
+    private final int niceness;
+    private final IoPriority ioPriority;
+    private final String cpuSet;
+    private final int cpuQuotaPercent;
+    private final int memoryLimitMB;
+
+    public static final ResourcePolicy NONE = new ResourcePolicy(0, IoPriority.NORMAL, "", 0, 0);
+
+    /**
+     * @param niceness        Scheduling priority from 0 (normal) to 19 (lowest)
+     * @param ioPriority      Disk scheduling priority
+     * @param cpuSet          Processors the tool may run on, in taskset's list format (e.g. "2-7"); empty for any
+     * @param cpuQuotaPercent CPU time the tool may use, where 100 is one full processor; 0 for no limit
+     * @param memoryLimitMB   Memory the tool may use before the system reclaims it; 0 for no limit
+     */
+    public ResourcePolicy(int niceness, IoPriority ioPriority, String cpuSet, int cpuQuotaPercent, int memoryLimitMB) {
+        this.niceness = Math.max(0, Math.min(niceness, 19));
+        this.ioPriority = ioPriority;
+        this.cpuSet = cpuSet.trim();
+        this.cpuQuotaPercent = Math.max(cpuQuotaPercent, 0);
+        this.memoryLimitMB = Math.max(memoryLimitMB, 0);
+    }
+
+    public int getNiceness() {
+        return niceness;
+    }
+
+    public IoPriority getIoPriority() {
+        return ioPriority;
+    }
+
+    public String getCpuSet() {
+        return cpuSet;
+    }
+
+    public int getCpuQuotaPercent() {
+        return cpuQuotaPercent;
+    }
+
+    public int getMemoryLimitMB() {
+        return memoryLimitMB;
+    }
+
+    /**
+     * Returns true if this policy needs a cgroup to enforce its CPU or memory limits.
+     */
+    public boolean hasCgroupLimits() {
+        return cpuQuotaPercent > 0 || memoryLimitMB > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ResourcePolicy{" +
+                "niceness=" + niceness +
+                ", ioPriority=" + ioPriority.getKey() +
+                ", cpuSet='" + cpuSet + '\'' +
+                ", cpuQuotaPercent=" + cpuQuotaPercent +
+                ", memoryLimitMB=" + memoryLimitMB +
+                '}';
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.model;
+
+/**
+ * Which tool transcodes recordings.
+ */
+public enum TranscoderType {
+    HANDBRAKE("HandBrake", "handbrake"),
+    FFMPEG("FFmpeg", "ffmpeg");
+
+    private final String label;
+    private final String key;
+
+    TranscoderType(String label, String key) {
+        this.label = label;
+        this.key = key;
+    }
+
+    public static TranscoderType fromKey(String key) {
+        for (TranscoderType type : values()) {
+            if (type.key.equals(key)) {
+                return type;
+            }
+        }
+        return HANDBRAKE;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
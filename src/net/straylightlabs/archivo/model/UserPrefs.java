@@ -23,6 +23,7 @@ import javafx.application.Application;
 import javafx.beans.value.ChangeListener;
 import net.straylightlabs.archivo.Archivo;
 import net.straylightlabs.archivo.controller.MAKManager;
+import net.straylightlabs.archivo.utilities.OSHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,11 +34,13 @@ import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import java.util.prefs.Preferences;
+import java.util.stream.Collectors;
 
 import static net.straylightlabs.archivo.utilities.OSHelper.getArchSuffix;
 import static net.straylightlabs.archivo.utilities.OSHelper.getExeSuffix;
@@ -54,7 +57,13 @@ public class UserPrefs {
     private static final String MOST_RECENT_DEVICE = "lastTivo";
     private static final String MOST_RECENT_FOLDER = "lastFolder";
     private static final String MOST_RECENT_TYPE = "lastFileType";
+    private static final String EXTRA_FILE_TYPES = "extraFileTypes";
     private static final String SKIP_COMMERCIALS = "skipCommercials";
+    private static final String COMMERCIAL_CUT_MODE = "commercialCutMode";
+    private static final String DETECT_COMMERCIALS_DURING_DOWNLOAD = "detectCommercialsDuringDownload";
+    private static final String REMUX_ENGINE = "remuxEngine";
+    private static final String TRANSCODER = "transcoder";
+    private static final String COPY_COMPATIBLE_VIDEO = "copyCompatibleVideo";
     private static final String HARDWARE_ACCELERATION = "hardwareAcceleration";
     private static final String VIDEO_LIMIT = "maxVideoResolution";
     private static final String AUDIO_LIMIT = "maxAudioChannels";
@@ -78,8 +87,34 @@ public class UserPrefs {
     private static final String DURATION_COL_WIDTH = "durationColumnWidth";
     private static final String DATE_COL_WIDTH = "dateColumnWidth";
     private static final String STATUS_COL_WIDTH = "statusColumnWidth";
+    private static final String DOWNLOADS_PER_TIVO = "maxDownloadsPerTivo";
+    private static final String MAX_DOWNLOADS = "maxConcurrentDownloads";
+    private static final String PROCESSING_THREADS = "processingThreads";
+    private static final String PROCESSING_IO_SLOTS = "processingIOSlots";
+    private static final String STAGE_WORKERS = "stageWorkers_";
+    private static final String STAGE_QUEUE_SIZE = "stageQueueSize_";
+    private static final String TRANSCODE_CHUNKS = "transcodeChunks";
+    private static final String ARTIFACT_CACHE_SIZE = "artifactCacheSizeMB";
+    private static final String SCRATCH_DIRECTORIES = "scratchDirectories";
+    private static final String SCRATCH_MIN_FREE = "scratchMinFreeMB";
+    private static final String DELIVERY_BANDWIDTH = "deliveryBandwidthMBps";
+    private static final String PROCESS_STALL_MINUTES = "processStallMinutes";
+    private static final String STAGE_NICENESS = "stageNiceness_";
+    private static final String STAGE_IO_PRIORITY = "stageIoPriority_";
+    private static final String STAGE_CPU_SET = "stageCpuSet_";
+    private static final String STAGE_CPU_QUOTA = "stageCpuQuota_";
+    private static final String STAGE_MEMORY_LIMIT = "stageMemoryLimitMB_";
+    private static final String PROCESS_TIME_LIMIT_HOURS = "processTimeLimitHours";
 
     private static final String DEFAULT_TOOLDIR = ".";
+    private static final int DEFAULT_DOWNLOADS_PER_TIVO = 1;
+    private static final int DEFAULT_MAX_DOWNLOADS = 4;
+    private static final int DEFAULT_PROCESSING_IO_SLOTS = 2;
+    private static final int DEFAULT_TRANSCODE_CHUNKS = 1;
+    private static final int DEFAULT_ARTIFACT_CACHE_SIZE = 20 * 1024; // 20 GB
+    private static final int DEFAULT_SCRATCH_MIN_FREE = 2 * 1024; // 2 GB
+    private static final int DEFAULT_PROCESS_STALL_MINUTES = 10;
+    private static final int DEFAULT_PROCESS_TIME_LIMIT_HOURS = 12;
 
     public UserPrefs() {
         tooldir = DEFAULT_TOOLDIR;
@@ -135,6 +170,59 @@ public class UserPrefs {
         prefs.putBoolean(SKIP_COMMERCIALS, val);
     }
 
+    /**
+     * Start looking for commercials while a recording is still downloading, instead of waiting for it to finish.
+     */
+    public synchronized boolean getDetectCommercialsDuringDownload() {
+        return prefs.getBoolean(DETECT_COMMERCIALS_DURING_DOWNLOAD, true);
+    }
+
+    public synchronized void setDetectCommercialsDuringDownload(boolean val) {
+        prefs.putBoolean(DETECT_COMMERCIALS_DURING_DOWNLOAD, val);
+    }
+
+    /**
+     * When a recording's video already suits the chosen file type, copy it into the output file instead of
+     * re-encoding it.
+     */
+    public synchronized boolean getCopyCompatibleVideo() {
+        return prefs.getBoolean(COPY_COMPATIBLE_VIDEO, true);
+    }
+
+    public synchronized void setCopyCompatibleVideo(boolean val) {
+        prefs.putBoolean(COPY_COMPATIBLE_VIDEO, val);
+    }
+
+    /**
+     * The built-in splicer is opt-in: it doesn't rewrite timestamps across its cuts, so some players stall at them.
+     */
+    public synchronized CommercialCutMode getCommercialCutMode() {
+        return CommercialCutMode.fromKey(prefs.get(COMMERCIAL_CUT_MODE, CommercialCutMode.SINGLE_PASS.getKey()));
+    }
+
+    public synchronized void setCommercialCutMode(CommercialCutMode mode) {
+        prefs.put(COMMERCIAL_CUT_MODE, mode.getKey());
+    }
+
+    /**
+     * The built-in remuxer is opt-in until it has seen as many broken recordings as FFmpeg has.
+     */
+    public synchronized RemuxEngine getRemuxEngine() {
+        return RemuxEngine.fromKey(prefs.get(REMUX_ENGINE, RemuxEngine.FFMPEG.getKey()));
+    }
+
+    public synchronized void setRemuxEngine(RemuxEngine engine) {
+        prefs.put(REMUX_ENGINE, engine.getKey());
+    }
+
+    public synchronized TranscoderType getTranscoder() {
+        return TranscoderType.fromKey(prefs.get(TRANSCODER, TranscoderType.HANDBRAKE.getKey()));
+    }
+
+    public synchronized void setTranscoder(TranscoderType type) {
+        prefs.put(TRANSCODER, type.getKey());
+    }
+
     public synchronized boolean getHardwareAcceleration() {
         return prefs.getBoolean(HARDWARE_ACCELERATION, true);
     }
@@ -212,6 +300,29 @@ public class UserPrefs {
         prefs.put(MOST_RECENT_TYPE, type.getDescription());
     }
 
+    /**
+     * File types to create alongside the one the user picks for each recording, so a single download can produce
+     * copies for several devices.
+     */
+    public synchronized List<FileType> getExtraFileTypes() {
+        List<FileType> types = new ArrayList<>();
+        for (String description : prefs.get(EXTRA_FILE_TYPES, "").split("\\|")) {
+            if (description.isEmpty()) {
+                continue;
+            }
+            try {
+                types.add(FileType.fromDescription(description));
+            } catch (IllegalArgumentException e) {
+                logger.error("Ignoring unknown extra file type '{}'", description);
+            }
+        }
+        return types;
+    }
+
+    public synchronized void setExtraFileTypes(List<FileType> types) {
+        prefs.put(EXTRA_FILE_TYPES, types.stream().map(FileType::getDescription).collect(Collectors.joining("|")));
+    }
+
     public boolean isWindowMaximized() {
         return prefs.getBoolean(WINDOW_MAXIMIZED, false);
     }
@@ -305,6 +416,184 @@ public class UserPrefs {
         ));
     }
 
+    /**
+     * The number of recordings we'll download from a single TiVo at the same time.
+     */
+    public synchronized int getMaxDownloadsPerTivo() {
+        return prefs.getInt(DOWNLOADS_PER_TIVO, sysPrefs.getInt(DOWNLOADS_PER_TIVO, DEFAULT_DOWNLOADS_PER_TIVO));
+    }
+
+    public synchronized void setMaxDownloadsPerTivo(int val) {
+        prefs.putInt(DOWNLOADS_PER_TIVO, val);
+    }
+
+    /**
+     * The number of recordings we'll download at the same time, across all TiVos.
+     */
+    public synchronized int getMaxConcurrentDownloads() {
+        return prefs.getInt(MAX_DOWNLOADS, sysPrefs.getInt(MAX_DOWNLOADS, DEFAULT_MAX_DOWNLOADS));
+    }
+
+    public synchronized void setMaxConcurrentDownloads(int val) {
+        prefs.putInt(MAX_DOWNLOADS, val);
+    }
+
+    /**
+     * The number of processor threads to share between all of the recordings we're processing.
+     */
+    public synchronized int getProcessingThreads() {
+        return prefs.getInt(PROCESSING_THREADS, sysPrefs.getInt(PROCESSING_THREADS, OSHelper.getProcessorThreads()));
+    }
+
+    public synchronized void setProcessingThreads(int val) {
+        prefs.putInt(PROCESSING_THREADS, val);
+    }
+
+    /**
+     * The number of disk-heavy processing stages (e.g., remuxing) to run at the same time.
+     */
+    public synchronized int getProcessingIOSlots() {
+        return prefs.getInt(PROCESSING_IO_SLOTS, sysPrefs.getInt(PROCESSING_IO_SLOTS, DEFAULT_PROCESSING_IO_SLOTS));
+    }
+
+    public synchronized void setProcessingIOSlots(int val) {
+        prefs.putInt(PROCESSING_IO_SLOTS, val);
+    }
+
+    /**
+     * The number of pieces to split each recording into and transcode in parallel; 1 transcodes the whole file in a
+     * single pass.
+     */
+    public synchronized int getTranscodeChunks() {
+        return prefs.getInt(TRANSCODE_CHUNKS, sysPrefs.getInt(TRANSCODE_CHUNKS, DEFAULT_TRANSCODE_CHUNKS));
+    }
+
+    public synchronized void setTranscodeChunks(int val) {
+        prefs.putInt(TRANSCODE_CHUNKS, val);
+    }
+
+    /**
+     * The disk space, in MB, we may use to keep intermediate files for re-archiving recordings; 0 disables the cache.
+     */
+    public synchronized int getArtifactCacheSizeMB() {
+        return prefs.getInt(ARTIFACT_CACHE_SIZE, sysPrefs.getInt(ARTIFACT_CACHE_SIZE, DEFAULT_ARTIFACT_CACHE_SIZE));
+    }
+
+    public synchronized void setArtifactCacheSizeMB(int val) {
+        prefs.putInt(ARTIFACT_CACHE_SIZE, val);
+    }
+
+    /**
+     * Folders for intermediate files, such as a fast local disk; when empty, they go next to each destination file.
+     */
+    public synchronized List<Path> getScratchDirectories() {
+        List<Path> directories = new ArrayList<>();
+        for (String directory : prefs.get(SCRATCH_DIRECTORIES, sysPrefs.get(SCRATCH_DIRECTORIES, "")).split("\\|")) {
+            if (!directory.isEmpty()) {
+                directories.add(Paths.get(directory));
+            }
+        }
+        return directories;
+    }
+
+    public synchronized void setScratchDirectories(List<Path> directories) {
+        prefs.put(SCRATCH_DIRECTORIES, directories.stream().map(Path::toString).collect(Collectors.joining("|")));
+    }
+
+    /**
+     * The disk space, in MB, to leave free on each disk that holds intermediate files.
+     */
+    public synchronized int getScratchMinFreeMB() {
+        return prefs.getInt(SCRATCH_MIN_FREE, sysPrefs.getInt(SCRATCH_MIN_FREE, DEFAULT_SCRATCH_MIN_FREE));
+    }
+
+    public synchronized void setScratchMinFreeMB(int val) {
+        prefs.putInt(SCRATCH_MIN_FREE, val);
+    }
+
+    /**
+     * The most data, in MB per second, to copy when moving finished files to their destination; 0 means no limit.
+     */
+    public synchronized int getDeliveryBandwidthMBps() {
+        return prefs.getInt(DELIVERY_BANDWIDTH, sysPrefs.getInt(DELIVERY_BANDWIDTH, 0));
+    }
+
+    public synchronized void setDeliveryBandwidthMBps(int val) {
+        prefs.putInt(DELIVERY_BANDWIDTH, val);
+    }
+
+    /**
+     * How long a tool may go without printing anything before we assume it's hung and stop it; 0 waits forever.
+     */
+    public synchronized int getProcessStallMinutes() {
+        return prefs.getInt(PROCESS_STALL_MINUTES,
+                sysPrefs.getInt(PROCESS_STALL_MINUTES, DEFAULT_PROCESS_STALL_MINUTES));
+    }
+
+    public synchronized void setProcessStallMinutes(int val) {
+        prefs.putInt(PROCESS_STALL_MINUTES, val);
+    }
+
+    /**
+     * The longest a single tool may run before we stop it; 0 removes the limit.
+     */
+    public synchronized int getProcessTimeLimitHours() {
+        return prefs.getInt(PROCESS_TIME_LIMIT_HOURS,
+                sysPrefs.getInt(PROCESS_TIME_LIMIT_HOURS, DEFAULT_PROCESS_TIME_LIMIT_HOURS));
+    }
+
+    public synchronized void setProcessTimeLimitHours(int val) {
+        prefs.putInt(PROCESS_TIME_LIMIT_HOURS, val);
+    }
+
+    /**
+     * The number of recordings @stage works on at the same time.
+     */
+    public synchronized int getStageWorkers(ArchiveStage stage) {
+        String key = STAGE_WORKERS + stage.name();
+        return prefs.getInt(key, sysPrefs.getInt(key, stage.getDefaultWorkers()));
+    }
+
+    public synchronized void setStageWorkers(ArchiveStage stage, int val) {
+        prefs.putInt(STAGE_WORKERS + stage.name(), val);
+    }
+
+    /**
+     * The number of recordings that may wait in front of @stage.
+     */
+    public synchronized int getStageQueueSize(ArchiveStage stage) {
+        String key = STAGE_QUEUE_SIZE + stage.name();
+        return prefs.getInt(key, sysPrefs.getInt(key, stage.getDefaultQueueSize()));
+    }
+
+    public synchronized void setStageQueueSize(ArchiveStage stage, int val) {
+        prefs.putInt(STAGE_QUEUE_SIZE + stage.name(), val);
+    }
+
+    /**
+     * The priorities and limits to run @stage's external tools with. Only niceness applies outside of Linux.
+     */
+    public synchronized ResourcePolicy getResourcePolicy(ArchiveStage stage) {
+        String name = stage.name();
+        return new ResourcePolicy(
+                prefs.getInt(STAGE_NICENESS + name, sysPrefs.getInt(STAGE_NICENESS + name, stage.getDefaultNiceness())),
+                IoPriority.fromKey(prefs.get(STAGE_IO_PRIORITY + name,
+                        sysPrefs.get(STAGE_IO_PRIORITY + name, stage.getDefaultIoPriority().getKey()))),
+                prefs.get(STAGE_CPU_SET + name, sysPrefs.get(STAGE_CPU_SET + name, "")),
+                prefs.getInt(STAGE_CPU_QUOTA + name, sysPrefs.getInt(STAGE_CPU_QUOTA + name, 0)),
+                prefs.getInt(STAGE_MEMORY_LIMIT + name, sysPrefs.getInt(STAGE_MEMORY_LIMIT + name, 0))
+        );
+    }
+
+    public synchronized void setResourcePolicy(ArchiveStage stage, ResourcePolicy policy) {
+        String name = stage.name();
+        prefs.putInt(STAGE_NICENESS + name, policy.getNiceness());
+        prefs.put(STAGE_IO_PRIORITY + name, policy.getIoPriority().getKey());
+        prefs.put(STAGE_CPU_SET + name, policy.getCpuSet());
+        prefs.putInt(STAGE_CPU_QUOTA + name, policy.getCpuQuotaPercent());
+        prefs.putInt(STAGE_MEMORY_LIMIT + name, policy.getMemoryLimitMB());
+    }
+
     public synchronized NetInterface getNetworkInterface() {
         int hardwareAddressHash = prefs.getInt(NETWORK_INTERFACE, sysPrefs.getInt(
                 NETWORK_INTERFACE, NetInterface.DEFAULT_MACHINE_REPRESENTATION.hashCode())
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.model;
+
+import java.util.Map;
+
+/**
+ * The most demanding H.264 video a file type's target devices can play, taken from the HandBrake settings we'd use
+ * to create it. Video within these limits can be copied into the output file instead of being re-encoded.
+ */
+public class VideoLimits {
+    private final int maxProfile;
+    private final int maxLevel;
+    private final int maxWidth;
+    private final int maxHeight;
+    private final double maxFrameRate;
+    private final boolean progressiveOnly;
+
+    private static final int PROFILE_BASELINE = 66;
+    private static final int PROFILE_MAIN = 77;
+    private static final int PROFILE_HIGH = 100;
+    private static final double FRAME_RATE_TOLERANCE = 0.01;
+
+    private VideoLimits(int maxProfile, int maxLevel, int maxWidth, int maxHeight, double maxFrameRate,
+                        boolean progressiveOnly) {
+        this.maxProfile = maxProfile;
+        this.maxLevel = maxLevel;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.maxFrameRate = maxFrameRate;
+        this.progressiveOnly = progressiveOnly;
+    }
+
+    /**
+     * Build the limits implied by @args, or return null if they don't describe an H.264 encode.
+     */
+    public static VideoLimits fromHandbrakeArgs(Map<String, String> args) {
+        if (!"x264".equals(args.get("-e"))) {
+            return null;
+        }
+        int profile = parseProfile(args.getOrDefault("--h264-profile", "high"));
+        int level = (int) Math.round(parseDouble(args.get("--h264-level"), 5.1) * 10);
+        int width = (int) parseDouble(args.get("-X"), Integer.MAX_VALUE);
+        int height = (int) parseDouble(args.get("-Y"), Integer.MAX_VALUE);
+        // -r sets a peak frame rate when paired with --pfr, and a constant one otherwise
+        double frameRate = parseDouble(args.get("-r"), 0);
+        boolean deinterlace = args.keySet().stream().anyMatch(arg -> arg.startsWith("--decomb") ||
+                arg.startsWith("--deinterlace") || arg.equals("-5") || arg.equals("-d"));
+        return new VideoLimits(profile, level, width, height, frameRate, deinterlace);
+    }
+
+    private static int parseProfile(String profile) {
+        switch (profile.toLowerCase()) {
+            case "baseline":
+                return PROFILE_BASELINE;
+            case "main":
+                return PROFILE_MAIN;
+            default:
+                return PROFILE_HIGH;
+        }
+    }
+
+    private static double parseDouble(String value, double defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns true if H.264 video with these properties can be played without re-encoding.
+     *
+     * @param profile   profile_idc from the stream's sequence parameter set
+     * @param level     level_idc from the stream's sequence parameter set
+     * @param frameRate frames per second, or 0 if unknown
+     */
+    public boolean allowsH264(int profile, int level, int width, int height, boolean interlaced, double frameRate) {
+        if (getProfileRank(profile) > getProfileRank(maxProfile) || level > maxLevel) {
+            return false;
+        } else if (width > maxWidth || height > maxHeight) {
+            return false;
+        } else if (interlaced && progressiveOnly) {
+            return false;
+        } else if (maxFrameRate > 0 && (frameRate <= 0 || frameRate > maxFrameRate + FRAME_RATE_TOLERANCE)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Order the profiles by the decoder features they need; anything beyond High (e.g., 10-bit or 4:2:2) ranks last.
+     */
+    private static int getProfileRank(int profile) {
+        switch (profile) {
+            case PROFILE_BASELINE:
+                return 0;
+            case PROFILE_MAIN:
+                return 1;
+            case PROFILE_HIGH:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "VideoLimits{" +
+                "maxProfile=" + maxProfile +
+                ", maxLevel=" + maxLevel +
+                ", maxWidth=" + maxWidth +
+                ", maxHeight=" + maxHeight +
+                ", maxFrameRate=" + maxFrameRate +
+                ", progressiveOnly=" + progressiveOnly +
+                '}';
+    }
+}
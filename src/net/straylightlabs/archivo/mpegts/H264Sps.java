@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.mpegts;
+
+/**
+ * Read the fields we care about from an H.264 sequence parameter set (ITU-T H.264 section 7.3.2.1).
+ */
+class H264Sps {
+    private final byte[] rbsp;
+    private final int length;
+    private int bitPosition;
+
+    private static final int NAL_HEADER_SIZE = 1;
+    private static final int ASPECT_RATIO_EXTENDED_SAR = 255;
+
+    /**
+     * @param nal A NAL unit, starting with its header byte and without the start code
+     */
+    private H264Sps(byte[] nal, int offset, int end) {
+        // Drop the emulation prevention bytes (00 00 03 -> 00 00)
+        rbsp = new byte[end - offset];
+        int n = 0;
+        int zeros = 0;
+        for (int i = offset + NAL_HEADER_SIZE; i < end; i++) {
+            int b = nal[i] & 0xFF;
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            rbsp[n++] = (byte) b;
+        }
+        length = n;
+    }
+
+    /**
+     * Parse the SPS NAL unit between @offset and @end and store the video's format in @info.
+     *
+     * @return false if the SPS was truncated or malformed
+     */
+    static boolean parse(byte[] nal, int offset, int end, MediaInfo info) {
+        try {
+            new H264Sps(nal, offset, end).parseInto(info);
+            return true;
+        } catch (IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    private void parseInto(MediaInfo info) {
+        int profileIdc = readBits(8);
+        readBits(8); // constraint flags
+        int levelIdc = readBits(8);
+        readUnsignedExpGolomb(); // seq_parameter_set_id
+        int chromaFormatIdc = 1;
+        boolean separateColourPlane = false;
+        if (hasChromaInfo(profileIdc)) {
+            chromaFormatIdc = readUnsignedExpGolomb();
+            if (chromaFormatIdc == 3) {
+                separateColourPlane = readBits(1) == 1;
+            }
+            readUnsignedExpGolomb(); // bit_depth_luma_minus8
+            readUnsignedExpGolomb(); // bit_depth_chroma_minus8
+            readBits(1); // qpprime_y_zero_transform_bypass_flag
+            if (readBits(1) == 1) { // seq_scaling_matrix_present_flag
+                int lists = chromaFormatIdc != 3 ? 8 : 12;
+                for (int i = 0; i < lists; i++) {
+                    if (readBits(1) == 1) {
+                        skipScalingList(i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+        readUnsignedExpGolomb(); // log2_max_frame_num_minus4
+        int picOrderCountType = readUnsignedExpGolomb();
+        if (picOrderCountType == 0) {
+            readUnsignedExpGolomb(); // log2_max_pic_order_cnt_lsb_minus4
+        } else if (picOrderCountType == 1) {
+            readBits(1); // delta_pic_order_always_zero_flag
+            readSignedExpGolomb(); // offset_for_non_ref_pic
+            readSignedExpGolomb(); // offset_for_top_to_bottom_field
+            int cycleLength = readUnsignedExpGolomb();
+            for (int i = 0; i < cycleLength; i++) {
+                readSignedExpGolomb();
+            }
+        }
+        readUnsignedExpGolomb(); // max_num_ref_frames
+        readBits(1); // gaps_in_frame_num_value_allowed_flag
+        int widthInMbs = readUnsignedExpGolomb() + 1;
+        int heightInMapUnits = readUnsignedExpGolomb() + 1;
+        boolean frameMbsOnly = readBits(1) == 1;
+        if (!frameMbsOnly) {
+            readBits(1); // mb_adaptive_frame_field_flag
+        }
+        readBits(1); // direct_8x8_inference_flag
+
+        int width = widthInMbs * 16;
+        int height = (frameMbsOnly ? 1 : 2) * heightInMapUnits * 16;
+        if (readBits(1) == 1) { // frame_cropping_flag
+            int arrayType = separateColourPlane ? 0 : chromaFormatIdc;
+            int cropUnitX = arrayType == 0 ? 1 : (arrayType == 3 ? 1 : 2);
+            int cropUnitY = (frameMbsOnly ? 1 : 2) * (arrayType == 0 ? 1 : (arrayType == 1 ? 2 : 1));
+            width -= cropUnitX * (readUnsignedExpGolomb() + readUnsignedExpGolomb());
+            height -= cropUnitY * (readUnsignedExpGolomb() + readUnsignedExpGolomb());
+        }
+
+        double frameRate = 0;
+        if (readBits(1) == 1) { // vui_parameters_present_flag
+            frameRate = readVuiFrameRate();
+        }
+        info.setVideoFormat(profileIdc, levelIdc, width, height, !frameMbsOnly, frameRate);
+    }
+
+    private static boolean hasChromaInfo(int profileIdc) {
+        switch (profileIdc) {
+            case 100:
+            case 110:
+            case 122:
+            case 244:
+            case 44:
+            case 83:
+            case 86:
+            case 118:
+            case 128:
+            case 138:
+            case 139:
+            case 134:
+            case 135:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void skipScalingList(int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int i = 0; i < size && nextScale != 0; i++) {
+            nextScale = (lastScale + readSignedExpGolomb() + 256) % 256;
+            lastScale = nextScale == 0 ? lastScale : nextScale;
+        }
+    }
+
+    /**
+     * Skip ahead to the VUI timing information and return the frame rate it describes, or 0 if it's missing.
+     */
+    private double readVuiFrameRate() {
+        if (readBits(1) == 1 && readBits(8) == ASPECT_RATIO_EXTENDED_SAR) { // aspect_ratio_info_present_flag
+            readBits(16); // sar_width
+            readBits(16); // sar_height
+        }
+        if (readBits(1) == 1) { // overscan_info_present_flag
+            readBits(1); // overscan_appropriate_flag
+        }
+        if (readBits(1) == 1) { // video_signal_type_present_flag
+            readBits(4); // video_format, video_full_range_flag
+            if (readBits(1) == 1) { // colour_description_present_flag
+                readBits(24); // colour_primaries, transfer_characteristics, matrix_coefficients
+            }
+        }
+        if (readBits(1) == 1) { // chroma_loc_info_present_flag
+            readUnsignedExpGolomb();
+            readUnsignedExpGolomb();
+        }
+        if (readBits(1) == 1) { // timing_info_present_flag
+            long unitsInTick = readBits(32) & 0xFFFFFFFFL;
+            long timeScale = readBits(32) & 0xFFFFFFFFL;
+            if (unitsInTick > 0) {
+                // Each frame is two ticks
+                return timeScale / (2.0 * unitsInTick);
+            }
+        }
+        return 0;
+    }
+
+    private int readBits(int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            if (bitPosition >= length * 8) {
+                throw new IndexOutOfBoundsException("Read past the end of the SPS");
+            }
+            int bit = (rbsp[bitPosition >> 3] >> (7 - (bitPosition & 7))) & 1;
+            value = (value << 1) | bit;
+            bitPosition++;
+        }
+        return value;
+    }
+
+    private int readUnsignedExpGolomb() {
+        int leadingZeros = 0;
+        while (readBits(1) == 0) {
+            if (++leadingZeros > 31) {
+                throw new IndexOutOfBoundsException("Invalid Exp-Golomb code");
+            }
+        }
+        return (int) ((1L << leadingZeros) - 1 + (leadingZeros > 0 ? readBits(leadingZeros) & 0xFFFFFFFFL : 0));
+    }
+
+    private int readSignedExpGolomb() {
+        int codeNum = readUnsignedExpGolomb();
+        return (codeNum & 1) == 1 ? (codeNum + 1) / 2 : -(codeNum / 2);
+    }
+}
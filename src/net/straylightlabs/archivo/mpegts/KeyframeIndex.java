@@ -0,0 +1,286 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.mpegts;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Map the video keyframes of a transport stream to the byte offsets of the packets that start them.
+ * Timestamps are 90 kHz PTS values, unwrapped so they always increase. The index also records when each
+ * elementary stream starts, and can be saved alongside the file it describes so later stages don't need to
+ * re-scan it.
+ */
+public class KeyframeIndex {
+    private final long sourceLength;
+    private final Map<Integer, Integer> streamTypes;
+    private final Map<Integer, Long> streamStartPts;
+    private final int videoPid;
+    private final int pcrPid;
+    private final long patOffset;
+    private final long pmtOffset;
+    private final long videoStartPts;
+    private final long[] offsets;
+    private final long[] timestamps;
+
+    public static final int TICKS_PER_SECOND = 90000;
+
+    private static final int SCAN_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int FILE_MAGIC = 0x41494458; // "AIDX"
+    private static final int FILE_VERSION = 1;
+    private static final String SIDECAR_EXTENSION = ".idx";
+
+    private final static Logger logger = LoggerFactory.getLogger(KeyframeIndex.class);
+
+    KeyframeIndex(long sourceLength, Map<Integer, Integer> streamTypes, Map<Integer, Long> streamStartPts,
+                  int videoPid, int pcrPid, long patOffset, long pmtOffset, long videoStartPts, long[] offsets,
+                  long[] timestamps) {
+        this.sourceLength = sourceLength;
+        this.streamTypes = streamTypes != null ? new LinkedHashMap<>(streamTypes) : Collections.emptyMap();
+        this.streamStartPts = new HashMap<>(streamStartPts);
+        this.videoPid = videoPid;
+        this.pcrPid = pcrPid;
+        this.patOffset = patOffset;
+        this.pmtOffset = pmtOffset;
+        this.videoStartPts = videoStartPts;
+        this.offsets = offsets;
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Build an index by reading all of @file.
+     */
+    public static KeyframeIndex scan(Path file) throws IOException {
+        TsIndexer indexer = new TsIndexer();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+            for (int bytesRead = channel.read(buffer); bytesRead >= 0; bytesRead = channel.read(buffer)) {
+                indexer.write(buffer.array(), 0, bytesRead);
+                buffer.clear();
+            }
+        }
+        return indexer.finish();
+    }
+
+    /**
+     * Returns the path of the sidecar index for @tsFile.
+     */
+    public static Path sidecarFor(Path tsFile) {
+        return tsFile.resolveSibling(tsFile.getFileName().toString() + SIDECAR_EXTENSION);
+    }
+
+    /**
+     * Load the sidecar index for @tsFile, if there is one and it still describes the file.
+     *
+     * @return the index, or null if it's missing or out of date
+     */
+    public static KeyframeIndex loadFor(Path tsFile) {
+        Path indexFile = sidecarFor(tsFile);
+        KeyframeIndex index = loadFrom(indexFile);
+        try {
+            if (index != null && Files.size(tsFile) != index.sourceLength) {
+                logger.info("Index {} is out of date", indexFile);
+                return null;
+            }
+        } catch (IOException e) {
+            logger.error("Error checking size of {}: ", tsFile, e);
+            return null;
+        }
+        return index;
+    }
+
+    /**
+     * Load the index saved at @indexFile.
+     *
+     * @return the index, or null if it's missing or can't be read
+     */
+    public static KeyframeIndex loadFrom(Path indexFile) {
+        if (!Files.isRegularFile(indexFile)) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+                logger.warn("Index {} has an unknown format", indexFile);
+                return null;
+            }
+            long sourceLength = input.readLong();
+            int videoPid = input.readInt();
+            int pcrPid = input.readInt();
+            long patOffset = input.readLong();
+            long pmtOffset = input.readLong();
+            long videoStartPts = input.readLong();
+            Map<Integer, Integer> streamTypes = new LinkedHashMap<>();
+            for (int i = input.readInt(); i > 0; i--) {
+                streamTypes.put(input.readInt(), input.readInt());
+            }
+            Map<Integer, Long> streamStartPts = new HashMap<>();
+            for (int i = input.readInt(); i > 0; i--) {
+                streamStartPts.put(input.readInt(), input.readLong());
+            }
+            int count = input.readInt();
+            long[] offsets = new long[count];
+            long[] timestamps = new long[count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = input.readLong();
+                timestamps[i] = input.readLong();
+            }
+            return new KeyframeIndex(sourceLength, streamTypes, streamStartPts, videoPid, pcrPid, patOffset,
+                    pmtOffset, videoStartPts, offsets, timestamps);
+        } catch (IOException e) {
+            logger.error("Error loading index {}: ", indexFile, e);
+            return null;
+        }
+    }
+
+    public void saveTo(Path indexFile) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeLong(sourceLength);
+            output.writeInt(videoPid);
+            output.writeInt(pcrPid);
+            output.writeLong(patOffset);
+            output.writeLong(pmtOffset);
+            output.writeLong(videoStartPts);
+            output.writeInt(streamTypes.size());
+            for (Map.Entry<Integer, Integer> entry : streamTypes.entrySet()) {
+                output.writeInt(entry.getKey());
+                output.writeInt(entry.getValue());
+            }
+            output.writeInt(streamStartPts.size());
+            for (Map.Entry<Integer, Long> entry : streamStartPts.entrySet()) {
+                output.writeInt(entry.getKey());
+                output.writeLong(entry.getValue());
+            }
+            output.writeInt(offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                output.writeLong(offsets[i]);
+                output.writeLong(timestamps[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns how far the first video stream starts after the first audio stream, in seconds (never negative).
+     * This matches what we'd compute from ffprobe's start_time values.
+     */
+    public OptionalDouble getVideoOffsetFromAudio() {
+        Long videoStart = getFirstStreamStart(ProgramInfo::isVideoStreamType);
+        Long audioStart = getFirstStreamStart(ProgramInfo::isAudioStreamType);
+        if (videoStart == null || audioStart == null) {
+            return OptionalDouble.empty();
+        }
+        return OptionalDouble.of(Math.max(videoStart - audioStart, 0) / (double) TICKS_PER_SECOND);
+    }
+
+    private Long getFirstStreamStart(IntPredicate isStreamType) {
+        return streamTypes.entrySet().stream().filter(e -> isStreamType.test(e.getValue()))
+                .map(e -> streamStartPts.get(e.getKey())).filter(Objects::nonNull).findFirst().orElse(null);
+    }
+
+    /**
+     * Returns true if we found a video stream with at least one keyframe.
+     */
+    public boolean isUsable() {
+        return videoPid >= 0 && offsets.length > 0 && patOffset >= 0 && pmtOffset >= 0;
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    public long getVideoStartPts() {
+        return videoStartPts;
+    }
+
+    /**
+     * Returns the offset of the last keyframe at or before @pts, or of the first keyframe if @pts precedes it.
+     */
+    public long findKeyframeAtOrBefore(long pts) {
+        int found = 0;
+        for (int i = 0; i < timestamps.length && timestamps[i] <= pts; i++) {
+            found = i;
+        }
+        return offsets[found];
+    }
+
+    /**
+     * Returns the offset of the first keyframe at or after @pts, or -1 if there isn't one.
+     */
+    public long findKeyframeAtOrAfter(long pts) {
+        for (int i = 0; i < timestamps.length; i++) {
+            if (timestamps[i] >= pts) {
+                return offsets[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the offsets that divide @fileSize bytes into at most @parts pieces of roughly equal duration. Each piece
+     * begins on a keyframe; the first starts at 0 and the last ends at the final whole packet of the file.
+     */
+    public long[] findSplitPoints(int parts, long fileSize) {
+        List<Long> points = new ArrayList<>();
+        points.add(0L);
+        long first = timestamps[0];
+        long last = timestamps[timestamps.length - 1];
+        for (int part = 1; part < parts; part++) {
+            long offset = findKeyframeAtOrBefore(first + (last - first) * part / parts);
+            if (offset > points.get(points.size() - 1)) {
+                points.add(offset);
+            }
+        }
+        long end = fileSize - (fileSize % TsPacket.SIZE);
+        if (end > points.get(points.size() - 1)) {
+            points.add(end);
+        }
+        return points.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    Set<Integer> getElementaryPids() {
+        return Collections.unmodifiableSet(streamTypes.keySet());
+    }
+
+    int getVideoPid() {
+        return videoPid;
+    }
+
+    int getPcrPid() {
+        return pcrPid;
+    }
+
+    long getPatOffset() {
+        return patOffset;
+    }
+
+    long getPmtOffset() {
+        return pmtOffset;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.straylightlabs.archivo.mpegts;
+
+/**
+ * Describe the first video and audio streams of a transport stream: enough to decide whether a device can play the
+ * video as-is.
+ */
+public class MediaInfo {
+    private final VideoCodec videoCodec;
+    private final AudioCodec audioCodec;
+    private int profile;
+    private int level;
+    private int width;
+    private int height;
+    private boolean interlaced;
+    private double frameRate;
+
+    public enum VideoCodec {
+        MPEG2,
+        H264,
+        H265,
+        OTHER;
+
+        static VideoCodec fromStreamType(int streamType) {
+            switch (streamType) {
+                case 0x02:
+                    return MPEG2;
+                case 0x1B:
+                    return H264;
+                case 0x24:
+                    return H265;
+                default:
+                    return OTHER;
+            }
+        }
+    }
+
+    public enum AudioCodec {
+        AAC,
+        AC3,
+        MPEG,
+        NONE,
+        OTHER;
+
+        static AudioCodec fromStreamType(int streamType) {
+            switch (streamType) {
+                case 0x0F:
+                case 0x11:
+                    return AAC;
+                case 0x81:
+                    return AC3;
+                case 0x03:
+                case 0x04:
+                    return MPEG;
+                default:
+                    return OTHER;
+            }
+        }
+    }
+
+    MediaInfo(VideoCodec videoCodec, AudioCodec audioCodec) {
+        this.videoCodec = videoCodec;
+        this.audioCodec = audioCodec;
+    }
+
+    void setVideoFormat(int profile, int level, int width, int height, boolean interlaced, double frameRate) {
+        this.profile = profile;
+        this.level = level;
+        this.width = width;
+        this.height = height;
+        this.interlaced = interlaced;
+        this.frameRate = frameRate;
+    }
+
+    public VideoCodec getVideoCodec() {
+        return videoCodec;
+    }
+
+    public AudioCodec getAudioCodec() {
+        return audioCodec;
+    }
+
+    /**
+     * Returns the codec's profile number (for H.264, profile_idc: 66 for Baseline, 77 for Main, 100 for High),
+     * or 0 if we couldn't read the stream's parameters.
+     */
+    public int getProfile() {
+        return profile;
+    }
+
+    /**
+     * Returns the codec's level number (for H.264, 10 times the level, e.g. 41 for level 4.1).
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isInterlaced() {
+        return interlaced;
+    }
+
+    /**
+     * Returns the number of frames per second, or 0 if the stream doesn't say.
+     */
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * Returns true if we found the video stream's parameters.
+     */
+    public boolean hasVideoFormat() {
+        return profile > 0 && width > 0 && height > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "MediaInfo{" +
+                "videoCodec=" + videoCodec +
+                ", audioCodec=" + audioCodec +
+                ", profile=" + profile +
+                ", level=" + level +
+                ", width=" + width +
+                ", height=" + height +
+                ", interlaced=" + interlaced +
+                ", frameRate=" + frameRate +
+                '}';
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.mpegts;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The streams that make up the program in a transport stream, as described by its PAT and PMT.
+ */
+class ProgramInfo {
+    private final int pcrPid;
+    private final Map<Integer, Integer> streamTypes;
+
+    private static final int PAT_TABLE_ID = 0x00;
+    private static final int PMT_TABLE_ID = 0x02;
+    private static final int CRC_SIZE = 4;
+
+    private ProgramInfo(int pcrPid, Map<Integer, Integer> streamTypes) {
+        this.pcrPid = pcrPid;
+        this.streamTypes = streamTypes;
+    }
+
+    /**
+     * Returns the PID of the first program's PMT from the PAT in this packet, or -1 if it doesn't contain one.
+     */
+    static int parsePmtPid(byte[] buffer, int offset) {
+        int section = findSection(buffer, offset, PAT_TABLE_ID);
+        if (section < 0) {
+            return -1;
+        }
+        int end = Math.min(section + 3 + getSectionLength(buffer, section) - CRC_SIZE, offset + TsPacket.SIZE - 4);
+        for (int i = section + 8; i + 4 <= end; i += 4) {
+            int programNumber = ((buffer[i] & 0xFF) << 8) | (buffer[i + 1] & 0xFF);
+            if (programNumber != 0) {
+                return ((buffer[i + 2] & 0x1F) << 8) | (buffer[i + 3] & 0xFF);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse the PMT in this packet, or return null if it doesn't contain one.
+     */
+    static ProgramInfo parsePmt(byte[] buffer, int offset) {
+        int section = findSection(buffer, offset, PMT_TABLE_ID);
+        if (section < 0 || section + 12 > offset + TsPacket.SIZE) {
+            return null;
+        }
+        int end = Math.min(section + 3 + getSectionLength(buffer, section) - CRC_SIZE, offset + TsPacket.SIZE);
+        int pcrPid = ((buffer[section + 8] & 0x1F) << 8) | (buffer[section + 9] & 0xFF);
+        int programInfoLength = ((buffer[section + 10] & 0x0F) << 8) | (buffer[section + 11] & 0xFF);
+        Map<Integer, Integer> streamTypes = new LinkedHashMap<>();
+        for (int i = section + 12 + programInfoLength; i + 5 <= end; ) {
+            int streamType = buffer[i] & 0xFF;
+            int pid = ((buffer[i + 1] & 0x1F) << 8) | (buffer[i + 2] & 0xFF);
+            int esInfoLength = ((buffer[i + 3] & 0x0F) << 8) | (buffer[i + 4] & 0xFF);
+            streamTypes.put(pid, streamType);
+            i += 5 + esInfoLength;
+        }
+        return new ProgramInfo(pcrPid, streamTypes);
+    }
+
+    private static int findSection(byte[] buffer, int offset, int tableId) {
+        if (!TsPacket.isPayloadUnitStart(buffer, offset)) {
+            return -1;
+        }
+        int payload = TsPacket.getPayloadOffset(buffer, offset);
+        if (payload < 0) {
+            return -1;
+        }
+        int section = offset + payload + 1 + (buffer[offset + payload] & 0xFF); // skip the pointer field
+        if (section + 8 > offset + TsPacket.SIZE || (buffer[section] & 0xFF) != tableId) {
+            return -1;
+        }
+        return section;
+    }
+
+    private static int getSectionLength(byte[] buffer, int section) {
+        return ((buffer[section + 1] & 0x0F) << 8) | (buffer[section + 2] & 0xFF);
+    }
+
+    static boolean isVideoStreamType(int streamType) {
+        switch (streamType) {
+            case 0x01: // MPEG-1 video
+            case 0x02: // MPEG-2 video
+            case 0x1B: // H.264
+            case 0x24: // H.265
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static boolean isAudioStreamType(int streamType) {
+        switch (streamType) {
+            case 0x03: // MPEG-1 audio
+            case 0x04: // MPEG-2 audio
+            case 0x0F: // AAC
+            case 0x11: // AAC LATM
+            case 0x81: // AC-3
+            case 0x87: // E-AC-3
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    int getPcrPid() {
+        return pcrPid;
+    }
+
+    /**
+     * Returns the stream type of each elementary stream, keyed by PID.
+     */
+    Map<Integer, Integer> getStreamTypes() {
+        return Collections.unmodifiableMap(streamTypes);
+    }
+
+    /**
+     * Returns the PID of the first video stream, or -1 if there isn't one.
+     */
+    int getVideoPid() {
+        return streamTypes.entrySet().stream().filter(e -> isVideoStreamType(e.getValue()))
+                .map(Map.Entry::getKey).findFirst().orElse(-1);
+    }
+}
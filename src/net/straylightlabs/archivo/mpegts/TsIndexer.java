@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.mpegts;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Build a KeyframeIndex from transport stream data as it's written, in chunks of any size.
+ */
+public class TsIndexer {
+    private final byte[] pending;
+    private int pendingLength;
+    private long streamOffset; // offset of the next unprocessed byte
+    private int pmtPid;
+    private ProgramInfo program;
+    private int videoPid;
+    private int videoStreamType;
+    private long patOffset;
+    private long pmtOffset;
+    private long videoStartPts;
+    private long lastVideoPts;
+    private long ptsEpoch;
+    private long[] offsets;
+    private long[] timestamps;
+    private int count;
+    private final Map<Integer, Long> streamStartPts;
+    private final Map<Integer, Integer> streamPesCounts;
+
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final long PTS_WRAP = 1L << 33;
+    // Like ffprobe, look at the first few PES packets of each stream to find its start time
+    private static final int START_TIME_PES_COUNT = 32;
+
+    public TsIndexer() {
+        pending = new byte[TsPacket.SIZE];
+        pmtPid = -1;
+        videoPid = -1;
+        patOffset = -1;
+        pmtOffset = -1;
+        videoStartPts = -1;
+        lastVideoPts = -1;
+        offsets = new long[INITIAL_CAPACITY];
+        timestamps = new long[INITIAL_CAPACITY];
+        streamStartPts = new HashMap<>();
+        streamPesCounts = new HashMap<>();
+    }
+
+    public void write(byte[] buffer, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            if (pendingLength > 0 || end - i < TsPacket.SIZE) {
+                // Assemble a packet that's split across writes
+                int n = Math.min(TsPacket.SIZE - pendingLength, end - i);
+                System.arraycopy(buffer, i, pending, pendingLength, n);
+                pendingLength += n;
+                i += n;
+                if (pendingLength == TsPacket.SIZE) {
+                    if (TsPacket.isSynced(pending, 0)) {
+                        processPacket(pending, 0);
+                        pendingLength = 0;
+                    } else {
+                        System.arraycopy(pending, 1, pending, 0, --pendingLength);
+                        streamOffset++;
+                    }
+                }
+            } else if (TsPacket.isSynced(buffer, i)) {
+                processPacket(buffer, i);
+                i += TsPacket.SIZE;
+            } else {
+                // Lost sync; skip ahead until we find it again
+                i++;
+                streamOffset++;
+            }
+        }
+    }
+
+    private void processPacket(byte[] buffer, int offset) {
+        long packetOffset = streamOffset;
+        streamOffset += TsPacket.SIZE;
+        if (TsPacket.hasTransportError(buffer, offset)) {
+            return;
+        }
+
+        int pid = TsPacket.getPid(buffer, offset);
+        if (pid == TsPacket.PAT_PID) {
+            if (pmtPid < 0) {
+                pmtPid = ProgramInfo.parsePmtPid(buffer, offset);
+                patOffset = pmtPid >= 0 ? packetOffset : -1;
+            }
+        } else if (pid == pmtPid) {
+            if (program == null) {
+                program = ProgramInfo.parsePmt(buffer, offset);
+                if (program != null) {
+                    pmtOffset = packetOffset;
+                    videoPid = program.getVideoPid();
+                    videoStreamType = videoPid >= 0 ? program.getStreamTypes().get(videoPid) : 0;
+                }
+            }
+        } else if (pid == videoPid && TsPacket.isPayloadUnitStart(buffer, offset)) {
+            processVideoPesStart(buffer, offset, packetOffset);
+        } else if (program != null && TsPacket.isPayloadUnitStart(buffer, offset) &&
+                program.getStreamTypes().containsKey(pid)) {
+            int payload = TsPacket.getPayloadOffset(buffer, offset);
+            if (payload >= 0 && hasPts(buffer, offset + payload, offset + TsPacket.SIZE)) {
+                updateStartTime(pid, TsPacket.readTimestamp(buffer, offset + payload + 9));
+            }
+        }
+    }
+
+    private static boolean hasPts(byte[] buffer, int pes, int end) {
+        return pes + 14 <= end && buffer[pes] == 0 && buffer[pes + 1] == 0 && buffer[pes + 2] == 1 &&
+                (buffer[pes + 7] & 0x80) != 0;
+    }
+
+    private void updateStartTime(int pid, long pts) {
+        int pesCount = streamPesCounts.getOrDefault(pid, 0);
+        if (pesCount < START_TIME_PES_COUNT) {
+            streamPesCounts.put(pid, pesCount + 1);
+            streamStartPts.merge(pid, pts, Math::min);
+        }
+    }
+
+    private void processVideoPesStart(byte[] buffer, int offset, long packetOffset) {
+        int payload = TsPacket.getPayloadOffset(buffer, offset);
+        if (payload < 0) {
+            return;
+        }
+        int pes = offset + payload;
+        int end = offset + TsPacket.SIZE;
+        if (!hasPts(buffer, pes, end)) {
+            return;
+        }
+        updateStartTime(videoPid, TsPacket.readTimestamp(buffer, pes + 9));
+        long pts = unwrap(TsPacket.readTimestamp(buffer, pes + 9));
+        if (videoStartPts < 0 || pts < videoStartPts) {
+            videoStartPts = pts;
+        }
+        int elementaryStream = pes + 9 + (buffer[pes + 8] & 0xFF);
+        if (TsPacket.isRandomAccess(buffer, offset) || containsKeyframe(buffer, elementaryStream, end)) {
+            addEntry(packetOffset, pts);
+        }
+    }
+
+    /**
+     * Keep timestamps increasing after the 33-bit PTS counter wraps around.
+     */
+    private long unwrap(long pts) {
+        long unwrapped = pts + ptsEpoch;
+        if (lastVideoPts >= 0 && unwrapped < lastVideoPts - PTS_WRAP / 2) {
+            ptsEpoch += PTS_WRAP;
+            unwrapped += PTS_WRAP;
+        }
+        lastVideoPts = unwrapped;
+        return unwrapped;
+    }
+
+    /**
+     * Look for the start of a sequence, GOP, or I-frame (MPEG-2) or an IDR/parameter set (H.264, H.265).
+     */
+    private boolean containsKeyframe(byte[] buffer, int start, int end) {
+        for (int i = start; i + 5 < end; i++) {
+            if (buffer[i] != 0 || buffer[i + 1] != 0 || buffer[i + 2] != 1) {
+                continue;
+            }
+            int code = buffer[i + 3] & 0xFF;
+            switch (videoStreamType) {
+                case 0x01:
+                case 0x02:
+                    if (code == 0xB3 || code == 0xB8) {
+                        return true;
+                    } else if (code == 0x00) {
+                        return ((buffer[i + 5] >> 3) & 0x07) == 1;
+                    }
+                    break;
+                case 0x1B:
+                    int nalType = code & 0x1F;
+                    if (nalType == 5 || nalType == 7) {
+                        return true;
+                    }
+                    break;
+                case 0x24:
+                    int hevcNalType = (code >> 1) & 0x3F;
+                    if ((hevcNalType >= 16 && hevcNalType <= 21) || hevcNalType == 32) {
+                        return true;
+                    }
+                    break;
+            }
+        }
+        return false;
+    }
+
+    private void addEntry(long offset, long pts) {
+        if (count > 0 && timestamps[count - 1] == pts) {
+            return;
+        }
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            timestamps = Arrays.copyOf(timestamps, count * 2);
+        }
+        offsets[count] = offset;
+        timestamps[count] = pts;
+        count++;
+    }
+
+    /**
+     * Returns the index of everything written so far.
+     */
+    public KeyframeIndex finish() {
+        return new KeyframeIndex(streamOffset + pendingLength, program != null ? program.getStreamTypes() : null,
+                streamStartPts, videoPid, program != null ? program.getPcrPid() : -1, patOffset, pmtOffset,
+                videoStartPts, Arrays.copyOf(offsets, count), Arrays.copyOf(timestamps, count));
+    }
+}
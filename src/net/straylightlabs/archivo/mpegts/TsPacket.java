@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.mpegts;
+
+/**
+ * Helpers for reading and writing fields of 188-byte MPEG transport stream packets stored in byte arrays.
+ */
+final class TsPacket {
+    static final int SIZE = 188;
+    static final byte SYNC_BYTE = 0x47;
+    static final int PAT_PID = 0x0000;
+    static final int NULL_PID = 0x1FFF;
+
+    private static final int HEADER_SIZE = 4;
+    private static final int ADAPTATION_FIELD_FLAG = 0x20;
+    private static final int PAYLOAD_FLAG = 0x10;
+    private static final int DISCONTINUITY_FLAG = 0x80;
+    private static final int RANDOM_ACCESS_FLAG = 0x40;
+    private static final int PCR_FLAG = 0x10;
+
+    private TsPacket() {
+    }
+
+    static boolean isSynced(byte[] buffer, int offset) {
+        return buffer[offset] == SYNC_BYTE;
+    }
+
+    static boolean hasTransportError(byte[] buffer, int offset) {
+        return (buffer[offset + 1] & 0x80) != 0;
+    }
+
+    static boolean isPayloadUnitStart(byte[] buffer, int offset) {
+        return (buffer[offset + 1] & 0x40) != 0;
+    }
+
+    static int getPid(byte[] buffer, int offset) {
+        return ((buffer[offset + 1] & 0x1F) << 8) | (buffer[offset + 2] & 0xFF);
+    }
+
+    static boolean hasAdaptationField(byte[] buffer, int offset) {
+        return (buffer[offset + 3] & ADAPTATION_FIELD_FLAG) != 0;
+    }
+
+    static boolean hasPayload(byte[] buffer, int offset) {
+        return (buffer[offset + 3] & PAYLOAD_FLAG) != 0;
+    }
+
+    static int getContinuityCounter(byte[] buffer, int offset) {
+        return buffer[offset + 3] & 0x0F;
+    }
+
+    /**
+     * Returns the position of the first payload byte, relative to the start of the packet, or -1 if the packet
+     * doesn't have a valid payload.
+     */
+    static int getPayloadOffset(byte[] buffer, int offset) {
+        if (!hasPayload(buffer, offset)) {
+            return -1;
+        }
+        int payloadOffset = HEADER_SIZE;
+        if (hasAdaptationField(buffer, offset)) {
+            payloadOffset += 1 + (buffer[offset + 4] & 0xFF);
+        }
+        return payloadOffset < SIZE ? payloadOffset : -1;
+    }
+
+    private static boolean hasAdaptationFlags(byte[] buffer, int offset) {
+        return hasAdaptationField(buffer, offset) && (buffer[offset + 4] & 0xFF) > 0;
+    }
+
+    static boolean isRandomAccess(byte[] buffer, int offset) {
+        return hasAdaptationFlags(buffer, offset) && (buffer[offset + 5] & RANDOM_ACCESS_FLAG) != 0;
+    }
+
+    static boolean hasPcr(byte[] buffer, int offset) {
+        return hasAdaptationFlags(buffer, offset) && (buffer[offset + 4] & 0xFF) >= 7 &&
+                (buffer[offset + 5] & PCR_FLAG) != 0;
+    }
+
+    /**
+     * Returns the 33-bit, 90 kHz base of this packet's program clock reference.
+     */
+    static long getPcrBase(byte[] buffer, int offset) {
+        return ((buffer[offset + 6] & 0xFFL) << 25) | ((buffer[offset + 7] & 0xFFL) << 17) |
+                ((buffer[offset + 8] & 0xFFL) << 9) | ((buffer[offset + 9] & 0xFFL) << 1) |
+                ((buffer[offset + 10] & 0x80L) >>> 7);
+    }
+
+    /**
+     * Fill @buffer with an adaptation-field-only packet for @pid that flags a discontinuity. The continuity counter
+     * is set so the next packet carrying @nextContinuityCounter follows it without error.
+     */
+    static void writeDiscontinuityPacket(byte[] buffer, int offset, int pid, int nextContinuityCounter) {
+        buffer[offset] = SYNC_BYTE;
+        buffer[offset + 1] = (byte) ((pid >> 8) & 0x1F);
+        buffer[offset + 2] = (byte) (pid & 0xFF);
+        // Packets without a payload don't advance the counter, so repeat the one before @nextContinuityCounter
+        buffer[offset + 3] = (byte) (ADAPTATION_FIELD_FLAG | ((nextContinuityCounter - 1) & 0x0F));
+        buffer[offset + 4] = (byte) (SIZE - HEADER_SIZE - 1);
+        buffer[offset + 5] = (byte) DISCONTINUITY_FLAG;
+        for (int i = offset + 6; i < offset + SIZE; i++) {
+            buffer[i] = (byte) 0xFF;
+        }
+    }
+
+    /**
+     * Replace the 33-bit base of this packet's program clock reference, leaving its extension alone.
+     */
+    static void setPcrBase(byte[] buffer, int offset, long pcrBase) {
+        buffer[offset + 6] = (byte) (pcrBase >>> 25);
+        buffer[offset + 7] = (byte) (pcrBase >>> 17);
+        buffer[offset + 8] = (byte) (pcrBase >>> 9);
+        buffer[offset + 9] = (byte) (pcrBase >>> 1);
+        buffer[offset + 10] = (byte) ((buffer[offset + 10] & 0x7F) | ((pcrBase & 0x01) << 7));
+    }
+
+    /**
+     * Read a 33-bit PES timestamp (PTS or DTS) starting at @position.
+     */
+    static long readTimestamp(byte[] buffer, int position) {
+        return ((buffer[position] & 0x0EL) << 29) | ((buffer[position + 1] & 0xFFL) << 22) |
+                ((buffer[position + 2] & 0xFEL) << 14) | ((buffer[position + 3] & 0xFFL) << 7) |
+                ((buffer[position + 4] & 0xFEL) >>> 1);
+    }
+
+    /**
+     * Write a 33-bit PES timestamp starting at @position, keeping the 4-bit prefix that identifies it as a PTS or DTS.
+     */
+    static void writeTimestamp(byte[] buffer, int position, long timestamp) {
+        buffer[position] = (byte) ((buffer[position] & 0xF0) | ((timestamp >>> 29) & 0x0E) | 0x01);
+        buffer[position + 1] = (byte) (timestamp >>> 22);
+        buffer[position + 2] = (byte) (((timestamp >>> 14) & 0xFE) | 0x01);
+        buffer[position + 3] = (byte) (timestamp >>> 7);
+        buffer[position + 4] = (byte) (((timestamp << 1) & 0xFE) | 0x01);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.mpegts;
+
+import net.straylightlabs.archivo.utilities.OSHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.OptionalDouble;
+
+/**
+ * Find the start times and formats of the streams in a transport stream by reading just the beginning of the file.
+ */
+public class TsProbe {
+    private static final int PROBE_SIZE = 8 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_VIDEO_PAYLOAD = 4 * 1024 * 1024;
+    private static final int NAL_TYPE_SPS = 7;
+
+    private TsProbe() {
+    }
+
+    /**
+     * Returns how far the first video stream of @file starts after its first audio stream, in seconds.
+     */
+    public static OptionalDouble findVideoOffsetFromAudio(Path file) throws IOException {
+        TsIndexer indexer = new TsIndexer();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int length = (int) Math.min(channel.size(), PROBE_SIZE);
+            byte[] chunk = new byte[CHUNK_SIZE];
+            if (OSHelper.isWindows()) {
+                // Windows won't let us delete a file while it's mapped, and we can't control when the mapping is
+                // released, so read it instead
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                for (int position = 0; position < length; position += buffer.position(), buffer.clear()) {
+                    buffer.limit(Math.min(CHUNK_SIZE, length - position));
+                    if (channel.read(buffer, position) <= 0) {
+                        break;
+                    }
+                    indexer.write(chunk, 0, buffer.position());
+                }
+            } else {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                while (buffer.hasRemaining()) {
+                    int n = Math.min(CHUNK_SIZE, buffer.remaining());
+                    buffer.get(chunk, 0, n);
+                    indexer.write(chunk, 0, n);
+                }
+            }
+        }
+        return indexer.finish().getVideoOffsetFromAudio();
+    }
+
+    /**
+     * Returns the codecs of the first video and audio streams in @file, along with the video's format when it's
+     * H.264, or null if we couldn't find a program with a video stream.
+     */
+    public static MediaInfo probeMedia(Path file) throws IOException {
+        byte[] buffer;
+        int length;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = new byte[(int) Math.min(channel.size(), PROBE_SIZE)];
+            ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+            while (wrapper.hasRemaining() && channel.read(wrapper, wrapper.position()) > 0) {
+                // keep reading until we fill the buffer or reach the end of the file
+            }
+            length = wrapper.position();
+        }
+
+        int pmtPid = -1;
+        ProgramInfo program = null;
+        int videoPid = -1;
+        ByteArrayOutputStream videoPayload = new ByteArrayOutputStream();
+        for (int i = 0; i + TsPacket.SIZE <= length && videoPayload.size() < MAX_VIDEO_PAYLOAD; ) {
+            if (!TsPacket.isSynced(buffer, i)) {
+                i++;
+                continue;
+            }
+            if (!TsPacket.hasTransportError(buffer, i)) {
+                int pid = TsPacket.getPid(buffer, i);
+                if (pid == TsPacket.PAT_PID && pmtPid < 0) {
+                    pmtPid = ProgramInfo.parsePmtPid(buffer, i);
+                } else if (pid == pmtPid && program == null) {
+                    program = ProgramInfo.parsePmt(buffer, i);
+                    videoPid = program != null ? program.getVideoPid() : -1;
+                } else if (pid == videoPid) {
+                    appendPayload(buffer, i, videoPayload);
+                }
+            }
+            i += TsPacket.SIZE;
+        }
+        if (program == null || videoPid < 0) {
+            return null;
+        }
+
+        int audioStreamType = program.getStreamTypes().values().stream().filter(ProgramInfo::isAudioStreamType)
+                .findFirst().orElse(-1);
+        MediaInfo info = new MediaInfo(MediaInfo.VideoCodec.fromStreamType(program.getStreamTypes().get(videoPid)),
+                audioStreamType < 0 ? MediaInfo.AudioCodec.NONE : MediaInfo.AudioCodec.fromStreamType(audioStreamType));
+        if (info.getVideoCodec() == MediaInfo.VideoCodec.H264) {
+            parseH264Sps(videoPayload.toByteArray(), info);
+        }
+        return info;
+    }
+
+    /**
+     * Append the elementary stream data in the packet at @offset to @payload, skipping any PES header.
+     */
+    private static void appendPayload(byte[] buffer, int offset, ByteArrayOutputStream payload) {
+        int start = TsPacket.getPayloadOffset(buffer, offset);
+        if (start < 0) {
+            return;
+        }
+        start += offset;
+        int end = offset + TsPacket.SIZE;
+        if (TsPacket.isPayloadUnitStart(buffer, offset)) {
+            if (start + 9 > end || buffer[start] != 0 || buffer[start + 1] != 0 || buffer[start + 2] != 1) {
+                return;
+            }
+            start += 9 + (buffer[start + 8] & 0xFF);
+        }
+        if (start < end) {
+            payload.write(buffer, start, end - start);
+        }
+    }
+
+    private static void parseH264Sps(byte[] stream, MediaInfo info) {
+        for (int i = 0; i + 3 < stream.length; i++) {
+            if (stream[i] == 0 && stream[i + 1] == 0 && stream[i + 2] == 1 &&
+                    (stream[i + 3] & 0x1F) == NAL_TYPE_SPS) {
+                int nalStart = i + 3;
+                int nalEnd = nalStart + 1;
+                while (nalEnd + 2 < stream.length &&
+                        !(stream[nalEnd] == 0 && stream[nalEnd + 1] == 0 && (stream[nalEnd + 2] & 0xFE) == 0)) {
+                    nalEnd++;
+                }
+                if (nalEnd + 2 >= stream.length) {
+                    nalEnd = stream.length;
+                }
+                if (H264Sps.parse(stream, nalStart, nalEnd, info)) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.mpegts;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Repair the timestamp and packet problems common in TiVo transport streams in one streaming pass:
+ * <ul>
+ * <li>Drop packets with transport errors, null packets, and bytes that aren't part of a packet</li>
+ * <li>Flag each gap in a stream's continuity counters with a discontinuity packet, so the loss stays visible to
+ * decoders</li>
+ * <li>Remove jumps in the program clock, keeping the timeline continuous</li>
+ * <li>Shift every PCR, PTS, and DTS so the earliest one is zero</li>
+ * </ul>
+ */
+public class TsRemuxer {
+    private final int[] lastCounters;
+    private long timestampBase;
+    private long correction;
+    private long lastPcr;
+    private long lastPcrInterval;
+    private int pcrPid;
+    private long droppedPackets;
+    private long skippedBytes;
+    private int clockJumps;
+    private int continuityGaps;
+    private int gapPid; // set by processPacket() when the packet it kept follows a continuity gap
+
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int BASE_SCAN_SIZE = 8 * 1024 * 1024;
+    private static final long TIMESTAMP_MASK = (1L << 33) - 1;
+    private static final long TIMESTAMP_WRAP = 1L << 33;
+    private static final long MAX_PCR_GAP = 10 * KeyframeIndex.TICKS_PER_SECOND; // like FFmpeg's dts_delta_threshold
+    private static final long DEFAULT_PCR_INTERVAL = KeyframeIndex.TICKS_PER_SECOND / 25;
+    private static final int NO_COUNTER = -1;
+
+    private final static Logger logger = LoggerFactory.getLogger(TsRemuxer.class);
+
+    public TsRemuxer() {
+        lastCounters = new int[TsPacket.NULL_PID + 1];
+        Arrays.fill(lastCounters, NO_COUNTER);
+        lastPcr = -1;
+        lastPcrInterval = DEFAULT_PCR_INTERVAL;
+        pcrPid = -1;
+    }
+
+    /**
+     * Write a repaired copy of @source to @destination. If @indexer isn't null, the output is also passed through it.
+     */
+    public void remux(Path source, Path destination, TsIndexer indexer, DoubleConsumer progress) throws IOException {
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(destination, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            timestampBase = findTimestampBase(input);
+            logger.info("Remuxing {} with a timestamp base of {}", source, timestampBase);
+
+            long totalBytes = input.size();
+            long bytesRead = 0;
+            ByteBuffer inBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            ByteBuffer outBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            byte[] in = inBuffer.array();
+            input.position(0);
+            for (int n = input.read(inBuffer); n >= 0 || inBuffer.position() >= TsPacket.SIZE; n = input.read(inBuffer)) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Remuxing interrupted");
+                }
+                bytesRead += Math.max(n, 0);
+                int end = inBuffer.position();
+                int i = 0;
+                while (end - i >= TsPacket.SIZE) {
+                    if (!isPacketStart(in, i, end)) {
+                        i++;
+                        skippedBytes++;
+                    } else {
+                        if (processPacket(in, i)) {
+                            if (gapPid != NO_COUNTER) {
+                                TsPacket.writeDiscontinuityPacket(outBuffer.array(), outBuffer.position(), gapPid,
+                                        TsPacket.getContinuityCounter(in, i));
+                                outBuffer.position(outBuffer.position() + TsPacket.SIZE);
+                                if (outBuffer.remaining() < TsPacket.SIZE) {
+                                    flush(outBuffer, output, indexer);
+                                }
+                            }
+                            outBuffer.put(in, i, TsPacket.SIZE);
+                            if (outBuffer.remaining() < TsPacket.SIZE) {
+                                flush(outBuffer, output, indexer);
+                            }
+                        }
+                        i += TsPacket.SIZE;
+                    }
+                }
+                // Keep the partial packet at the end for the next read
+                System.arraycopy(in, i, in, 0, end - i);
+                inBuffer.position(end - i);
+                progress.accept(bytesRead / (double) totalBytes);
+                if (n < 0) {
+                    break;
+                }
+            }
+            skippedBytes += inBuffer.position();
+            flush(outBuffer, output, indexer);
+        }
+        logger.info("Remux finished: dropped {} packets, skipped {} bytes, flagged {} continuity gaps, " +
+                "removed {} clock jumps", droppedPackets, skippedBytes, continuityGaps, clockJumps);
+    }
+
+    /**
+     * A packet starts at @i if it has a sync byte, and so does the packet after it (when we can see it).
+     */
+    private boolean isPacketStart(byte[] buffer, int i, int end) {
+        return TsPacket.isSynced(buffer, i) && (i + TsPacket.SIZE >= end || TsPacket.isSynced(buffer, i + TsPacket.SIZE));
+    }
+
+    private void flush(ByteBuffer outBuffer, FileChannel output, TsIndexer indexer) throws IOException {
+        outBuffer.flip();
+        if (indexer != null) {
+            indexer.write(outBuffer.array(), 0, outBuffer.limit());
+        }
+        while (outBuffer.hasRemaining()) {
+            output.write(outBuffer);
+        }
+        outBuffer.clear();
+    }
+
+    /**
+     * Find the earliest PCR, PTS, or DTS near the start of the file; it becomes our zero point.
+     */
+    private long findTimestampBase(FileChannel input) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BASE_SCAN_SIZE, input.size()));
+        while (buffer.hasRemaining() && input.read(buffer, buffer.position()) > 0) {
+            // keep reading until the buffer is full
+        }
+        byte[] packets = buffer.array();
+        long base = Long.MAX_VALUE;
+        for (int i = 0; i + TsPacket.SIZE <= buffer.position(); ) {
+            if (!TsPacket.isSynced(packets, i)) {
+                i++;
+                continue;
+            }
+            if (!TsPacket.hasTransportError(packets, i)) {
+                if (TsPacket.hasPcr(packets, i)) {
+                    base = Math.min(base, TsPacket.getPcrBase(packets, i));
+                }
+                int pes = findPesHeader(packets, i);
+                if (pes >= 0) {
+                    base = Math.min(base, TsPacket.readTimestamp(packets, pes + 9));
+                    if (hasDts(packets, pes)) {
+                        base = Math.min(base, TsPacket.readTimestamp(packets, pes + 14));
+                    }
+                }
+            }
+            i += TsPacket.SIZE;
+        }
+        return base == Long.MAX_VALUE ? 0 : base;
+    }
+
+    /**
+     * Returns the position of a PES header with a PTS at the start of this packet's payload, or -1.
+     */
+    private static int findPesHeader(byte[] buffer, int offset) {
+        if (!TsPacket.isPayloadUnitStart(buffer, offset)) {
+            return -1;
+        }
+        int payload = TsPacket.getPayloadOffset(buffer, offset);
+        if (payload < 0) {
+            return -1;
+        }
+        int pes = offset + payload;
+        if (pes + 19 > offset + TsPacket.SIZE || buffer[pes] != 0 || buffer[pes + 1] != 0 || buffer[pes + 2] != 1 ||
+                (buffer[pes + 6] & 0xC0) != 0x80 || (buffer[pes + 7] & 0x80) == 0) {
+            return -1;
+        }
+        return pes;
+    }
+
+    private static boolean hasDts(byte[] buffer, int pes) {
+        return (buffer[pes + 7] & 0xC0) == 0xC0;
+    }
+
+    /**
+     * Repair the packet at @offset in place.
+     *
+     * @return false if the packet should be dropped
+     */
+    private boolean processPacket(byte[] buffer, int offset) {
+        gapPid = NO_COUNTER;
+        int pid = TsPacket.getPid(buffer, offset);
+        if (TsPacket.hasTransportError(buffer, offset) || pid == TsPacket.NULL_PID) {
+            droppedPackets++;
+            return false;
+        }
+
+        if (TsPacket.hasPayload(buffer, offset)) {
+            // A repeated counter marks a legal duplicate packet; anything else out of sequence means packets are lost
+            int counter = TsPacket.getContinuityCounter(buffer, offset);
+            int last = lastCounters[pid];
+            if (last != NO_COUNTER && counter != last && counter != ((last + 1) & 0x0F)) {
+                gapPid = pid;
+                continuityGaps++;
+            }
+            lastCounters[pid] = counter;
+        }
+
+        if (TsPacket.hasPcr(buffer, offset)) {
+            if (pcrPid < 0) {
+                pcrPid = pid;
+            }
+            long pcr = TsPacket.getPcrBase(buffer, offset);
+            if (pid == pcrPid) {
+                updateCorrection(pcr);
+            }
+            TsPacket.setPcrBase(buffer, offset, adjust(pcr));
+        }
+
+        int pes = findPesHeader(buffer, offset);
+        if (pes >= 0) {
+            TsPacket.writeTimestamp(buffer, pes + 9, adjust(TsPacket.readTimestamp(buffer, pes + 9)));
+            if (hasDts(buffer, pes)) {
+                TsPacket.writeTimestamp(buffer, pes + 14, adjust(TsPacket.readTimestamp(buffer, pes + 14)));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * If the program clock jumped backwards or too far forwards, shift everything after the jump so the clock
+     * advances by its usual interval instead.
+     */
+    private void updateCorrection(long pcr) {
+        if (lastPcr >= 0) {
+            long delta = pcr - lastPcr;
+            if (delta < -TIMESTAMP_WRAP / 2) {
+                delta += TIMESTAMP_WRAP; // the clock wrapped around, which isn't a jump
+            }
+            if (delta < 0 || delta > MAX_PCR_GAP) {
+                correction -= delta - lastPcrInterval;
+                clockJumps++;
+                logger.debug("Program clock jumped by {} ticks, correction is now {}", delta, correction);
+            } else if (delta > 0) {
+                lastPcrInterval = delta;
+            }
+        }
+        lastPcr = pcr;
+    }
+
+    private long adjust(long timestamp) {
+        return (timestamp - timestampBase + correction) & TIMESTAMP_MASK;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2015-2016 Todd Kulesza <todd@dropline.net>.
+ *
+ * This file is part of Archivo.
+ *
+ * Archivo is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Archivo is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Archivo.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.straylightlabs.archivo.mpegts;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Cut a transport stream by copying the byte ranges between keyframes straight from the source file.
+ * The payload is never rewritten; at each splice point we insert a packet per elementary stream that flags a
+ * discontinuity, so decoders accept the jump in timestamps and continuity counters.
+ */
+public class TsSplicer {
+    private final Path source;
+    private final KeyframeIndex index;
+
+    private static final long TRANSFER_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int PROBE_PACKETS = 2048; // packets to read at each splice point when looking for stream PIDs
+
+    private final static Logger logger = LoggerFactory.getLogger(TsSplicer.class);
+
+    /**
+     * A span of the source video to keep, in seconds from the start of its video stream.
+     */
+    public static class Range {
+        private final double startSeconds;
+        private final double endSeconds;
+
+        public Range(double startSeconds, double endSeconds) {
+            this.startSeconds = startSeconds;
+            this.endSeconds = endSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return "Range{" +
+                    "startSeconds=" + startSeconds +
+                    ", endSeconds=" + endSeconds +
+                    '}';
+        }
+    }
+
+    public TsSplicer(Path source, KeyframeIndex index) {
+        if (!index.isUsable()) {
+            throw new IllegalArgumentException("Index doesn't describe a video stream with keyframes");
+        }
+        this.source = source;
+        this.index = index;
+    }
+
+    /**
+     * Copy the parts of our source covered by @ranges to @destination, reporting the fraction completed to @progress.
+     */
+    public void splice(List<Range> ranges, Path destination, DoubleConsumer progress) throws IOException {
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ)) {
+            copyByteRanges(input, toByteRanges(ranges, input.size()), destination, progress);
+        }
+    }
+
+    /**
+     * Copy the bytes between @startOffset and @endOffset to @destination as a standalone stream.
+     * Both offsets should come from our index (or be 0 and the end of the file), so the copy starts on a keyframe.
+     */
+    public void extract(long startOffset, long endOffset, Path destination) throws IOException {
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ)) {
+            copyByteRanges(input, Collections.singletonList(new long[]{startOffset, endOffset}), destination,
+                    fraction -> {
+                    });
+        }
+    }
+
+    private void copyByteRanges(FileChannel input, List<long[]> byteRanges, Path destination, DoubleConsumer progress)
+            throws IOException {
+        try (FileChannel output = FileChannel.open(destination, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long totalBytes = byteRanges.stream().mapToLong(r -> r[1] - r[0]).sum();
+            logger.info("Copying {} byte ranges ({} bytes) from {}", byteRanges.size(), totalBytes, source);
+
+            long bytesCopied = 0;
+            boolean first = true;
+            for (long[] range : byteRanges) {
+                if (first && range[0] > 0) {
+                    // Start with the program tables so the output is playable from its first packet
+                    copyPacket(input, output, index.getPatOffset());
+                    copyPacket(input, output, index.getPmtOffset());
+                }
+                writeDiscontinuities(input, output, range[0]);
+                first = false;
+                for (long position = range[0]; position < range[1]; ) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Splicing interrupted");
+                    }
+                    long transferred = input.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, range[1] - position),
+                            output);
+                    if (transferred <= 0) {
+                        throw new IOException(String.format("Could not read %s at offset %d", source, position));
+                    }
+                    position += transferred;
+                    bytesCopied += transferred;
+                    progress.accept(bytesCopied / (double) totalBytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Convert @ranges of time to sorted, non-overlapping ranges of bytes that start and end on keyframes.
+     */
+    private List<long[]> toByteRanges(List<Range> ranges, long fileSize) {
+        List<long[]> byteRanges = new ArrayList<>();
+        long startPts = index.getVideoStartPts();
+        for (Range range : ranges) {
+            long start = range.startSeconds <= 0 ? 0 : index.findKeyframeAtOrBefore(
+                    startPts + Math.round(range.startSeconds * KeyframeIndex.TICKS_PER_SECOND));
+            long end = index.findKeyframeAtOrAfter(
+                    startPts + Math.round(range.endSeconds * KeyframeIndex.TICKS_PER_SECOND));
+            if (end < 0) {
+                end = fileSize - (fileSize % TsPacket.SIZE);
+            }
+            if (end > start) {
+                byteRanges.add(new long[]{start, end});
+            } else {
+                logger.warn("Skipping empty range {}", range);
+            }
+        }
+        byteRanges.sort(Comparator.comparingLong(r -> r[0]));
+
+        List<long[]> merged = new ArrayList<>();
+        for (long[] range : byteRanges) {
+            long[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (previous != null && range[0] <= previous[1]) {
+                previous[1] = Math.max(previous[1], range[1]);
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    private void copyPacket(FileChannel input, FileChannel output, long offset) throws IOException {
+        ByteBuffer packet = ByteBuffer.allocate(TsPacket.SIZE);
+        while (packet.hasRemaining() && input.read(packet, offset + packet.position()) > 0) {
+            // keep reading until we have the whole packet
+        }
+        packet.flip();
+        writeFully(output, packet);
+    }
+
+    /**
+     * Find the first packet of each elementary stream after @offset and insert a discontinuity packet that leads
+     * into it.
+     */
+    private void writeDiscontinuities(FileChannel input, FileChannel output, long offset) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(PROBE_PACKETS * TsPacket.SIZE);
+        input.read(window, offset);
+        byte[] packets = window.array();
+        Set<Integer> remaining = new HashSet<>(index.getElementaryPids());
+        ByteBuffer discontinuities = ByteBuffer.allocate(remaining.size() * TsPacket.SIZE);
+        for (int i = 0; i + TsPacket.SIZE <= window.position() && !remaining.isEmpty(); i += TsPacket.SIZE) {
+            if (!TsPacket.isSynced(packets, i) || !TsPacket.hasPayload(packets, i)) {
+                continue;
+            }
+            int pid = TsPacket.getPid(packets, i);
+            if (remaining.remove(pid)) {
+                TsPacket.writeDiscontinuityPacket(discontinuities.array(), discontinuities.position(), pid,
+                        TsPacket.getContinuityCounter(packets, i));
+                discontinuities.position(discontinuities.position() + TsPacket.SIZE);
+            }
+        }
+        discontinuities.flip();
+        writeFully(output, discontinuities);
+    }
+
+    private void writeFully(FileChannel output, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+    }
+}
@@ -22,6 +22,9 @@ package net.straylightlabs.archivo.utilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -29,10 +32,12 @@ public class OSHelper {
     private static final String osName;
     private static final Runtime runtime;
     private static int cpuThreads;
+    private static long totalMemoryMB;
     private static Boolean isAMD64;
     private static String exeSuffix;
 
-    @SuppressWarnings("unused")
+    private static final long DEFAULT_MEMORY_MB = 2048;
+
     private final static Logger logger = LoggerFactory.getLogger(OSHelper.class);
 
     static {
@@ -48,6 +53,10 @@ public class OSHelper {
         return osName.startsWith("mac os");
     }
 
+    public static boolean isLinux() {
+        return osName.startsWith("linux");
+    }
+
     public static String getExeSuffix() {
         if (exeSuffix == null) {
             if (isWindows()) {
@@ -86,6 +95,42 @@ public class OSHelper {
         return cpuThreads;
     }
 
+    /**
+     * Returns the amount of physical memory installed in this computer, or a conservative guess if the JVM
+     * can't tell us.
+     */
+    public static long getTotalMemoryMB() {
+        if (totalMemoryMB == 0) {
+            totalMemoryMB = getTotalMemoryBytes() / 1024 / 1024;
+            if (totalMemoryMB <= 0) {
+                logger.warn("Unable to determine physical memory size, assuming {} MB", DEFAULT_MEMORY_MB);
+                totalMemoryMB = DEFAULT_MEMORY_MB;
+            }
+        }
+        return totalMemoryMB;
+    }
+
+    /**
+     * Ask the platform MXBean for the physical memory size. Newer JVMs deprecate getTotalPhysicalMemorySize() in
+     * favor of getTotalMemorySize(), and not every JVM has either, so look them up by name.
+     *
+     * @return the size in bytes, or 0 if it's unavailable
+     */
+    private static long getTotalMemoryBytes() {
+        OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        for (String methodName : new String[]{"getTotalMemorySize", "getTotalPhysicalMemorySize"}) {
+            try {
+                Method method = Class.forName("com.sun.management.OperatingSystemMXBean").getMethod(methodName);
+                if (method.getDeclaringClass().isInstance(osBean)) {
+                    return (Long) method.invoke(osBean);
+                }
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                logger.debug("{} is unavailable: {}", methodName, e.toString());
+            }
+        }
+        return 0;
+    }
+
     @SuppressWarnings("unused")
     public static Path getApplicationDirectory() {
         if (isWindows()) {
@@ -33,6 +33,7 @@ import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.Pane;
 import net.straylightlabs.archivo.Archivo;
+import net.straylightlabs.archivo.controller.ArchiveStatusHub;
 import net.straylightlabs.archivo.model.ArchiveStatus;
 import net.straylightlabs.archivo.model.Recording;
 import org.controlsfx.glyphfont.FontAwesome;
@@ -198,7 +199,7 @@ public class RecordingDetailsController implements Initializable {
         for (Recording recording : recordingSelection.getRecordings()) {
             logger.info("Cancel archiving of recording {}...", recording.getFullTitle());
             mainApp.cancelArchiving(recording);
-            recording.setStatus(ArchiveStatus.EMPTY);
+            ArchiveStatusHub.publishNow(recording, ArchiveStatus.EMPTY);
         }
     }
 
@@ -208,6 +208,10 @@ public class RecordingListController implements Initializable {
         cancel.disableProperty().bind(recordingSelection.isCancellableProperty().not());
         cancel.setOnAction(event -> mainApp.getRecordingDetailsController().cancel(event));
 
+        MenuItem prioritize = new MenuItem("Archive Next");
+        prioritize.disableProperty().bind(recordingSelection.isCancellableProperty().not());
+        prioritize.setOnAction(event -> recordingSelection.getRecordings().forEach(mainApp::prioritizeArchiving));
+
         MenuItem play = new MenuItem("Play");
         play.disableProperty().bind(recordingSelection.isPlayableProperty().not());
         play.setOnAction(event -> mainApp.getRecordingDetailsController().play(event));
@@ -220,7 +224,7 @@ public class RecordingListController implements Initializable {
         delete.disableProperty().bind(recordingSelection.isRemovableProperty().not());
         delete.setOnAction(event -> mainApp.getRecordingDetailsController().delete(event));
 
-        menu.getItems().addAll(archive, cancel, play, openFolder, new SeparatorMenuItem(), delete);
+        menu.getItems().addAll(archive, cancel, prioritize, play, openFolder, new SeparatorMenuItem(), delete);
 
         recordingTreeTable.setContextMenu(menu);
     }
@@ -277,6 +281,7 @@ public class RecordingListController implements Initializable {
         task.setOnSucceeded(event -> {
             logger.info("Fetching list of recordings succeeded.");
             fillTreeTableView(command.getSeries());
+            mainApp.resumeArchiving(getAllEpisodes(command.getSeries()), tivo);
             updateTivoDetails(tivo);
         });
         task.setOnFailed(event -> {
@@ -396,6 +401,32 @@ public class RecordingListController implements Initializable {
         }
     }
 
+    private static List<Recording> getAllEpisodes(List<Series> series) {
+        return series.stream().flatMap(s -> s.getEpisodes().stream()).collect(Collectors.toList());
+    }
+
+    /**
+     * Resume the interrupted archive tasks from each TiVo we found other than the selected one, so they don't wait
+     * for the user to open that TiVo's recordings. The selected TiVo resumes its own when its recordings load.
+     */
+    private void resumeArchivingFromOtherTivos() {
+        Tivo selected = tivoList.getValue();
+        List<Tivo> others;
+        synchronized (tivos) {
+            others = tivos.stream().filter(tivo -> !tivo.equals(selected)).filter(mainApp::hasResumableTasks)
+                    .collect(Collectors.toList());
+        }
+        for (Tivo tivo : others) {
+            logger.info("Fetching recordings from {} to resume its archive tasks", tivo);
+            MindCommandRecordingFolderItemSearch command = new MindCommandRecordingFolderItemSearch(tivo);
+            MindTask task = new MindTask(tivo.getClient(), command);
+            task.setOnSucceeded(event -> mainApp.resumeArchiving(getAllEpisodes(command.getSeries()), tivo));
+            task.setOnFailed(event -> logger.error("Error fetching recordings from {}: ", tivo.getName(),
+                    event.getSource().getException()));
+            mainApp.getRpcExecutor().submit(task);
+        }
+    }
+
     public void updateTivoDetails(Tivo tivo) {
         MindCommandBodyConfigSearch bodyConfigSearch = new MindCommandBodyConfigSearch(tivo);
         MindTask bodyConfigTask = new MindTask(tivo.getClient(), bodyConfigSearch);
@@ -496,6 +527,7 @@ public class RecordingListController implements Initializable {
                     } else {
                         tivoList.getSelectionModel().selectFirst();
                     }
+                    resumeArchivingFromOtherTivos();
                     Archivo.telemetryController.sendFoundTivosEvent(
                             tivos.size(), TivoSearchTask.TIMEOUTS_BEFORE_PROMPT - retries_before_prompt
                     );
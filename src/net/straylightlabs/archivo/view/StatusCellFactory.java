@@ -81,6 +81,12 @@ class StatusCellFactory extends TreeTableCell<Recording, ArchiveStatus> {
                     setGraphic(null);
                     updateTooltip(null);
                     break;
+                case WAITING_FOR_SPACE:
+                    setText("Waiting for disk space...");
+                    setGraphic(null);
+                    updateTooltip("There isn't enough free disk space for this recording's temporary files yet. " +
+                            "We'll start it as soon as there is.");
+                    break;
                 case CONNECTING:
                     setProgress(ArchiveStatus.INDETERMINATE);
                     int secondsRemaining = status.getSecondsRemaining();
@@ -106,7 +112,7 @@ class StatusCellFactory extends TreeTableCell<Recording, ArchiveStatus> {
                 case DOWNLOADED:
                     setText("Download ready, waiting to process...");
                     setProgress(ArchiveStatus.INDETERMINATE);
-                    updateTooltip("We'll process this recording after the current archive has finished");
+                    updateTooltip("We'll process this recording as soon as your computer has room for it");
                     break;
                 case REMUXING:
                     setText(String.format("Repairing video file... (%s)", formatRemainingTime(status.getSecondsRemaining())));
@@ -128,6 +134,11 @@ class StatusCellFactory extends TreeTableCell<Recording, ArchiveStatus> {
                     setProgress(status.getProgress());
                     updateTooltip(null);
                     break;
+                case MOVING:
+                    setText(String.format("Moving to destination... (%s)", formatRemainingTime(status.getSecondsRemaining())));
+                    setProgress(status.getProgress());
+                    updateTooltip(null);
+                    break;
                 case FINISHED:
                     setText("Archived");
                     setProgress(1.0);